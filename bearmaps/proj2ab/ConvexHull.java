@@ -0,0 +1,60 @@
+package bearmaps.proj2ab;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Computes the convex hull of a set of points in the plane with Andrew's
+ * monotone chain algorithm, in O(N log N) time.
+ *
+ * @author Rui Gao
+ */
+public class ConvexHull {
+    private ConvexHull() {
+    }
+
+    /**
+     * Returns the indices of the points (XS[i], YS[i]) on the convex hull, in
+     * counterclockwise order starting from the lowest leftmost point. Points in the
+     * interior of hull edges are left out. Fewer than three points are all returned.
+     */
+    public static int[] of(double[] xs, double[] ys) {
+        int n = xs.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> xs[i])
+                .thenComparingDouble(i -> ys[i]));
+        if (n < 3) {
+            return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+        }
+        int[] hull = new int[2 * n];
+        int size = 0;
+        /* The lower hull left to right, then the upper hull right to left. */
+        for (int k = 0; k < n; k++) {
+            size = push(hull, size, 2, order[k], xs, ys);
+        }
+        int lowerSize = size + 1;
+        for (int k = n - 2; k >= 0; k--) {
+            size = push(hull, size, lowerSize, order[k], xs, ys);
+        }
+        /* The last point pushed is the first point again. */
+        return Arrays.copyOf(hull, Math.max(size - 1, 1));
+    }
+
+    /* Pops the points of HULL that would make a clockwise or straight turn to P, down to
+     * MINSIZE points, then pushes P and returns the new size. */
+    private static int push(int[] hull, int size, int minSize, int p, double[] xs, double[] ys) {
+        while (size >= minSize && cross(hull[size - 2], hull[size - 1], p, xs, ys) <= 0) {
+            size -= 1;
+        }
+        hull[size] = p;
+        return size + 1;
+    }
+
+    /* Returns the cross product of AB and AC, which is positive if A, B, C turn counterclockwise. */
+    private static double cross(int a, int b, int c, double[] xs, double[] ys) {
+        return (xs[b] - xs[a]) * (ys[c] - ys[a]) - (ys[b] - ys[a]) * (xs[c] - xs[a]);
+    }
+}
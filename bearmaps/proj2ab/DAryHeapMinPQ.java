@@ -0,0 +1,108 @@
+package bearmaps.proj2ab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An ExtrinsicMinPQ backed by an IndexedMinPQ. Each item is given a dense
+ * int handle while it is in the PQ, and handles are recycled once their
+ * items are removed.
+ *
+ * @author Rui Gao
+ */
+public class DAryHeapMinPQ<T> implements ExtrinsicMinPQ<T> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final IndexedMinPQ pq;
+    private final Map<T, Integer> handles;
+    private final List<T> items;
+    private int[] freeHandles;
+    private int numFree;
+
+    public DAryHeapMinPQ() {
+        this(2);
+    }
+
+    /** Creates an empty PQ whose heap has the given ARITY (2, 4 or 8). */
+    public DAryHeapMinPQ(int arity) {
+        pq = new IndexedMinPQ(INITIAL_CAPACITY, arity);
+        handles = new HashMap<>();
+        items = new ArrayList<>();
+        freeHandles = new int[INITIAL_CAPACITY];
+        numFree = 0;
+    }
+
+    /**
+     * Adds an item with the given priority value. Throws an
+     * IllegalArgumentException if item is already present.
+     */
+    @Override
+    public void add(T item, double priority) {
+        if (contains(item)) {
+            throw new IllegalArgumentException();
+        }
+        int handle;
+        if (numFree > 0) {
+            numFree -= 1;
+            handle = freeHandles[numFree];
+            items.set(handle, item);
+        } else {
+            handle = items.size();
+            items.add(item);
+            pq.ensureCapacity(items.size());
+        }
+        handles.put(item, handle);
+        pq.add(handle, priority);
+    }
+
+    @Override
+    public boolean contains(T item) {
+        return handles.containsKey(item);
+    }
+
+    @Override
+    public T getSmallest() {
+        return items.get(pq.getSmallest());
+    }
+
+    @Override
+    public T removeSmallest() {
+        int handle = pq.removeSmallest();
+        T result = items.get(handle);
+        items.set(handle, null);
+        handles.remove(result);
+        if (numFree == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, numFree * 2);
+        }
+        freeHandles[numFree] = handle;
+        numFree += 1;
+        return result;
+    }
+
+    /**
+     * Changes the priority of the given item. Throws NoSuchElementException if the item
+     * doesn't exist.
+     */
+    @Override
+    public void changePriority(T item, double priority) {
+        Integer handle = handles.get(item);
+        if (handle == null) {
+            throw new NoSuchElementException();
+        }
+        pq.changePriority(handle, priority);
+    }
+
+    @Override
+    public int size() {
+        return pq.size();
+    }
+
+    @Override
+    public double getSmallestPriority() {
+        return pq.getSmallestPriority();
+    }
+}
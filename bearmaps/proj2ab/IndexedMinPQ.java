@@ -0,0 +1,187 @@
+package bearmaps.proj2ab;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A d-ary min-heap over dense int items in [0, capacity), with extrinsic
+ * double priorities. Positions and priorities are kept in parallel primitive
+ * arrays indexed by item, so contains is O(1) and no operation allocates
+ * unless the capacity has to grow.
+ *
+ * @author Rui Gao
+ */
+public class IndexedMinPQ {
+    private static final int DEFAULT_ARITY = 4;
+
+    private final int arity;
+    private int[] heap;
+    private int[] position;
+    private double[] priority;
+    private int size;
+
+    public IndexedMinPQ(int capacity) {
+        this(capacity, DEFAULT_ARITY);
+    }
+
+    /** Creates an empty PQ for items in [0, CAPACITY). ARITY must be 2, 4 or 8. */
+    public IndexedMinPQ(int capacity, int arity) {
+        if (arity != 2 && arity != 4 && arity != 8) {
+            throw new IllegalArgumentException("Arity must be 2, 4 or 8.");
+        }
+        this.arity = arity;
+        heap = new int[capacity];
+        position = new int[capacity];
+        priority = new double[capacity];
+        Arrays.fill(position, -1);
+        size = 0;
+    }
+
+    /** Makes room for items in [0, CAPACITY). */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= position.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, position.length * 2);
+        int oldCapacity = position.length;
+        heap = Arrays.copyOf(heap, newCapacity);
+        position = Arrays.copyOf(position, newCapacity);
+        priority = Arrays.copyOf(priority, newCapacity);
+        Arrays.fill(position, oldCapacity, newCapacity, -1);
+    }
+
+    public int capacity() {
+        return position.length;
+    }
+
+    /**
+     * Adds an item with the given priority value. Throws an
+     * IllegalArgumentException if item is already present.
+     */
+    public void add(int item, double p) {
+        if (contains(item)) {
+            throw new IllegalArgumentException();
+        }
+        priority[item] = p;
+        siftUp(item, size);
+        size += 1;
+    }
+
+    /**
+     * Returns true if the PQ contains the given item.
+     */
+    public boolean contains(int item) {
+        return position[item] >= 0;
+    }
+
+    /**
+     * Returns the minimum item. Throws NoSuchElementException if the PQ is empty.
+     */
+    public int getSmallest() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return heap[0];
+    }
+
+    public double getSmallestPriority() {
+        return priority[getSmallest()];
+    }
+
+    /**
+     * Removes and returns the minimum item. Throws NoSuchElementException if the PQ is empty.
+     */
+    public int removeSmallest() {
+        int result = getSmallest();
+        size -= 1;
+        position[result] = -1;
+        if (size > 0) {
+            siftDown(heap[size], 0);
+        }
+        return result;
+    }
+
+    /**
+     * Changes the priority of the given item. Throws NoSuchElementException if the item
+     * doesn't exist.
+     */
+    public void changePriority(int item, double p) {
+        if (!contains(item)) {
+            throw new NoSuchElementException();
+        }
+        double old = priority[item];
+        priority[item] = p;
+        if (p < old) {
+            siftUp(item, position[item]);
+        } else {
+            siftDown(item, position[item]);
+        }
+    }
+
+    /** Returns the current priority of ITEM, which must be in the PQ. */
+    public double priority(int item) {
+        return priority[item];
+    }
+
+    /**
+     * Returns the number of items in the PQ.
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Removes every item, in time proportional to the current size. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /** Moves ITEM up from the hole at index I to where it belongs. */
+    private void siftUp(int item, int i) {
+        double p = priority[item];
+        while (i > 0) {
+            int parent = (i - 1) / arity;
+            int parentItem = heap[parent];
+            if (priority[parentItem] <= p) {
+                break;
+            }
+            heap[i] = parentItem;
+            position[parentItem] = i;
+            i = parent;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+
+    /** Moves ITEM down from the hole at index I to where it belongs. */
+    private void siftDown(int item, int i) {
+        double p = priority[item];
+        while (true) {
+            int first = i * arity + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + arity, size);
+            int smallest = first;
+            double smallestPriority = priority[heap[first]];
+            for (int c = first + 1; c < last; c++) {
+                double cp = priority[heap[c]];
+                if (cp < smallestPriority) {
+                    smallest = c;
+                    smallestPriority = cp;
+                }
+            }
+            if (smallestPriority >= p) {
+                break;
+            }
+            int smallestItem = heap[smallest];
+            heap[i] = smallestItem;
+            position[smallestItem] = i;
+            i = smallest;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+}
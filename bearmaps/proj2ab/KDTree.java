@@ -1,125 +1,448 @@
 package bearmaps.proj2ab;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A KDTree implementation of PointSet, which has a fast closest method.
+ * The tree is bulk loaded by median splits into flat coordinate arrays: the
+ * root of the subtree over [lo, hi) is stored at (lo + hi) / 2, its left
+ * subtree over [lo, mid) and its right subtree over (mid, hi), so no child
+ * pointers are needed and the depth is always about log2(n).
+ * Distances are planar, with x coordinates multiplied by xScale; for
+ * longitudes and latitudes, an xScale of cos(latitude) gives a local
+ * equirectangular projection.
+ * Every point carries an int payload, which defaults to its position in the
+ * input.
  *
  * @author Rui Gao
  */
 public class KDTree implements PointSet {
+    /** Subtrees with at least this many points are built in parallel. */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
 
-    private static class Node implements Comparable<Point> {
-        private static final int DIMENSION = 2;
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] payloads;
+    private final double xScale;
 
-        private final Point point;
-        private Node left = null;
-        private Node right = null;
-        private int k = 0;
+    public KDTree(Iterable<Point> points) {
+        this(points, 1.0);
+    }
 
-        private Node(Point point) {
-            this.point = point;
+    public KDTree(Iterable<Point> points, double xScale) {
+        List<Point> list = new ArrayList<>();
+        for (Point p : points) {
+            list.add(p);
+        }
+        xs = new double[list.size()];
+        ys = new double[list.size()];
+        payloads = new int[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            xs[i] = list.get(i).getX();
+            ys[i] = list.get(i).getY();
+            payloads[i] = i;
         }
+        this.xScale = xScale;
+        build();
+    }
+
+    /** Builds a tree over the points (XS[i], YS[i]) with payloads PAYLOADS[i]. Takes ownership of the arrays. */
+    public KDTree(double[] xs, double[] ys, int[] payloads, double xScale) {
+        this(xs, ys, payloads, xScale, true);
+    }
 
-        private void setLeft(Node left) {
-            left.k = nextK();
-            this.left = left;
+    private KDTree(double[] xs, double[] ys, int[] payloads, double xScale, boolean build) {
+        this.xs = xs;
+        this.ys = ys;
+        this.payloads = payloads;
+        this.xScale = xScale;
+        if (build) {
+            build();
         }
+    }
+
+    /** Wraps arrays that are already in the tree order of a built KDTree, as read by x, y and payload. */
+    public static KDTree fromTreeOrder(double[] xs, double[] ys, int[] payloads, double xScale) {
+        return new KDTree(xs, ys, payloads, xScale, false);
+    }
 
-        private void setRight(Node right) {
-            right.k = nextK();
-            this.right = right;
+    private void build() {
+        BuildTask root = new BuildTask(0, xs.length, 0);
+        if (xs.length >= PARALLEL_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(root);
+        } else {
+            root.compute();
         }
+    }
+
+    private class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        private int nextK() {
-            return (k + 1) % DIMENSION;
+        private final int lo;
+        private final int hi;
+        private final int depth;
+
+        private BuildTask(int lo, int hi, int depth) {
+            this.lo = lo;
+            this.hi = hi;
+            this.depth = depth;
         }
 
         @Override
-        public int compareTo(Point other) {
-            if (k == 0) {
-                return Double.compare(point.getX(), other.getX());
+        protected void compute() {
+            if (hi - lo <= 1) {
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi, mid, (depth & 1) == 0 ? xs : ys);
+            BuildTask left = new BuildTask(lo, mid, depth + 1);
+            BuildTask right = new BuildTask(mid + 1, hi, depth + 1);
+            if (hi - lo >= PARALLEL_THRESHOLD) {
+                invokeAll(left, right);
             } else {
-                return Double.compare(point.getY(), other.getY());
+                left.compute();
+                right.compute();
             }
         }
+    }
 
-        private double minOtherSide(Point goal) {
-            if (k == 0) {
-                return Math.pow(point.getX() - goal.getX(), 2);
+    /** Rearranges [lo, hi) so that KEYS[k] is in sorted position, with no larger key before it. */
+    private void select(int lo, int hi, int k, double[] keys) {
+        hi -= 1;
+        while (hi > lo) {
+            double pivot = keys[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i += 1;
+                }
+                while (keys[j] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
             } else {
-                return Math.pow(point.getY() - goal.getY(), 2);
+                return;
             }
         }
+    }
 
-        private Node sameSide(Point goal) {
-            if (compareTo(goal) >= 0) {
-                return left;
-            } else {
-                return right;
-            }
+    private void swap(int i, int j) {
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+        int p = payloads[i];
+        payloads[i] = payloads[j];
+        payloads[j] = p;
+    }
+
+    public int size() {
+        return xs.length;
+    }
+
+    public double xScale() {
+        return xScale;
+    }
+
+    /** Returns the x coordinate of the point at position I of the tree order. */
+    public double x(int i) {
+        return xs[i];
+    }
+
+    /** Returns the y coordinate of the point at position I of the tree order. */
+    public double y(int i) {
+        return ys[i];
+    }
+
+    /** Returns the payload of the point at position I of the tree order. */
+    public int payload(int i) {
+        return payloads[i];
+    }
+
+    private double distanceSquared(int i, double x, double y) {
+        double dx = (xs[i] - x) * xScale;
+        double dy = ys[i] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /** Returns the signed distance from the goal to the splitting line of node I at DEPTH. */
+    private double splitDistance(int i, int depth, double x, double y) {
+        if ((depth & 1) == 0) {
+            return (xs[i] - x) * xScale;
         }
+        return ys[i] - y;
+    }
 
-        private Node otherSide(Point goal) {
-            if (compareTo(goal) >= 0) {
-                return right;
-            } else {
-                return left;
+    private List<Point> toPoints(int[] positions) {
+        List<Point> points = new ArrayList<>(positions.length);
+        for (int i : positions) {
+            points.add(new Point(xs[i], ys[i]));
+        }
+        return points;
+    }
+
+    private int[] toPayloads(int[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = payloads[positions[i]];
+        }
+        return positions;
+    }
+
+    @Override
+    public Point nearest(double x, double y) {
+        int i = nearestPosition(x, y);
+        return i < 0 ? null : new Point(xs[i], ys[i]);
+    }
+
+    /** Returns the payload of the point nearest to (X, Y), or -1 if the tree is empty. */
+    public int nearestPayload(double x, double y) {
+        int i = nearestPosition(x, y);
+        return i < 0 ? -1 : payloads[i];
+    }
+
+    private int nearestPosition(double x, double y) {
+        Nearest best = new Nearest();
+        nearestHelper(0, xs.length, 0, x, y, best);
+        return best.position;
+    }
+
+    private static class Nearest {
+        private int position = -1;
+        private double distance = Double.POSITIVE_INFINITY;
+    }
+
+    /** Updates BEST with the nearest point to (X, Y) in the subtree over [LO, HI). */
+    private void nearestHelper(int lo, int hi, int depth, double x, double y, Nearest best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dist = distanceSquared(mid, x, y);
+        if (dist < best.distance) {
+            best.distance = dist;
+            best.position = mid;
+        }
+        double split = splitDistance(mid, depth, x, y);
+        if (split >= 0) {
+            nearestHelper(lo, mid, depth + 1, x, y, best);
+            if (split * split < best.distance) {
+                nearestHelper(mid + 1, hi, depth + 1, x, y, best);
+            }
+        } else {
+            nearestHelper(mid + 1, hi, depth + 1, x, y, best);
+            if (split * split < best.distance) {
+                nearestHelper(lo, mid, depth + 1, x, y, best);
             }
         }
     }
 
-    private Node root = null;
+    @Override
+    public List<Point> kNearest(double x, double y, int k) {
+        return toPoints(kNearestPositions(x, y, k));
+    }
 
-    public KDTree(Iterable<Point> points) {
-        for (Point p : points) {
-            add(p);
+    /** Returns the payloads of the K points nearest to (X, Y), nearest first. */
+    public int[] kNearestPayloads(double x, double y, int k) {
+        return toPayloads(kNearestPositions(x, y, k));
+    }
+
+    private int[] kNearestPositions(double x, double y, int k) {
+        KNearest best = new KNearest(Math.min(k, xs.length));
+        if (best.capacity > 0) {
+            kNearestHelper(0, xs.length, 0, x, y, best);
         }
+        return best.sorted();
     }
 
-    private void add(Point point) {
-        root = addHelper(root, point);
+    /** A bounded max-heap of the nearest positions found so far. */
+    private static class KNearest {
+        private final int capacity;
+        private final int[] positions;
+        private final double[] distances;
+        private int size;
+
+        private KNearest(int capacity) {
+            this.capacity = capacity;
+            positions = new int[capacity];
+            distances = new double[capacity];
+            size = 0;
+        }
+
+        private double bound() {
+            return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        private void offer(int position, double distance) {
+            int i;
+            if (size < capacity) {
+                i = size;
+                size += 1;
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    positions[i] = positions[(i - 1) / 2];
+                    distances[i] = distances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+            } else if (distance < distances[0]) {
+                i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && distances[child + 1] > distances[child]) {
+                        child += 1;
+                    }
+                    if (distances[child] <= distance) {
+                        break;
+                    }
+                    positions[i] = positions[child];
+                    distances[i] = distances[child];
+                    i = child;
+                }
+            } else {
+                return;
+            }
+            positions[i] = position;
+            distances[i] = distance;
+        }
+
+        private int[] sorted() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = positions[order[i]];
+            }
+            return result;
+        }
     }
 
-    private Node addHelper(Node node, Point point) {
-        if (node == null) {
-            return new Node(point);
-        } else if (node.point.equals(point)) {
-            return node;
+    private void kNearestHelper(int lo, int hi, int depth, double x, double y, KNearest best) {
+        if (lo >= hi) {
+            return;
         }
-        if (node.compareTo(point) >= 0) {
-            node.setLeft(addHelper(node.left, point));
+        int mid = (lo + hi) >>> 1;
+        best.offer(mid, distanceSquared(mid, x, y));
+        double split = splitDistance(mid, depth, x, y);
+        if (split >= 0) {
+            kNearestHelper(lo, mid, depth + 1, x, y, best);
+            if (split * split < best.bound()) {
+                kNearestHelper(mid + 1, hi, depth + 1, x, y, best);
+            }
         } else {
-            node.setRight(addHelper(node.right, point));
+            kNearestHelper(mid + 1, hi, depth + 1, x, y, best);
+            if (split * split < best.bound()) {
+                kNearestHelper(lo, mid, depth + 1, x, y, best);
+            }
         }
-        return node;
     }
 
     @Override
-    public Point nearest(double x, double y) {
-        return nearestHelper(root, null, new Point(x, y));
+    public List<Point> withinRadius(double x, double y, double r) {
+        return toPoints(withinRadiusPositions(x, y, r));
+    }
+
+    /** Returns the payloads of the points within planar distance R of (X, Y). */
+    public int[] withinRadiusPayloads(double x, double y, double r) {
+        return toPayloads(withinRadiusPositions(x, y, r));
+    }
+
+    private int[] withinRadiusPositions(double x, double y, double r) {
+        IntList found = new IntList();
+        withinRadiusHelper(0, xs.length, 0, x, y, r * r, found);
+        return found.toArray();
+    }
+
+    private void withinRadiusHelper(int lo, int hi, int depth, double x, double y, double r2,
+                                    IntList found) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (distanceSquared(mid, x, y) <= r2) {
+            found.add(mid);
+        }
+        double split = splitDistance(mid, depth, x, y);
+        if (split >= 0 || split * split <= r2) {
+            withinRadiusHelper(lo, mid, depth + 1, x, y, r2, found);
+        }
+        if (split <= 0 || split * split <= r2) {
+            withinRadiusHelper(mid + 1, hi, depth + 1, x, y, r2, found);
+        }
     }
 
-    /** Return the nearest point of NODE to the INPUT point which has a distance less than MIN. */
-    private Point nearestHelper(Node node, Point nearest, Point goal) {
-        if (node == null) {
-            return nearest;
+    @Override
+    public List<Point> inBox(double minX, double minY, double maxX, double maxY) {
+        return toPoints(inBoxPositions(minX, minY, maxX, maxY));
+    }
+
+    /** Returns the payloads of the points in the box [MINX, MAXX] x [MINY, MAXY]. */
+    public int[] inBoxPayloads(double minX, double minY, double maxX, double maxY) {
+        return toPayloads(inBoxPositions(minX, minY, maxX, maxY));
+    }
+
+    private int[] inBoxPositions(double minX, double minY, double maxX, double maxY) {
+        IntList found = new IntList();
+        inBoxHelper(0, xs.length, 0, minX, minY, maxX, maxY, found);
+        return found.toArray();
+    }
+
+    private void inBoxHelper(int lo, int hi, int depth, double minX, double minY,
+                             double maxX, double maxY, IntList found) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double x = xs[mid];
+        double y = ys[mid];
+        if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+            found.add(mid);
         }
-        double dist = Point.distance(node.point, goal);
-        if (dist < nullSafeDistance(nearest, goal)) {
-            nearest = node.point;
+        double split = (depth & 1) == 0 ? x : y;
+        double min = (depth & 1) == 0 ? minX : minY;
+        double max = (depth & 1) == 0 ? maxX : maxY;
+        if (min <= split) {
+            inBoxHelper(lo, mid, depth + 1, minX, minY, maxX, maxY, found);
         }
-        nearest = nearestHelper(node.sameSide(goal), nearest, goal);
-        if (node.minOtherSide(goal) < nullSafeDistance(nearest, goal)) {
-            nearest = nearestHelper(node.otherSide(goal), nearest, goal);
+        if (max >= split) {
+            inBoxHelper(mid + 1, hi, depth + 1, minX, minY, maxX, maxY, found);
         }
-        return nearest;
     }
 
-    private double nullSafeDistance(Point p1, Point p2) {
-        if (p1 == null || p2 == null) {
-            return Double.POSITIVE_INFINITY;
+    /** A growable list of ints. */
+    private static class IntList {
+        private int[] items = new int[16];
+        private int size = 0;
+
+        private void add(int item) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size] = item;
+            size += 1;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(items, size);
         }
-        return Point.distance(p1, p2);
     }
 }
@@ -0,0 +1,79 @@
+package bearmaps.proj2ab;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A partition of a set of points in the plane into 2^levels cells of nearly
+ * equal size, by recursive coordinate bisection: each cell is split at the
+ * median of whichever coordinate it spans further, like the levels of a
+ * KDTree that picks its splitting dimension. It depends only on where the
+ * points are, so it stays valid however the weights of a graph over them
+ * change.
+ *
+ * @author Rui Gao
+ */
+public class Partition {
+    private final int[] cells;
+    private final int numCells;
+
+    private Partition(int[] cells, int numCells) {
+        this.cells = cells;
+        this.numCells = numCells;
+    }
+
+    /**
+     * Splits the points (XS[i], YS[i]) into 2^LEVELS cells. Throws an
+     * IllegalArgumentException if LEVELS is negative or more than 30.
+     */
+    public static Partition of(double[] xs, double[] ys, int levels) {
+        if (levels < 0 || levels > 30) {
+            throw new IllegalArgumentException("Levels must be from 0 to 30: " + levels);
+        }
+        int n = xs.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int[] cells = new int[n];
+        split(order, 0, n, levels, 0, xs, ys, cells);
+        return new Partition(cells, 1 << levels);
+    }
+
+    /* Splits the points ORDER[LO..HI) into the 2^LEVELS cells numbered from FIRST. */
+    private static void split(Integer[] order, int lo, int hi, int levels, int first,
+                              double[] xs, double[] ys, int[] cells) {
+        if (levels == 0) {
+            for (int k = lo; k < hi; k++) {
+                cells[order[k]] = first;
+            }
+            return;
+        }
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int k = lo; k < hi; k++) {
+            minX = Math.min(minX, xs[order[k]]);
+            maxX = Math.max(maxX, xs[order[k]]);
+            minY = Math.min(minY, ys[order[k]]);
+            maxY = Math.max(maxY, ys[order[k]]);
+        }
+        double[] coords = maxX - minX >= maxY - minY ? xs : ys;
+        Arrays.sort(order, lo, hi, Comparator.comparingDouble(i -> coords[i]));
+        int mid = (lo + hi) >>> 1;
+        int half = 1 << (levels - 1);
+        split(order, lo, mid, levels - 1, first, xs, ys, cells);
+        split(order, mid, hi, levels - 1, first + half, xs, ys, cells);
+    }
+
+    /** Returns the number of cells, some of which may be empty if there are few points. */
+    public int numCells() {
+        return numCells;
+    }
+
+    /** Returns the cell of point I. */
+    public int cell(int i) {
+        return cells[i];
+    }
+}
@@ -1,5 +1,13 @@
 package bearmaps.proj2ab;
 
+import java.util.List;
+
 public interface PointSet {
     Point nearest(double x, double y);
+    /* Returns the K points nearest to (X, Y), nearest first. */
+    List<Point> kNearest(double x, double y, int k);
+    /* Returns the points within distance R of (X, Y). */
+    List<Point> withinRadius(double x, double y, double r);
+    /* Returns the points in the box [MINX, MAXX] x [MINY, MAXY]. */
+    List<Point> inBox(double minX, double minY, double maxX, double maxY);
 }
@@ -0,0 +1,108 @@
+package bearmaps.proj2c;
+
+import java.util.List;
+
+/**
+ * An IndexedAStarGraph that estimates distances with the ALT heuristic of a set of
+ * Landmarks on top of the estimates of the graph it wraps. Both are lower bounds,
+ * so their maximum is too, and it is at least as tight as either. Everything
+ * else is delegated to the wrapped graph, so solvers find the same routes and
+ * only explore fewer states.
+ *
+ * @author Rui Gao
+ */
+public class ALTGraph<Vertex> implements IndexedAStarGraph<Vertex> {
+    private final IndexedAStarGraph<Vertex> graph;
+    private final Landmarks landmarks;
+
+    /** Wraps GRAPH with LANDMARKS, which must have been computed on GRAPH. */
+    public ALTGraph(IndexedAStarGraph<Vertex> graph, Landmarks landmarks) {
+        this.graph = graph;
+        this.landmarks = landmarks;
+    }
+
+    @Override
+    public List<WeightedEdge<Vertex>> neighbors(Vertex v) {
+        return graph.neighbors(v);
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(Vertex s, Vertex goal) {
+        int i = indexOf(s);
+        int j = indexOf(goal);
+        if (i < 0 || j < 0) {
+            return graph.estimatedDistanceToGoal(s, goal);
+        }
+        return estimatedDistanceToGoal(i, j);
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return Math.max(graph.estimatedDistanceToGoal(s, goal), landmarks.lowerBound(s, goal));
+    }
+
+    @Override
+    public double estimatedDistanceFromStart(int start, int v) {
+        return Math.max(graph.estimatedDistanceFromStart(start, v), landmarks.lowerBound(start, v));
+    }
+
+    @Override
+    public boolean mayLeadTo(int e, int goal) {
+        return graph.mayLeadTo(e, goal);
+    }
+
+    @Override
+    public int numVertices() {
+        return graph.numVertices();
+    }
+
+    @Override
+    public int indexOf(Vertex v) {
+        return graph.indexOf(v);
+    }
+
+    @Override
+    public Vertex vertex(int i) {
+        return graph.vertex(i);
+    }
+
+    @Override
+    public int firstEdge(int v) {
+        return graph.firstEdge(v);
+    }
+
+    @Override
+    public int lastEdge(int v) {
+        return graph.lastEdge(v);
+    }
+
+    @Override
+    public int edgeTarget(int e) {
+        return graph.edgeTarget(e);
+    }
+
+    @Override
+    public double edgeWeight(int e) {
+        return graph.edgeWeight(e);
+    }
+
+    @Override
+    public int firstInEdge(int v) {
+        return graph.firstInEdge(v);
+    }
+
+    @Override
+    public int lastInEdge(int v) {
+        return graph.lastInEdge(v);
+    }
+
+    @Override
+    public int inEdgeSource(int e) {
+        return graph.inEdgeSource(e);
+    }
+
+    @Override
+    public double inEdgeWeight(int e) {
+        return graph.inEdgeWeight(e);
+    }
+}
@@ -1,47 +1,117 @@
 package bearmaps.proj2c;
 
-import bearmaps.proj2ab.ArrayHeapMinPQ;
+import bearmaps.proj2ab.DAryHeapMinPQ;
+import bearmaps.proj2ab.ExtrinsicMinPQ;
+import bearmaps.proj2ab.IndexedMinPQ;
 import edu.princeton.cs.algs4.Stopwatch;
 
 import java.util.*;
 
 /**
  * An implementation of SShortestPathsSolver using Memory-Optimizing A* algorithm.
+ * Graphs that implement IndexedAStarGraph are searched over their primitive
+ * vertex indices, which does not allocate per expanded vertex, in a pooled
+ * SearchWorkspace, so that repeated searches do not allocate per-vertex arrays.
+ * A search that runs out of time still reports how far it got, as the path to
+ * the explored vertex that seemed closest to the goal.
+ * The heuristic can be inflated by a factor w >= 1, which makes the search
+ * greedier: it expands fewer vertices and finds a path at most w times as
+ * long as the shortest one, as long as the graph's estimates never overestimate.
+ * Edges the graph rules out with mayLeadTo, e.g. by arc flags, are skipped.
  *
  * @author Rui Gao
  */
 public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
+    /* A 4-ary heap halves the depth of the fringe and keeps siblings on one cache line. */
+    private static final int FRINGE_ARITY = 4;
+
     private final AStarGraph<Vertex> graph;
     private final Vertex s;
     private final Vertex goal;
-    private final Map<Vertex, Double> distTo;
-    private final Map<Vertex, Vertex> edgeTo;
-    private final ArrayHeapMinPQ<Vertex> fringe;
+    private final double inflation;
     private final double elapsedTime;
+    private SolverOutcome outcome;
+    private List<Vertex> solution;
+    private List<Vertex> partialSolution;
+    private double solutionWeight;
     private int numDequeue;
 
     public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double timeout) {
+        this(input, start, end, Deadline.after(timeout));
+    }
+
+    /** Finds the shortest path from START to END in INPUT, giving up once DEADLINE expires. */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, Deadline deadline) {
+        this(input, start, end, 1.0, deadline);
+    }
+
+    /**
+     * Finds a path from START to END in INPUT at most INFLATION times as long as the
+     * shortest one, by weighting the heuristic by INFLATION, giving up once DEADLINE
+     * expires. Throws an IllegalArgumentException if INFLATION is less than 1.
+     */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double inflation,
+                       Deadline deadline) {
+        if (!(inflation >= 1.0)) {
+            throw new IllegalArgumentException("Inflation must be at least 1: " + inflation);
+        }
         Stopwatch sw = new Stopwatch();
         graph = input;
         s = start;
         goal = end;
-        distTo = new HashMap<>();
+        this.inflation = inflation;
+        solution = new ArrayList<>();
+        partialSolution = solution;
+        numDequeue = 0;
+        if (input instanceof IndexedAStarGraph) {
+            solveIndexed((IndexedAStarGraph<Vertex>) input, deadline);
+        } else {
+            solve(deadline);
+        }
+        elapsedTime = sw.elapsedTime();
+    }
+
+    private void solve(Deadline deadline) {
+        Map<Vertex, Double> distTo = new HashMap<>();
+        Map<Vertex, Vertex> edgeTo = new HashMap<>();
+        ExtrinsicMinPQ<Vertex> fringe = new DAryHeapMinPQ<>(FRINGE_ARITY);
         distTo.put(s, 0.0);
-        edgeTo = new HashMap<>();
-        fringe = new ArrayHeapMinPQ<>();
         fringe.add(s, heuristic(s));
-        numDequeue = 0;
-        while (sw.elapsedTime() < timeout && fringe.size() > 0 && !fringe.getSmallest().equals(goal)) {
+        Vertex closest = s;
+        while (fringe.size() > 0 && !fringe.getSmallest().equals(goal)
+                && !deadline.expired(numDequeue)) {
             Vertex p = fringe.removeSmallest();
             numDequeue += 1;
+            if (heuristic(p) < heuristic(closest)) {
+                closest = p;
+            }
             for (WeightedEdge<Vertex> e : graph.neighbors(p)) {
-                relax(e);
+                relax(e, distTo, edgeTo, fringe);
             }
         }
-        elapsedTime = sw.elapsedTime();
+        if (fringe.size() == 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+        } else if (fringe.getSmallest().equals(goal)) {
+            outcome = SolverOutcome.SOLVED;
+            solutionWeight = distTo.get(goal);
+            for (Vertex p = goal; !p.equals(s); p = edgeTo.get(p)) {
+                solution.add(p);
+            }
+            solution.add(s);
+            Collections.reverse(solution);
+        } else {
+            outcome = SolverOutcome.TIMEOUT;
+            partialSolution = new ArrayList<>();
+            for (Vertex p = closest; !p.equals(s); p = edgeTo.get(p)) {
+                partialSolution.add(p);
+            }
+            partialSolution.add(s);
+            Collections.reverse(partialSolution);
+        }
     }
 
-    private void relax(WeightedEdge<Vertex> e) {
+    private void relax(WeightedEdge<Vertex> e, Map<Vertex, Double> distTo, Map<Vertex, Vertex> edgeTo,
+                       ExtrinsicMinPQ<Vertex> fringe) {
         Vertex p = e.from();
         Vertex q = e.to();
         double w = e.weight();
@@ -58,36 +128,106 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
     }
 
     private double heuristic(Vertex v) {
-        return graph.estimatedDistanceToGoal(v, goal);
+        return inflation * graph.estimatedDistanceToGoal(v, goal);
     }
 
-    @Override
-    public SolverOutcome outcome() {
+    private void solveIndexed(IndexedAStarGraph<Vertex> g, Deadline deadline) {
+        int source = g.indexOf(s);
+        int target = g.indexOf(goal);
+        if (source < 0 || target < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+            return;
+        }
+        SearchWorkspace ws = SearchWorkspace.acquire(g.numVertices());
+        try {
+            solveIndexed(g, source, target, ws, deadline);
+        } finally {
+            ws.release();
+        }
+    }
+
+    private void solveIndexed(IndexedAStarGraph<Vertex> g, int source, int target,
+                              SearchWorkspace ws, Deadline deadline) {
+        IndexedMinPQ fringe = ws.fringe();
+        ws.reach(source, 0.0, source);
+        double closestEstimate = inflation * g.estimatedDistanceToGoal(source, target);
+        fringe.add(source, closestEstimate);
+        int closest = source;
+        while (fringe.size() > 0 && fringe.getSmallest() != target
+                && !deadline.expired(numDequeue)) {
+            double estimate = fringe.getSmallestPriority() - ws.dist(fringe.getSmallest());
+            int p = fringe.removeSmallest();
+            numDequeue += 1;
+            if (estimate < closestEstimate) {
+                closest = p;
+                closestEstimate = estimate;
+            }
+            double distP = ws.dist(p);
+            for (int e = g.firstEdge(p), last = g.lastEdge(p); e < last; e++) {
+                if (!g.mayLeadTo(e, target)) {
+                    continue;
+                }
+                int q = g.edgeTarget(e);
+                double newDist = distP + g.edgeWeight(e);
+                if (newDist < ws.dist(q)) {
+                    ws.reach(q, newDist, p);
+                    double priority = newDist + inflation * g.estimatedDistanceToGoal(q, target);
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, priority);
+                    } else {
+                        fringe.add(q, priority);
+                    }
+                }
+            }
+        }
         if (fringe.size() == 0) {
-            return SolverOutcome.UNSOLVABLE;
-        } else if (fringe.getSmallest().equals(goal)) {
-            return SolverOutcome.SOLVED;
+            outcome = SolverOutcome.UNSOLVABLE;
+        } else if (fringe.getSmallest() == target) {
+            outcome = SolverOutcome.SOLVED;
+            solutionWeight = ws.dist(target);
+            for (int p = target; p != source; p = ws.parent(p)) {
+                solution.add(g.vertex(p));
+            }
+            solution.add(s);
+            Collections.reverse(solution);
         } else {
-            return SolverOutcome.TIMEOUT;
+            outcome = SolverOutcome.TIMEOUT;
+            partialSolution = new ArrayList<>();
+            for (int p = closest; p != source; p = ws.parent(p)) {
+                partialSolution.add(g.vertex(p));
+            }
+            partialSolution.add(s);
+            Collections.reverse(partialSolution);
         }
     }
 
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
     @Override
     public List<Vertex> solution() {
-        List<Vertex> result = new ArrayList<>();
-        if (outcome() == SolverOutcome.SOLVED) {
-            for (Vertex p = goal; !p.equals(s); p = edgeTo.get(p)) {
-                result.add(p);
-            }
-            result.add(s);
-            Collections.reverse(result);
-        }
-        return result;
+        return solution;
+    }
+
+    /**
+     * Returns the solution if the search finished, and otherwise, if it timed out, the
+     * shortest path found to the explored vertex estimated to be closest to the goal.
+     */
+    public List<Vertex> partialSolution() {
+        return partialSolution;
     }
 
     @Override
     public double solutionWeight() {
-        return distTo.get(goal);
+        return solutionWeight;
+    }
+
+    /** Returns the factor the heuristic was inflated by. */
+    @Override
+    public double suboptimalityBound() {
+        return inflation;
     }
 
     @Override
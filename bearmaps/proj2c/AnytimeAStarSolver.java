@@ -0,0 +1,127 @@
+package bearmaps.proj2c;
+
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An anytime shortest paths solver: it finds a first path quickly with a
+ * weighted A* search, and keeps refining it with ever less inflated searches
+ * until one with no inflation finishes or the deadline expires. Each search
+ * starts afresh, which in practice converges about as fast as reusing the
+ * previous search's state, and with far less bookkeeping.
+ *
+ * A weighted search whose path has weight c proves that the shortest path
+ * has weight at least c / w, so the bound reported is the best path's weight
+ * over the best such proof.
+ *
+ * @author Rui Gao
+ */
+public class AnytimeAStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
+    /* Inflations this close to 1 are rounded down to it, so that refinement ends. */
+    private static final double LAST_STEP = 0.01;
+
+    private final double elapsedTime;
+    private SolverOutcome outcome;
+    private List<Vertex> solution;
+    private double solutionWeight;
+    private double lowerBound;
+    private int numDequeue;
+    private int numSearches;
+
+    /**
+     * Finds a path from START to END in INPUT, first at most INFLATION times as long as
+     * the shortest one and then ever closer to it, until DEADLINE expires.
+     */
+    public AnytimeAStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end,
+                              double inflation, Deadline deadline) {
+        this(input, start, end, inflation, deadline, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Finds a path from START to END in INPUT at most INFLATION times as long as the
+     * shortest one, giving up once DEADLINE expires, and then spends at most
+     * REFINE_SECONDS more, still within DEADLINE, finding ever shorter ones.
+     */
+    public AnytimeAStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end,
+                              double inflation, Deadline deadline, double refineSeconds) {
+        Stopwatch sw = new Stopwatch();
+        solution = new ArrayList<>();
+        solutionWeight = Double.POSITIVE_INFINITY;
+        lowerBound = 0.0;
+        numDequeue = 0;
+        numSearches = 0;
+        double w = inflation;
+        while (true) {
+            AStarSolver<Vertex> search = new AStarSolver<>(input, start, end, w, deadline);
+            numDequeue += search.numStatesExplored();
+            numSearches += 1;
+            if (search.outcome() != SolverOutcome.SOLVED) {
+                if (outcome == null) {
+                    outcome = search.outcome();
+                }
+                break;
+            }
+            outcome = SolverOutcome.SOLVED;
+            if (search.solutionWeight() < solutionWeight) {
+                solution = search.solution();
+                solutionWeight = search.solutionWeight();
+            }
+            lowerBound = Math.max(lowerBound, search.solutionWeight() / w);
+            if (numSearches == 1) {
+                deadline = deadline.within(refineSeconds);
+            }
+            if (w == 1.0 || deadline.expired()) {
+                break;
+            }
+            w = w - 1.0 < 2 * LAST_STEP ? 1.0 : 1.0 + (w - 1.0) / 2;
+        }
+        if (outcome != SolverOutcome.SOLVED) {
+            solutionWeight = 0.0;
+        }
+        elapsedTime = sw.elapsedTime();
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Vertex> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    /**
+     * Returns how many times the shortest path's weight the solution's weight can be
+     * at most, which is 1 once refinement has finished, or infinity if no path was found.
+     */
+    @Override
+    public double suboptimalityBound() {
+        if (outcome != SolverOutcome.SOLVED) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return lowerBound > 0 ? Math.max(1.0, solutionWeight / lowerBound) : 1.0;
+    }
+
+    /** Returns the number of weighted searches run, including any that timed out. */
+    public int numSearches() {
+        return numSearches;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return numDequeue;
+    }
+
+    @Override
+    public double explorationTime() {
+        return elapsedTime;
+    }
+}
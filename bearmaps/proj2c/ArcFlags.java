@@ -0,0 +1,145 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2ab.IndexedMinPQ;
+import bearmaps.proj2ab.Partition;
+
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Arc flags over a Partition of the vertices of an IndexedAStarGraph into at
+ * most 64 cells: each edge has one bit per cell, in a long, which is set if
+ * the edge starts a shortest path to some vertex in that cell. A search for a
+ * target can skip every edge whose flag for the target's cell is clear and
+ * still find a shortest path, which keeps long searches from fanning out
+ * sideways. Flags are computed by one backward search from each boundary
+ * vertex of each cell, where a shortest path into the cell last enters it,
+ * with the cells done in parallel. That is much cheaper than contraction, and
+ * when the weights change only the flags are recomputed, over the same
+ * partition.
+ *
+ * @author Rui Gao
+ */
+public class ArcFlags {
+    /** The most cells a partition may have, one per bit of a long. */
+    public static final int MAX_CELLS = Long.SIZE;
+
+    private final Partition partition;
+    private final long[] flags;
+
+    private ArcFlags(Partition partition, long[] flags) {
+        this.partition = partition;
+        this.flags = flags;
+    }
+
+    /**
+     * Computes the arc flags of G over PARTITION, whose point i must be the vertex with
+     * index i. Throws an IllegalArgumentException if PARTITION has too many cells.
+     */
+    public static ArcFlags of(IndexedAStarGraph<?> g, Partition partition) {
+        if (partition.numCells() > MAX_CELLS) {
+            throw new IllegalArgumentException("At most " + MAX_CELLS + " cells are supported.");
+        }
+        int n = g.numVertices();
+        int m = n == 0 ? 0 : g.lastEdge(n - 1);
+        long[] flags = new long[m];
+        /* Every edge into a cell, from inside it or not, may end a shortest path into it. */
+        for (int v = 0; v < n; v++) {
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                flags[e] |= 1L << partition.cell(g.edgeTarget(e));
+            }
+        }
+        IntStream.range(0, partition.numCells()).parallel().forEach(c -> {
+            BitSet cellFlags = flagsToCell(g, partition, c);
+            synchronized (flags) {
+                for (int e = cellFlags.nextSetBit(0); e >= 0; e = cellFlags.nextSetBit(e + 1)) {
+                    flags[e] |= 1L << c;
+                }
+            }
+        });
+        return new ArcFlags(partition, flags);
+    }
+
+    /* Returns the edges on shortest paths to the boundary vertices of cell C. An edge from
+     * u to w is on one if d(u, b) = w(e) + d(w, b), which always holds for the edge a
+     * backward search settled u by. */
+    private static BitSet flagsToCell(IndexedAStarGraph<?> g, Partition partition, int c) {
+        int n = g.numVertices();
+        BitSet cellFlags = new BitSet();
+        int[] settled = new int[n];
+        for (int b = 0; b < n; b++) {
+            if (partition.cell(b) != c || !isBoundary(g, partition, b)) {
+                continue;
+            }
+            SearchWorkspace ws = SearchWorkspace.acquire(n);
+            try {
+                int numSettled = settleBackward(g, b, ws, settled);
+                for (int i = 0; i < numSettled; i++) {
+                    int u = settled[i];
+                    double distU = ws.dist(u);
+                    for (int e = g.firstEdge(u); e < g.lastEdge(u); e++) {
+                        int w = g.edgeTarget(e);
+                        if (ws.reached(w) && ws.dist(w) + g.edgeWeight(e) <= distU) {
+                            cellFlags.set(e);
+                        }
+                    }
+                }
+            } finally {
+                ws.release();
+            }
+        }
+        return cellFlags;
+    }
+
+    /* Returns true if some edge enters vertex B from outside its cell. */
+    private static boolean isBoundary(IndexedAStarGraph<?> g, Partition partition, int b) {
+        for (int e = g.firstInEdge(b); e < g.lastInEdge(b); e++) {
+            if (partition.cell(g.inEdgeSource(e)) != partition.cell(b)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Runs Dijkstra's algorithm backward from TARGET in WS, recording the vertices in the
+     * order settled in SETTLED, and returns how many there were. */
+    private static int settleBackward(IndexedAStarGraph<?> g, int target, SearchWorkspace ws,
+                                      int[] settled) {
+        IndexedMinPQ fringe = ws.fringe();
+        ws.reach(target, 0.0, -1);
+        fringe.add(target, 0.0);
+        int numSettled = 0;
+        while (fringe.size() > 0) {
+            int p = fringe.removeSmallest();
+            settled[numSettled] = p;
+            numSettled += 1;
+            double distP = ws.dist(p);
+            for (int e = g.firstInEdge(p); e < g.lastInEdge(p); e++) {
+                int q = g.inEdgeSource(e);
+                double newDist = distP + g.inEdgeWeight(e);
+                if (newDist < ws.dist(q)) {
+                    ws.reach(q, newDist, e);
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, newDist);
+                    } else {
+                        fringe.add(q, newDist);
+                    }
+                }
+            }
+        }
+        return numSettled;
+    }
+
+    /** Returns the partition the flags are over. */
+    public Partition partition() {
+        return partition;
+    }
+
+    /**
+     * Returns false if edge E is on no shortest path to the vertex with index TARGET,
+     * so that a search for TARGET can skip it.
+     */
+    public boolean mayLeadTo(int e, int target) {
+        return (flags[e] >>> partition.cell(target) & 1L) != 0;
+    }
+}
@@ -0,0 +1,102 @@
+package bearmaps.proj2c;
+
+import java.util.List;
+
+/**
+ * An IndexedAStarGraph that rules out the edges its ArcFlags show to be on no
+ * shortest path to the goal, on top of any the graph it wraps rules out.
+ * Everything else is delegated to the wrapped graph, so solvers that check
+ * mayLeadTo find routes as short and only explore fewer states.
+ *
+ * @author Rui Gao
+ */
+public class ArcFlagsGraph<Vertex> implements IndexedAStarGraph<Vertex> {
+    private final IndexedAStarGraph<Vertex> graph;
+    private final ArcFlags flags;
+
+    /** Wraps GRAPH with FLAGS, which must have been computed on GRAPH. */
+    public ArcFlagsGraph(IndexedAStarGraph<Vertex> graph, ArcFlags flags) {
+        this.graph = graph;
+        this.flags = flags;
+    }
+
+    @Override
+    public List<WeightedEdge<Vertex>> neighbors(Vertex v) {
+        return graph.neighbors(v);
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(Vertex s, Vertex goal) {
+        return graph.estimatedDistanceToGoal(s, goal);
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return graph.estimatedDistanceToGoal(s, goal);
+    }
+
+    @Override
+    public double estimatedDistanceFromStart(int start, int v) {
+        return graph.estimatedDistanceFromStart(start, v);
+    }
+
+    @Override
+    public boolean mayLeadTo(int e, int goal) {
+        return flags.mayLeadTo(e, goal) && graph.mayLeadTo(e, goal);
+    }
+
+    @Override
+    public int numVertices() {
+        return graph.numVertices();
+    }
+
+    @Override
+    public int indexOf(Vertex v) {
+        return graph.indexOf(v);
+    }
+
+    @Override
+    public Vertex vertex(int i) {
+        return graph.vertex(i);
+    }
+
+    @Override
+    public int firstEdge(int v) {
+        return graph.firstEdge(v);
+    }
+
+    @Override
+    public int lastEdge(int v) {
+        return graph.lastEdge(v);
+    }
+
+    @Override
+    public int edgeTarget(int e) {
+        return graph.edgeTarget(e);
+    }
+
+    @Override
+    public double edgeWeight(int e) {
+        return graph.edgeWeight(e);
+    }
+
+    @Override
+    public int firstInEdge(int v) {
+        return graph.firstInEdge(v);
+    }
+
+    @Override
+    public int lastInEdge(int v) {
+        return graph.lastInEdge(v);
+    }
+
+    @Override
+    public int inEdgeSource(int e) {
+        return graph.inEdgeSource(e);
+    }
+
+    @Override
+    public double inEdgeWeight(int e) {
+        return graph.inEdgeWeight(e);
+    }
+}
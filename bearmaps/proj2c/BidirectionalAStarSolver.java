@@ -0,0 +1,173 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2ab.IndexedMinPQ;
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An implementation of ShortestPathsSolver that runs A* forward from the start
+ * and backward from the goal at the same time.
+ * Both searches use the average potential pf(v) = (h(v, goal) - h(start, v)) / 2
+ * (and -pf(v) backward), which is consistent for both directions whenever the
+ * heuristic is, so the searches can stop as soon as the smallest forward and
+ * backward keys add up to at least the best path found so far.
+ *
+ * @author Rui Gao
+ */
+public class BidirectionalAStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
+    private final IndexedAStarGraph<Vertex> graph;
+    private final int source;
+    private final int target;
+    private final double elapsedTime;
+    private SolverOutcome outcome;
+    private List<Vertex> solution;
+    private double solutionWeight;
+    private int numDequeue;
+
+    public BidirectionalAStarSolver(IndexedAStarGraph<Vertex> input, Vertex start, Vertex end,
+                                    double timeout) {
+        this(input, start, end, Deadline.after(timeout));
+    }
+
+    /** Finds the shortest path from START to END in INPUT, giving up once DEADLINE expires. */
+    public BidirectionalAStarSolver(IndexedAStarGraph<Vertex> input, Vertex start, Vertex end,
+                                    Deadline deadline) {
+        Stopwatch sw = new Stopwatch();
+        graph = input;
+        source = input.indexOf(start);
+        target = input.indexOf(end);
+        solution = new ArrayList<>();
+        numDequeue = 0;
+        if (source < 0 || target < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+        } else {
+            solve(deadline);
+        }
+        elapsedTime = sw.elapsedTime();
+    }
+
+    private double potential(int v) {
+        return (graph.estimatedDistanceToGoal(v, target)
+                - graph.estimatedDistanceFromStart(source, v)) / 2;
+    }
+
+    private void solve(Deadline deadline) {
+        int n = graph.numVertices();
+        SearchWorkspace wsF = SearchWorkspace.acquire(n);
+        SearchWorkspace wsR = SearchWorkspace.acquire(n);
+        try {
+            solve(wsF, wsR, deadline);
+        } finally {
+            wsR.release();
+            wsF.release();
+        }
+    }
+
+    private void solve(SearchWorkspace wsF, SearchWorkspace wsR, Deadline deadline) {
+        IndexedMinPQ fringeF = wsF.fringe();
+        IndexedMinPQ fringeR = wsR.fringe();
+        wsF.reach(source, 0.0, source);
+        wsR.reach(target, 0.0, target);
+        fringeF.add(source, potential(source));
+        fringeR.add(target, -potential(target));
+
+        double best = source == target ? 0.0 : Double.POSITIVE_INFINITY;
+        int meet = source == target ? source : -1;
+        boolean timedOut = false;
+        while (fringeF.size() > 0 && fringeR.size() > 0
+                && fringeF.getSmallestPriority() + fringeR.getSmallestPriority() < best) {
+            if (deadline.expired(numDequeue)) {
+                timedOut = true;
+                break;
+            }
+            numDequeue += 1;
+            if (fringeF.size() <= fringeR.size()) {
+                int p = fringeF.removeSmallest();
+                double distP = wsF.dist(p);
+                for (int e = graph.firstEdge(p), last = graph.lastEdge(p); e < last; e++) {
+                    int q = graph.edgeTarget(e);
+                    double newDist = distP + graph.edgeWeight(e);
+                    if (newDist < wsF.dist(q)) {
+                        wsF.reach(q, newDist, p);
+                        double priority = newDist + potential(q);
+                        if (fringeF.contains(q)) {
+                            fringeF.changePriority(q, priority);
+                        } else {
+                            fringeF.add(q, priority);
+                        }
+                        if (newDist + wsR.dist(q) < best) {
+                            best = newDist + wsR.dist(q);
+                            meet = q;
+                        }
+                    }
+                }
+            } else {
+                int p = fringeR.removeSmallest();
+                double distP = wsR.dist(p);
+                for (int e = graph.firstInEdge(p), last = graph.lastInEdge(p); e < last; e++) {
+                    int q = graph.inEdgeSource(e);
+                    double newDist = distP + graph.inEdgeWeight(e);
+                    if (newDist < wsR.dist(q)) {
+                        wsR.reach(q, newDist, p);
+                        double priority = newDist - potential(q);
+                        if (fringeR.contains(q)) {
+                            fringeR.changePriority(q, priority);
+                        } else {
+                            fringeR.add(q, priority);
+                        }
+                        if (newDist + wsF.dist(q) < best) {
+                            best = newDist + wsF.dist(q);
+                            meet = q;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (timedOut) {
+            outcome = SolverOutcome.TIMEOUT;
+        } else if (meet < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+        } else {
+            outcome = SolverOutcome.SOLVED;
+            solutionWeight = best;
+            for (int p = meet; p != source; p = wsF.parent(p)) {
+                solution.add(graph.vertex(p));
+            }
+            solution.add(graph.vertex(source));
+            Collections.reverse(solution);
+            for (int p = meet; p != target; ) {
+                p = wsR.parent(p);
+                solution.add(graph.vertex(p));
+            }
+        }
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Vertex> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return numDequeue;
+    }
+
+    @Override
+    public double explorationTime() {
+        return elapsedTime;
+    }
+}
@@ -0,0 +1,209 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2ab.IndexedMinPQ;
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An implementation of ShortestPathsSolver that queries a ContractionHierarchy.
+ * It runs Dijkstra's algorithm upward from the start and upward against the
+ * edge direction from the goal, and the shortest path meets at the highest
+ * ranked vertex on it. A search does not relax the edges of a vertex that can
+ * be reached more cheaply from a higher ranked vertex (stall-on-demand), since
+ * no shortest path goes up through it. The path found is unpacked back to the
+ * original vertices of the graph.
+ *
+ * @author Rui Gao
+ */
+public class CHSolver<Vertex> implements ShortestPathsSolver<Vertex> {
+    private final ContractionHierarchy ch;
+    private final IndexedAStarGraph<Vertex> graph;
+    private final double elapsedTime;
+    private SolverOutcome outcome;
+    private List<Vertex> solution;
+    private double solutionWeight;
+    private int numDequeue;
+
+    /**
+     * Finds the shortest path from START to END in GRAPH with the hierarchy CH,
+     * which must have been built from GRAPH.
+     */
+    public CHSolver(ContractionHierarchy ch, IndexedAStarGraph<Vertex> graph, Vertex start,
+                    Vertex end) {
+        this(ch, graph, start, end, Deadline.after(Double.POSITIVE_INFINITY));
+    }
+
+    /** Finds the shortest path like the constructor above, giving up once DEADLINE expires. */
+    public CHSolver(ContractionHierarchy ch, IndexedAStarGraph<Vertex> graph, Vertex start,
+                    Vertex end, Deadline deadline) {
+        Stopwatch sw = new Stopwatch();
+        this.ch = ch;
+        this.graph = graph;
+        solution = new ArrayList<>();
+        numDequeue = 0;
+        int source = graph.indexOf(start);
+        int target = graph.indexOf(end);
+        if (source < 0 || target < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+        } else {
+            solve(source, target, deadline);
+        }
+        elapsedTime = sw.elapsedTime();
+    }
+
+    private void solve(int source, int target, Deadline deadline) {
+        int n = ch.numVertices();
+        SearchWorkspace wsF = SearchWorkspace.acquire(n);
+        SearchWorkspace wsR = SearchWorkspace.acquire(n);
+        try {
+            solve(source, target, wsF, wsR, deadline);
+        } finally {
+            wsR.release();
+            wsF.release();
+        }
+    }
+
+    /* The parent of a vertex in each workspace is the hierarchy edge it was reached by. */
+    private void solve(int source, int target, SearchWorkspace wsF, SearchWorkspace wsR,
+                       Deadline deadline) {
+        IndexedMinPQ fringeF = wsF.fringe();
+        IndexedMinPQ fringeR = wsR.fringe();
+        wsF.reach(source, 0.0, -1);
+        wsR.reach(target, 0.0, -1);
+        fringeF.add(source, 0.0);
+        fringeR.add(target, 0.0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        boolean forward = true;
+        while (true) {
+            boolean moreF = fringeF.size() > 0 && fringeF.getSmallestPriority() < best;
+            boolean moreR = fringeR.size() > 0 && fringeR.getSmallestPriority() < best;
+            if (!moreF && !moreR) {
+                break;
+            }
+            if (deadline.expired(numDequeue)) {
+                outcome = SolverOutcome.TIMEOUT;
+                return;
+            }
+            forward = moreF && (!moreR || !forward);
+            numDequeue += 1;
+            if (forward) {
+                int p = fringeF.removeSmallest();
+                if (wsF.dist(p) + wsR.dist(p) < best) {
+                    best = wsF.dist(p) + wsR.dist(p);
+                    meet = p;
+                }
+                if (stalled(p, wsF, true)) {
+                    continue;
+                }
+                for (int i = ch.firstUpEdge(p), last = ch.lastUpEdge(p); i < last; i++) {
+                    int x = ch.upEdge(i);
+                    relax(ch.edgeTo(x), wsF.dist(p) + ch.edgeWeight(x), x, wsF);
+                }
+            } else {
+                int p = fringeR.removeSmallest();
+                if (wsF.dist(p) + wsR.dist(p) < best) {
+                    best = wsF.dist(p) + wsR.dist(p);
+                    meet = p;
+                }
+                if (stalled(p, wsR, false)) {
+                    continue;
+                }
+                for (int i = ch.firstDownEdge(p), last = ch.lastDownEdge(p); i < last; i++) {
+                    int x = ch.downEdge(i);
+                    relax(ch.edgeFrom(x), wsR.dist(p) + ch.edgeWeight(x), x, wsR);
+                }
+            }
+        }
+
+        if (meet < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+            return;
+        }
+        outcome = SolverOutcome.SOLVED;
+        solutionWeight = best;
+        List<Integer> edges = new ArrayList<>();
+        for (int x = wsF.parent(meet); x >= 0; x = wsF.parent(ch.edgeFrom(x))) {
+            edges.add(x);
+        }
+        solution.add(graph.vertex(source));
+        for (int i = edges.size() - 1; i >= 0; i--) {
+            unpack(edges.get(i));
+        }
+        for (int x = wsR.parent(meet); x >= 0; x = wsR.parent(ch.edgeTo(x))) {
+            unpack(x);
+        }
+    }
+
+    private static void relax(int q, double newDist, int x, SearchWorkspace ws) {
+        IndexedMinPQ fringe = ws.fringe();
+        if (newDist < ws.dist(q)) {
+            ws.reach(q, newDist, x);
+            if (fringe.contains(q)) {
+                fringe.changePriority(q, newDist);
+            } else {
+                fringe.add(q, newDist);
+            }
+        }
+    }
+
+    /* Returns true if a higher ranked vertex offers a shorter path to P than the one in WS.
+     * For the forward search these are the downward edges into P, and the other way round. */
+    private boolean stalled(int p, SearchWorkspace ws, boolean forward) {
+        if (forward) {
+            for (int i = ch.firstDownEdge(p), last = ch.lastDownEdge(p); i < last; i++) {
+                int x = ch.downEdge(i);
+                if (ws.dist(ch.edgeFrom(x)) + ch.edgeWeight(x) < ws.dist(p)) {
+                    return true;
+                }
+            }
+        } else {
+            for (int i = ch.firstUpEdge(p), last = ch.lastUpEdge(p); i < last; i++) {
+                int x = ch.upEdge(i);
+                if (ws.dist(ch.edgeTo(x)) + ch.edgeWeight(x) < ws.dist(p)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /* Appends the original vertices that hierarchy edge X passes through after its source. */
+    private void unpack(int x) {
+        int first = ch.edgeFirstHalf(x);
+        if (first < 0) {
+            solution.add(graph.vertex(ch.edgeTo(x)));
+            return;
+        }
+        unpack(first);
+        unpack(ch.edgeSecondHalf(x));
+    }
+
+    @Override
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    @Override
+    public List<Vertex> solution() {
+        return solution;
+    }
+
+    @Override
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public int numStatesExplored() {
+        return numDequeue;
+    }
+
+    @Override
+    public double explorationTime() {
+        return elapsedTime;
+    }
+}
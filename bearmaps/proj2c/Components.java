@@ -0,0 +1,201 @@
+package bearmaps.proj2c;
+
+import java.util.Arrays;
+
+/**
+ * The strongly connected components of an IndexedAStarGraph, labelled per
+ * vertex in an int[], together with its weakly connected components, so that
+ * pairs of vertices with no path between them can be told apart in O(1)
+ * without a search. A vertex can reach every vertex in its own strongly
+ * connected component. It cannot reach any vertex in another weakly connected
+ * component, nor leave a strong component that no edge leaves, nor enter one
+ * that no edge enters. Between other pairs a path may or may not exist.
+ *
+ * Strong components are found by Tarjan's algorithm, with an explicit stack
+ * so that long chains of vertices cannot overflow the call stack, and are
+ * numbered in reverse topological order.
+ *
+ * @author Rui Gao
+ */
+public class Components {
+    private final int[] strong;
+    private final int[] weak;
+    private final int[] sizes;
+    /* Whether any edge leaves / enters each strong component. */
+    private final boolean[] hasExit;
+    private final boolean[] hasEntry;
+    private final int largest;
+
+    private Components(int[] strong, int[] weak, int[] sizes, boolean[] hasExit,
+                       boolean[] hasEntry) {
+        this.strong = strong;
+        this.weak = weak;
+        this.sizes = sizes;
+        this.hasExit = hasExit;
+        this.hasEntry = hasEntry;
+        int best = 0;
+        for (int c = 1; c < sizes.length; c++) {
+            if (sizes[c] > sizes[best]) {
+                best = c;
+            }
+        }
+        largest = best;
+    }
+
+    /** Labels the strongly and weakly connected components of G. */
+    public static Components of(IndexedAStarGraph<?> g) {
+        int n = g.numVertices();
+        int[] strong = strongLabels(g);
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            count = Math.max(count, strong[v] + 1);
+        }
+        int[] sizes = new int[count];
+        boolean[] hasExit = new boolean[count];
+        boolean[] hasEntry = new boolean[count];
+        for (int v = 0; v < n; v++) {
+            sizes[strong[v]] += 1;
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                int w = g.edgeTarget(e);
+                if (strong[w] != strong[v]) {
+                    hasExit[strong[v]] = true;
+                    hasEntry[strong[w]] = true;
+                }
+            }
+        }
+        return new Components(strong, weakLabels(g), sizes, hasExit, hasEntry);
+    }
+
+    /* Tarjan's algorithm. Each frame of the explicit call stack is a vertex and the next
+     * of its edges to follow, kept in parallel arrays. */
+    private static int[] strongLabels(IndexedAStarGraph<?> g) {
+        int n = g.numVertices();
+        int[] label = new int[n];
+        int[] order = new int[n];
+        int[] low = new int[n];
+        boolean[] onStack = new boolean[n];
+        int[] stack = new int[n];
+        int[] callVertex = new int[n];
+        int[] callEdge = new int[n];
+        int stackSize = 0;
+        int visited = 0;
+        int count = 0;
+        Arrays.fill(order, -1);
+        for (int root = 0; root < n; root++) {
+            if (order[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callVertex[0] = root;
+            callEdge[0] = g.firstEdge(root);
+            order[root] = visited;
+            low[root] = visited;
+            visited += 1;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int v = callVertex[depth];
+                if (callEdge[depth] < g.lastEdge(v)) {
+                    int w = g.edgeTarget(callEdge[depth]);
+                    callEdge[depth] += 1;
+                    if (order[w] < 0) {
+                        order[w] = visited;
+                        low[w] = visited;
+                        visited += 1;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        depth += 1;
+                        callVertex[depth] = w;
+                        callEdge[depth] = g.firstEdge(w);
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], order[w]);
+                    }
+                    continue;
+                }
+                if (low[v] == order[v]) {
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        label[w] = count;
+                    } while (w != v);
+                    count += 1;
+                }
+                depth -= 1;
+                if (depth >= 0) {
+                    int parent = callVertex[depth];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+            }
+        }
+        return label;
+    }
+
+    /* Floods each weak component along edges in both directions. */
+    private static int[] weakLabels(IndexedAStarGraph<?> g) {
+        int n = g.numVertices();
+        int[] label = new int[n];
+        Arrays.fill(label, -1);
+        int[] queue = new int[n];
+        int count = 0;
+        for (int root = 0; root < n; root++) {
+            if (label[root] >= 0) {
+                continue;
+            }
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = root;
+            label[root] = count;
+            while (head < tail) {
+                int v = queue[head++];
+                for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                    int w = g.edgeTarget(e);
+                    if (label[w] < 0) {
+                        label[w] = count;
+                        queue[tail++] = w;
+                    }
+                }
+                for (int e = g.firstInEdge(v); e < g.lastInEdge(v); e++) {
+                    int w = g.inEdgeSource(e);
+                    if (label[w] < 0) {
+                        label[w] = count;
+                        queue[tail++] = w;
+                    }
+                }
+            }
+            count += 1;
+        }
+        return label;
+    }
+
+    /** Returns the number of strongly connected components. */
+    public int numComponents() {
+        return sizes.length;
+    }
+
+    /** Returns the strongly connected component of the vertex with index V. */
+    public int component(int v) {
+        return strong[v];
+    }
+
+    /** Returns the number of vertices in strongly connected component C. */
+    public int size(int c) {
+        return sizes[c];
+    }
+
+    /** Returns the strongly connected component with the most vertices. */
+    public int largest() {
+        return largest;
+    }
+
+    /** Returns true if the vertex with index S certainly has a path to the one with index T. */
+    public boolean reachable(int s, int t) {
+        return strong[s] == strong[t];
+    }
+
+    /** Returns true if the vertex with index S certainly has no path to the one with index T. */
+    public boolean unreachable(int s, int t) {
+        return strong[s] != strong[t]
+                && (weak[s] != weak[t] || !hasExit[strong[s]] || !hasEntry[strong[t]]);
+    }
+}
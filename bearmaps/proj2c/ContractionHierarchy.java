@@ -0,0 +1,550 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2ab.IndexedMinPQ;
+import bearmaps.proj2c.streetmap.StreetMapGraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy over the vertex indices of an IndexedAStarGraph.
+ * Vertices are contracted one at a time, cheapest first by edge difference,
+ * and every path that ran through a contracted vertex and has no witness
+ * around it is replaced by a shortcut edge. A vertex's rank is the order in
+ * which it was contracted.
+ * Each hierarchy edge, original or shortcut, is stored once: in the upward
+ * list of its source if it leads to a higher ranked vertex, and in the
+ * downward list of its target otherwise. A shortest path is then an upward
+ * path from the start followed by a downward path to the goal, which is what
+ * CHSolver searches for. Shortcuts remember the two edges they replace, so
+ * paths can be unpacked back to the original edges.
+ * Run main to build the hierarchy for an OSM XML file offline.
+ *
+ * @author Rui Gao
+ */
+public class ContractionHierarchy {
+    /** "BMCH" in ASCII. */
+    private static final int MAGIC = 0x424D4348;
+    /**
+     * Bump this whenever the file layout, or the way graphs number their vertices,
+     * changes. Version 2 is for graphs numbered along a Hilbert curve, and version 3
+     * adds the checksum of the graph to the header.
+     */
+    static final int VERSION = 3;
+
+    private final int numOriginalEdges;
+    /* The checksum of the graph the hierarchy was built from. */
+    private final long graphChecksum;
+    private final int[] rank;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final double[] edgeWeight;
+    /* The two edges a shortcut replaces, or -1 for original edges. */
+    private final int[] edgeFirstHalf;
+    private final int[] edgeSecondHalf;
+    /* Hierarchy edges grouped by their lower ranked endpoint, in CSR form. */
+    private final int[] upOffsets;
+    private final int[] upEdges;
+    private final int[] downOffsets;
+    private final int[] downEdges;
+
+    /**
+     * Creates a hierarchy from its ranks and its first NUMEDGES edges, the first
+     * NUMORIGINALEDGES of which are the edges of the graph it was built from, whose
+     * checksum is GRAPHCHECKSUM.
+     */
+    ContractionHierarchy(int numOriginalEdges, long graphChecksum, int[] rank, int numEdges,
+                         int[] edgeFrom, int[] edgeTo, double[] edgeWeight,
+                         int[] edgeFirstHalf, int[] edgeSecondHalf) {
+        this.numOriginalEdges = numOriginalEdges;
+        this.graphChecksum = graphChecksum;
+        this.rank = rank;
+        this.edgeFrom = Arrays.copyOf(edgeFrom, numEdges);
+        this.edgeTo = Arrays.copyOf(edgeTo, numEdges);
+        this.edgeWeight = Arrays.copyOf(edgeWeight, numEdges);
+        this.edgeFirstHalf = Arrays.copyOf(edgeFirstHalf, numEdges);
+        this.edgeSecondHalf = Arrays.copyOf(edgeSecondHalf, numEdges);
+
+        int n = rank.length;
+        upOffsets = new int[n + 1];
+        downOffsets = new int[n + 1];
+        for (int x = 0; x < numEdges; x++) {
+            if (edgeFrom[x] == edgeTo[x]) {
+                continue;
+            }
+            if (rank[edgeTo[x]] > rank[edgeFrom[x]]) {
+                upOffsets[edgeFrom[x] + 1] += 1;
+            } else {
+                downOffsets[edgeTo[x] + 1] += 1;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] += upOffsets[v];
+            downOffsets[v + 1] += downOffsets[v];
+        }
+        upEdges = new int[upOffsets[n]];
+        downEdges = new int[downOffsets[n]];
+        int[] upNext = Arrays.copyOf(upOffsets, n);
+        int[] downNext = Arrays.copyOf(downOffsets, n);
+        for (int x = 0; x < numEdges; x++) {
+            if (edgeFrom[x] == edgeTo[x]) {
+                continue;
+            }
+            if (rank[edgeTo[x]] > rank[edgeFrom[x]]) {
+                upEdges[upNext[edgeFrom[x]]++] = x;
+            } else {
+                downEdges[downNext[edgeTo[x]]++] = x;
+            }
+        }
+    }
+
+    /**
+     * Builds the contraction hierarchy of a street map OSM XML file and writes it to a file.
+     * @param args The classpath location of the OSM XML file and the hierarchy file to write.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: ContractionHierarchy <osm xml> <hierarchy file>");
+            return;
+        }
+        of(new StreetMapGraph(args[0])).write(args[1]);
+    }
+
+    /** Contracts every vertex of G and returns the resulting hierarchy. */
+    public static ContractionHierarchy of(IndexedAStarGraph<?> g) {
+        return new Builder(g).build();
+    }
+
+    /** Returns the number of vertices in the hierarchy. */
+    public int numVertices() {
+        return rank.length;
+    }
+
+    /** Returns the number of edges in the hierarchy, shortcuts included. */
+    public int numEdges() {
+        return edgeFrom.length;
+    }
+
+    /** Returns the number of shortcut edges in the hierarchy. */
+    public int numShortcuts() {
+        return edgeFrom.length - numOriginalEdges;
+    }
+
+    /**
+     * Returns true if this hierarchy was built from G, or from a graph with the same
+     * vertex ids and edges in the same order.
+     */
+    public boolean matches(IndexedAStarGraph<?> g) {
+        return g.numVertices() == numVertices() && Builder.numEdges(g) == numOriginalEdges
+                && checksum(g) == graphChecksum;
+    }
+
+    /* Returns the checksum of the graph the hierarchy was built from. */
+    long graphChecksum() {
+        return graphChecksum;
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the vertex ids of G, the offsets of their edges and
+     * the targets of those, in index order. Files built for a graph store it, so that
+     * they are not used with another graph of the same size, or with the same graph
+     * numbered differently.
+     */
+    static long checksum(IndexedAStarGraph<?> g) {
+        long h = 0xCBF29CE484222325L;
+        for (int v = 0; v < g.numVertices(); v++) {
+            h = (h ^ g.vertex(v).hashCode()) * 0x100000001B3L;
+            h = (h ^ g.firstEdge(v)) * 0x100000001B3L;
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                h = (h ^ g.edgeTarget(e)) * 0x100000001B3L;
+            }
+        }
+        return h;
+    }
+
+    /** Returns the rank of vertex V: the position at which it was contracted. */
+    public int rank(int v) {
+        return rank[v];
+    }
+
+    /* Returns the first hierarchy edge from V to a higher ranked vertex. */
+    int firstUpEdge(int v) {
+        return upOffsets[v];
+    }
+
+    /* Returns one past the last hierarchy edge from V to a higher ranked vertex. */
+    int lastUpEdge(int v) {
+        return upOffsets[v + 1];
+    }
+
+    /* Returns the hierarchy edge at position I of the upward lists. */
+    int upEdge(int i) {
+        return upEdges[i];
+    }
+
+    /* Returns the first hierarchy edge into V from a higher ranked vertex. */
+    int firstDownEdge(int v) {
+        return downOffsets[v];
+    }
+
+    /* Returns one past the last hierarchy edge into V from a higher ranked vertex. */
+    int lastDownEdge(int v) {
+        return downOffsets[v + 1];
+    }
+
+    /* Returns the hierarchy edge at position I of the downward lists. */
+    int downEdge(int i) {
+        return downEdges[i];
+    }
+
+    int edgeFrom(int x) {
+        return edgeFrom[x];
+    }
+
+    int edgeTo(int x) {
+        return edgeTo[x];
+    }
+
+    double edgeWeight(int x) {
+        return edgeWeight[x];
+    }
+
+    /* Returns the first of the two edges shortcut X replaces, or -1 if X is an original edge. */
+    int edgeFirstHalf(int x) {
+        return edgeFirstHalf[x];
+    }
+
+    /* Returns the second of the two edges shortcut X replaces, or -1 if X is an original edge. */
+    int edgeSecondHalf(int x) {
+        return edgeSecondHalf[x];
+    }
+
+    /** Writes this hierarchy to the file at PATH. */
+    public void write(String path) throws IOException {
+        int n = numVertices();
+        int m = numEdges();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(numOriginalEdges);
+            out.writeInt(m);
+            out.writeLong(graphChecksum);
+            for (int v = 0; v < n; v++) {
+                out.writeInt(rank[v]);
+            }
+            for (int x = 0; x < m; x++) {
+                out.writeInt(edgeFrom[x]);
+            }
+            for (int x = 0; x < m; x++) {
+                out.writeInt(edgeTo[x]);
+            }
+            for (int x = 0; x < m; x++) {
+                out.writeDouble(edgeWeight[x]);
+            }
+            for (int x = 0; x < m; x++) {
+                out.writeInt(edgeFirstHalf[x]);
+            }
+            for (int x = 0; x < m; x++) {
+                out.writeInt(edgeSecondHalf[x]);
+            }
+        }
+    }
+
+    /**
+     * Maps the hierarchy file at PATH into memory and reads it.
+     * Throws an IOException if the file is not a hierarchy of the current version.
+     */
+    public static ContractionHierarchy read(String path) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.getInt() != MAGIC) {
+            throw new IOException(path + " is not a contraction hierarchy.");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported contraction hierarchy version " + version + ".");
+        }
+        int n = buf.getInt();
+        int numOriginalEdges = buf.getInt();
+        int m = buf.getInt();
+        long graphChecksum = buf.getLong();
+        int[] rank = readInts(buf, n);
+        int[] from = readInts(buf, m);
+        int[] to = readInts(buf, m);
+        double[] weight = new double[m];
+        buf.asDoubleBuffer().get(weight);
+        buf.position(buf.position() + Double.BYTES * m);
+        int[] firstHalf = readInts(buf, m);
+        int[] secondHalf = readInts(buf, m);
+        return new ContractionHierarchy(numOriginalEdges, graphChecksum, rank, m, from, to,
+                weight, firstHalf, secondHalf);
+    }
+
+    private static int[] readInts(ByteBuffer buf, int length) {
+        int[] result = new int[length];
+        buf.asIntBuffer().get(result);
+        buf.position(buf.position() + Integer.BYTES * length);
+        return result;
+    }
+
+    /**
+     * The mutable state of a contraction: the growing edge arrays, and for every
+     * vertex the edges to and from vertices that have not been contracted yet.
+     */
+    private static class Builder {
+        /* Witness searches give up after settling this many vertices, which can only
+         * add superfluous shortcuts, never lose a path. Searches that only estimate
+         * the priority of a vertex give up much sooner. */
+        private static final int WITNESS_SETTLE_LIMIT = 500;
+        private static final int SIMULATED_WITNESS_SETTLE_LIMIT = 50;
+
+        private final int n;
+        private final int numOriginalEdges;
+        private final long graphChecksum;
+        private int numEdges;
+        private int[] from;
+        private int[] to;
+        private double[] weight;
+        private int[] firstHalf;
+        private int[] secondHalf;
+
+        private final int[][] out;
+        private final int[] outSize;
+        private final int[][] in;
+        private final int[] inSize;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+
+        private final IndexedMinPQ witnessFringe;
+        private final double[] witnessDist;
+        private final int[] witnessStamp;
+        private int stamp;
+
+        Builder(IndexedAStarGraph<?> g) {
+            n = g.numVertices();
+            numOriginalEdges = numEdges(g);
+            graphChecksum = checksum(g);
+            from = new int[numOriginalEdges];
+            to = new int[numOriginalEdges];
+            weight = new double[numOriginalEdges];
+            firstHalf = new int[numOriginalEdges];
+            secondHalf = new int[numOriginalEdges];
+            out = new int[n][];
+            outSize = new int[n];
+            in = new int[n][];
+            inSize = new int[n];
+            for (int v = 0; v < n; v++) {
+                out[v] = new int[Math.max(2, g.lastEdge(v) - g.firstEdge(v))];
+                in[v] = new int[Math.max(2, g.lastInEdge(v) - g.firstInEdge(v))];
+            }
+            for (int v = 0; v < n; v++) {
+                for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                    addEdge(v, g.edgeTarget(e), g.edgeWeight(e), -1, -1);
+                }
+            }
+            contracted = new boolean[n];
+            contractedNeighbors = new int[n];
+            witnessFringe = new IndexedMinPQ(n);
+            witnessDist = new double[n];
+            witnessStamp = new int[n];
+            stamp = 0;
+        }
+
+        static int numEdges(IndexedAStarGraph<?> g) {
+            int m = 0;
+            for (int v = 0; v < g.numVertices(); v++) {
+                m += g.lastEdge(v) - g.firstEdge(v);
+            }
+            return m;
+        }
+
+        ContractionHierarchy build() {
+            int[] rank = new int[n];
+            IndexedMinPQ order = new IndexedMinPQ(n);
+            for (int v = 0; v < n; v++) {
+                order.add(v, priority(v));
+            }
+            int[] updated = new int[n];
+            Arrays.fill(updated, -1);
+            for (int nextRank = 0; order.size() > 0; ) {
+                int v = order.removeSmallest();
+                /* Priorities go stale as neighbors are contracted, so recompute the
+                 * cheapest one and only contract it if it is still the cheapest. */
+                double p = priority(v);
+                if (order.size() > 0 && p > order.getSmallestPriority()) {
+                    order.add(v, p);
+                    continue;
+                }
+                contract(v, false);
+                contracted[v] = true;
+                rank[v] = nextRank;
+                nextRank += 1;
+                for (int i = 0; i < outSize[v]; i++) {
+                    updateNeighbor(to[out[v][i]], v, order, updated);
+                }
+                for (int i = 0; i < inSize[v]; i++) {
+                    updateNeighbor(from[in[v][i]], v, order, updated);
+                }
+                out[v] = null;
+                in[v] = null;
+            }
+            return new ContractionHierarchy(numOriginalEdges, graphChecksum, rank, numEdges,
+                    from, to, weight, firstHalf, secondHalf);
+        }
+
+        private void updateNeighbor(int u, int v, IndexedMinPQ order, int[] updated) {
+            if (contracted[u] || updated[u] == v) {
+                return;
+            }
+            updated[u] = v;
+            contractedNeighbors[u] += 1;
+            order.changePriority(u, priority(u));
+        }
+
+        /* Returns the edge difference of contracting V plus the number of its contracted
+         * neighbors, which spreads contractions evenly over the graph. */
+        private double priority(int v) {
+            compact(v);
+            return contract(v, true) - outSize[v] - inSize[v] + contractedNeighbors[v];
+        }
+
+        /* Drops the edges of V that lead to or come from contracted vertices. */
+        private void compact(int v) {
+            int size = 0;
+            for (int i = 0; i < outSize[v]; i++) {
+                if (!contracted[to[out[v][i]]]) {
+                    out[v][size++] = out[v][i];
+                }
+            }
+            outSize[v] = size;
+            size = 0;
+            for (int i = 0; i < inSize[v]; i++) {
+                if (!contracted[from[in[v][i]]]) {
+                    in[v][size++] = in[v][i];
+                }
+            }
+            inSize[v] = size;
+        }
+
+        /**
+         * Adds the shortcuts needed to contract V, or only counts them if SIMULATE.
+         * Returns the number of shortcuts.
+         */
+        private int contract(int v, boolean simulate) {
+            compact(v);
+            int shortcuts = 0;
+            for (int i = 0; i < inSize[v]; i++) {
+                int a = in[v][i];
+                int u = from[a];
+                if (u == v) {
+                    continue;
+                }
+                double bound = Double.NEGATIVE_INFINITY;
+                for (int j = 0; j < outSize[v]; j++) {
+                    int w = to[out[v][j]];
+                    if (w != u && w != v) {
+                        bound = Math.max(bound, weight[a] + weight[out[v][j]]);
+                    }
+                }
+                if (bound == Double.NEGATIVE_INFINITY) {
+                    continue;
+                }
+                witnessSearch(u, v, bound,
+                        simulate ? SIMULATED_WITNESS_SETTLE_LIMIT : WITNESS_SETTLE_LIMIT);
+                for (int j = 0; j < outSize[v]; j++) {
+                    int b = out[v][j];
+                    int w = to[b];
+                    if (w == u || w == v) {
+                        continue;
+                    }
+                    double viaV = weight[a] + weight[b];
+                    if (witnessDistance(w) > viaV) {
+                        shortcuts += 1;
+                        if (!simulate) {
+                            addEdge(u, w, viaV, a, b);
+                        }
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /* Runs Dijkstra's algorithm from U among the uncontracted vertices other than
+         * AVOID, up to distance BOUND or until LIMIT vertices are settled. */
+        private void witnessSearch(int u, int avoid, double bound, int limit) {
+            stamp += 1;
+            witnessFringe.clear();
+            witnessDist[u] = 0.0;
+            witnessStamp[u] = stamp;
+            witnessFringe.add(u, 0.0);
+            int settled = 0;
+            while (witnessFringe.size() > 0 && settled < limit) {
+                if (witnessFringe.getSmallestPriority() > bound) {
+                    break;
+                }
+                int p = witnessFringe.removeSmallest();
+                settled += 1;
+                for (int i = 0; i < outSize[p]; i++) {
+                    int x = out[p][i];
+                    int q = to[x];
+                    if (q == avoid || contracted[q]) {
+                        continue;
+                    }
+                    double newDist = witnessDist[p] + weight[x];
+                    if (witnessStamp[q] != stamp) {
+                        witnessStamp[q] = stamp;
+                        witnessDist[q] = newDist;
+                        witnessFringe.add(q, newDist);
+                    } else if (newDist < witnessDist[q]) {
+                        witnessDist[q] = newDist;
+                        if (witnessFringe.contains(q)) {
+                            witnessFringe.changePriority(q, newDist);
+                        }
+                    }
+                }
+            }
+        }
+
+        private double witnessDistance(int w) {
+            return witnessStamp[w] == stamp ? witnessDist[w] : Double.POSITIVE_INFINITY;
+        }
+
+        private void addEdge(int u, int w, double d, int a, int b) {
+            if (numEdges == from.length) {
+                int capacity = Math.max(16, numEdges * 2);
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+                firstHalf = Arrays.copyOf(firstHalf, capacity);
+                secondHalf = Arrays.copyOf(secondHalf, capacity);
+            }
+            int x = numEdges;
+            numEdges += 1;
+            from[x] = u;
+            to[x] = w;
+            weight[x] = d;
+            firstHalf[x] = a;
+            secondHalf[x] = b;
+            if (outSize[u] == out[u].length) {
+                out[u] = Arrays.copyOf(out[u], out[u].length * 2);
+            }
+            out[u][outSize[u]++] = x;
+            if (inSize[w] == in[w].length) {
+                in[w] = Arrays.copyOf(in[w], in[w].length * 2);
+            }
+            in[w][inSize[w]++] = x;
+        }
+    }
+}
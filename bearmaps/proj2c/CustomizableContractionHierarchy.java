@@ -0,0 +1,418 @@
+package bearmaps.proj2c;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The metric-independent part of a customizable contraction hierarchy (CCH)
+ * over the vertex indices of an IndexedAStarGraph: a contraction order and
+ * the edges contracting in that order adds whatever the weights are. It is
+ * built once, and customize then turns any weights of the graph's edges into
+ * a ContractionHierarchy in time linear in the number of triangles, which
+ * CHSolver queries like any other. That is what lets weights change, e.g. for
+ * closures or congestion, without contracting the graph again.
+ *
+ * The order is a nested dissection by coordinates: each part of the graph is
+ * split at the median of its longer side, the vertices of one half with edges
+ * to the other half form a separator, and the separator is ranked above both
+ * halves, which are ordered the same way. Contracting a vertex connects all of
+ * its higher ranked neighbors, without witness searches, so the hierarchy has
+ * more edges than a ContractionHierarchy built for one metric and queries
+ * explore a little more of it.
+ *
+ * @author Rui Gao
+ */
+public class CustomizableContractionHierarchy {
+    /* Parts of the graph this small are not dissected any further. */
+    private static final int LEAF_SIZE = 8;
+
+    private final int numOriginalEdges;
+    private final int[] rank;
+    /* The higher ranked neighbors of each vertex, in index order, in CSR form. Position p
+     * of upNeighbors is the pair of vertices an upward and a downward edge join. */
+    private final int[] upOffsets;
+    private final int[] upNeighbors;
+
+    private CustomizableContractionHierarchy(int numOriginalEdges, int[] rank, int[] upOffsets,
+                                             int[] upNeighbors) {
+        this.numOriginalEdges = numOriginalEdges;
+        this.rank = rank;
+        this.upOffsets = upOffsets;
+        this.upNeighbors = upNeighbors;
+    }
+
+    /**
+     * Orders the vertices of G, whose vertex i is at (XS[i], YS[i]), by nested dissection
+     * and adds the edges contracting them in that order needs.
+     */
+    public static CustomizableContractionHierarchy of(IndexedAStarGraph<?> g, double[] xs,
+                                                      double[] ys) {
+        int n = g.numVertices();
+        int[] rank = new Dissection(g, xs, ys).order();
+        int[] byRank = new int[n];
+        for (int v = 0; v < n; v++) {
+            byRank[rank[v]] = v;
+        }
+
+        int[][] up = new int[n][];
+        for (int v = 0; v < n; v++) {
+            int[] neighbors = new int[g.lastEdge(v) - g.firstEdge(v)
+                    + g.lastInEdge(v) - g.firstInEdge(v)];
+            int size = 0;
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                if (rank[g.edgeTarget(e)] > rank[v]) {
+                    neighbors[size++] = g.edgeTarget(e);
+                }
+            }
+            for (int e = g.firstInEdge(v); e < g.lastInEdge(v); e++) {
+                if (rank[g.inEdgeSource(e)] > rank[v]) {
+                    neighbors[size++] = g.inEdgeSource(e);
+                }
+            }
+            up[v] = distinctSorted(neighbors, size);
+        }
+        /* Contracting v connects its higher neighbors. It is enough to pass them on to the
+         * lowest of them, which passes them on in turn when it is contracted. */
+        for (int r = 0; r < n; r++) {
+            int v = byRank[r];
+            int lowest = -1;
+            for (int w : up[v]) {
+                if (lowest < 0 || rank[w] < rank[lowest]) {
+                    lowest = w;
+                }
+            }
+            if (lowest >= 0) {
+                up[lowest] = union(up[lowest], up[v], lowest);
+            }
+        }
+
+        int[] upOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] = upOffsets[v] + up[v].length;
+        }
+        int[] upNeighbors = new int[upOffsets[n]];
+        for (int v = 0; v < n; v++) {
+            System.arraycopy(up[v], 0, upNeighbors, upOffsets[v], up[v].length);
+        }
+        return new CustomizableContractionHierarchy(numEdges(g), rank, upOffsets, upNeighbors);
+    }
+
+    private static int numEdges(IndexedAStarGraph<?> g) {
+        int m = 0;
+        for (int v = 0; v < g.numVertices(); v++) {
+            m += g.lastEdge(v) - g.firstEdge(v);
+        }
+        return m;
+    }
+
+    private static int[] distinctSorted(int[] values, int size) {
+        int[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || sorted[distinct - 1] != sorted[i]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinct);
+    }
+
+    /* Returns the sorted union of sorted A and B, leaving out SKIP. */
+    private static int[] union(int[] a, int[] b, int skip) {
+        int[] result = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (next != skip && (size == 0 || result[size - 1] != next)) {
+                result[size++] = next;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /** Returns the number of vertices in the hierarchy. */
+    public int numVertices() {
+        return rank.length;
+    }
+
+    /** Returns the number of pairs of vertices joined by hierarchy edges, one each way. */
+    public int numPairs() {
+        return upNeighbors.length;
+    }
+
+    /** Returns the rank of vertex V in the contraction order. */
+    public int rank(int v) {
+        return rank[v];
+    }
+
+    /** Returns true if this hierarchy could have been built from G. */
+    public boolean matches(IndexedAStarGraph<?> g) {
+        return g.numVertices() == numVertices()
+                && numEdges(g) == numOriginalEdges;
+    }
+
+    /** Returns the contraction hierarchy of G with the weights of G's own edges. */
+    public ContractionHierarchy customize(IndexedAStarGraph<?> g) {
+        double[] weights = new double[numOriginalEdges];
+        for (int v = 0; v < g.numVertices(); v++) {
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                weights[e] = g.edgeWeight(e);
+            }
+        }
+        return customize(g, weights);
+    }
+
+    /**
+     * Returns the contraction hierarchy of G in which edge e of G weighs WEIGHTS[e], which
+     * may be infinite for an edge that is closed. G must be the graph this was built from.
+     * Each pair of hierarchy edges is relaxed through every lower ranked vertex both ends
+     * are joined to, lowest first, so their weights are final before they are used.
+     */
+    public ContractionHierarchy customize(IndexedAStarGraph<?> g, double[] weights) {
+        if (!matches(g) || weights.length != numOriginalEdges) {
+            throw new IllegalArgumentException("The weights are for another graph.");
+        }
+        int n = numVertices();
+        int numPairs = numPairs();
+        /* Along each pair, from its lower to its higher ranked end and back. */
+        double[] upWeight = new double[numPairs];
+        double[] downWeight = new double[numPairs];
+        int[] upMiddle = new int[numPairs];
+        int[] downMiddle = new int[numPairs];
+        Arrays.fill(upWeight, Double.POSITIVE_INFINITY);
+        Arrays.fill(downWeight, Double.POSITIVE_INFINITY);
+        Arrays.fill(upMiddle, -1);
+        Arrays.fill(downMiddle, -1);
+        for (int v = 0; v < n; v++) {
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                int w = g.edgeTarget(e);
+                if (w == v) {
+                    continue;
+                }
+                if (rank[v] < rank[w]) {
+                    int p = pair(v, w);
+                    upWeight[p] = Math.min(upWeight[p], weights[e]);
+                } else {
+                    int p = pair(w, v);
+                    downWeight[p] = Math.min(downWeight[p], weights[e]);
+                }
+            }
+        }
+
+        int[] byRank = new int[n];
+        for (int v = 0; v < n; v++) {
+            byRank[rank[v]] = v;
+        }
+        for (int r = 0; r < n; r++) {
+            int v = byRank[r];
+            for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+                for (int j = i + 1; j < upOffsets[v + 1]; j++) {
+                    int a = upNeighbors[i];
+                    int b = upNeighbors[j];
+                    double viaAB = downWeight[i] + upWeight[j];
+                    double viaBA = downWeight[j] + upWeight[i];
+                    if (rank[a] > rank[b]) {
+                        int t = a;
+                        a = b;
+                        b = t;
+                        double d = viaAB;
+                        viaAB = viaBA;
+                        viaBA = d;
+                    }
+                    int p = pair(a, b);
+                    if (viaAB < upWeight[p]) {
+                        upWeight[p] = viaAB;
+                        upMiddle[p] = v;
+                    }
+                    if (viaBA < downWeight[p]) {
+                        downWeight[p] = viaBA;
+                        downMiddle[p] = v;
+                    }
+                }
+            }
+        }
+
+        /* Relaxing every pair through the vertices above its lower end too, highest pairs
+         * first, leaves the shortest distance on each. A pair direction that gets shorter
+         * is on no shortest path, nor is one that is infinite, so neither is needed. */
+        double[] exactUp = upWeight.clone();
+        double[] exactDown = downWeight.clone();
+        for (int r = n - 1; r >= 0; r--) {
+            int v = byRank[r];
+            for (int i = upOffsets[v]; i < upOffsets[v + 1]; i++) {
+                int a = upNeighbors[i];
+                for (int j = upOffsets[v]; j < upOffsets[v + 1]; j++) {
+                    int b = upNeighbors[j];
+                    if (b == a) {
+                        continue;
+                    }
+                    boolean aLower = rank[a] < rank[b];
+                    int q = aLower ? pair(a, b) : pair(b, a);
+                    double ab = aLower ? exactUp[q] : exactDown[q];
+                    double ba = aLower ? exactDown[q] : exactUp[q];
+                    exactUp[i] = Math.min(exactUp[i], exactUp[j] + ba);
+                    exactDown[i] = Math.min(exactDown[i], ab + exactDown[j]);
+                }
+            }
+        }
+        /* Hierarchy edge 2p goes up along pair p, and 2p + 1 comes back down. The halves of
+         * a needed edge are needed too, which rounding could otherwise break. */
+        boolean[] needed = new boolean[2 * numPairs];
+        for (int r = n - 1; r >= 0; r--) {
+            int v = byRank[r];
+            for (int p = upOffsets[v]; p < upOffsets[v + 1]; p++) {
+                int w = upNeighbors[p];
+                needed[2 * p] |= upWeight[p] <= exactUp[p]
+                        && upWeight[p] < Double.POSITIVE_INFINITY;
+                needed[2 * p + 1] |= downWeight[p] <= exactDown[p]
+                        && downWeight[p] < Double.POSITIVE_INFINITY;
+                if (needed[2 * p] && upMiddle[p] >= 0) {
+                    needed[2 * pair(upMiddle[p], v) + 1] = true;
+                    needed[2 * pair(upMiddle[p], w)] = true;
+                }
+                if (needed[2 * p + 1] && downMiddle[p] >= 0) {
+                    needed[2 * pair(downMiddle[p], w) + 1] = true;
+                    needed[2 * pair(downMiddle[p], v)] = true;
+                }
+            }
+        }
+        int[] index = new int[2 * numPairs];
+        int m = 0;
+        for (int x = 0; x < 2 * numPairs; x++) {
+            index[x] = needed[x] ? m++ : -1;
+        }
+        int[] from = new int[m];
+        int[] to = new int[m];
+        double[] weight = new double[m];
+        int[] firstHalf = new int[m];
+        int[] secondHalf = new int[m];
+        for (int v = 0; v < n; v++) {
+            for (int p = upOffsets[v]; p < upOffsets[v + 1]; p++) {
+                int w = upNeighbors[p];
+                int x = index[2 * p];
+                if (x >= 0) {
+                    int mid = upMiddle[p];
+                    from[x] = v;
+                    to[x] = w;
+                    weight[x] = upWeight[p];
+                    firstHalf[x] = mid < 0 ? -1 : index[2 * pair(mid, v) + 1];
+                    secondHalf[x] = mid < 0 ? -1 : index[2 * pair(mid, w)];
+                }
+                x = index[2 * p + 1];
+                if (x >= 0) {
+                    int mid = downMiddle[p];
+                    from[x] = w;
+                    to[x] = v;
+                    weight[x] = downWeight[p];
+                    firstHalf[x] = mid < 0 ? -1 : index[2 * pair(mid, w) + 1];
+                    secondHalf[x] = mid < 0 ? -1 : index[2 * pair(mid, v)];
+                }
+            }
+        }
+        return new ContractionHierarchy(numOriginalEdges, ContractionHierarchy.checksum(g),
+                rank, m, from, to, weight, firstHalf, secondHalf);
+    }
+
+    /* Returns the pair joining V to its higher ranked neighbor W. */
+    private int pair(int v, int w) {
+        return Arrays.binarySearch(upNeighbors, upOffsets[v], upOffsets[v + 1], w);
+    }
+
+    /** Computes a nested dissection order of a graph by the coordinates of its vertices. */
+    private static class Dissection {
+        private final IndexedAStarGraph<?> g;
+        private final double[] xs;
+        private final double[] ys;
+        private final Integer[] vertices;
+        private final int[] rank;
+        private final int[] side;
+        private int nextRank;
+        private int nextSide;
+
+        Dissection(IndexedAStarGraph<?> g, double[] xs, double[] ys) {
+            this.g = g;
+            this.xs = xs;
+            this.ys = ys;
+            int n = g.numVertices();
+            vertices = new Integer[n];
+            for (int v = 0; v < n; v++) {
+                vertices[v] = v;
+            }
+            rank = new int[n];
+            side = new int[n];
+            nextRank = 0;
+            nextSide = 0;
+        }
+
+        int[] order() {
+            dissect(0, vertices.length);
+            return rank;
+        }
+
+        /* Ranks the vertices VERTICES[LO..HI) above every vertex ranked so far. */
+        private void dissect(int lo, int hi) {
+            if (hi - lo <= LEAF_SIZE) {
+                rankAll(lo, hi);
+                return;
+            }
+            double minX = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int k = lo; k < hi; k++) {
+                minX = Math.min(minX, xs[vertices[k]]);
+                maxX = Math.max(maxX, xs[vertices[k]]);
+                minY = Math.min(minY, ys[vertices[k]]);
+                maxY = Math.max(maxY, ys[vertices[k]]);
+            }
+            double[] coords = maxX - minX >= maxY - minY ? xs : ys;
+            Arrays.sort(vertices, lo, hi, Comparator.comparingDouble(v -> coords[v]));
+            int mid = (lo + hi) >>> 1;
+            int left = ++nextSide;
+            int right = ++nextSide;
+            for (int k = lo; k < hi; k++) {
+                side[vertices[k]] = k < mid ? left : right;
+            }
+            /* Move the vertices of the left half next to the right half to its end. */
+            int separator = mid;
+            for (int k = mid - 1; k >= lo; k--) {
+                if (touches(vertices[k], right)) {
+                    separator -= 1;
+                    Integer t = vertices[k];
+                    vertices[k] = vertices[separator];
+                    vertices[separator] = t;
+                }
+            }
+            dissect(lo, separator);
+            dissect(mid, hi);
+            rankAll(separator, mid);
+        }
+
+        private boolean touches(int v, int s) {
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                if (side[g.edgeTarget(e)] == s) {
+                    return true;
+                }
+            }
+            for (int e = g.firstInEdge(v); e < g.lastInEdge(v); e++) {
+                if (side[g.inEdgeSource(e)] == s) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void rankAll(int lo, int hi) {
+            for (int k = lo; k < hi; k++) {
+                rank[vertices[k]] = nextRank++;
+            }
+        }
+    }
+}
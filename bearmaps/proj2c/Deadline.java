@@ -0,0 +1,80 @@
+package bearmaps.proj2c;
+
+/**
+ * A point in time by which a search must finish, which can also be cancelled
+ * early, e.g. once nobody is waiting for the result any more. Searches call
+ * expired only once every CHECK_INTERVAL expansions, which keeps reading the
+ * clock out of their inner loop. A deadline can be shared by all the searches
+ * done for one request.
+ *
+ * @author Rui Gao
+ */
+public class Deadline {
+    /** Searches check their deadline once every this many expansions. A power of two. */
+    public static final int CHECK_INTERVAL = 256;
+
+    private final long expiresAtNanos;
+    /* Cancelling the parent cancels this deadline too. */
+    private final Deadline parent;
+    private volatile boolean cancelled;
+
+    private Deadline(long expiresAtNanos, Deadline parent) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.parent = parent;
+        cancelled = false;
+    }
+
+    /** Returns a deadline SECONDS from now. */
+    public static Deadline after(double seconds) {
+        return new Deadline(System.nanoTime() + toNanos(seconds), null);
+    }
+
+    /** Returns a deadline that never passes, but can still be cancelled. */
+    public static Deadline never() {
+        return after(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Returns a deadline SECONDS from now or at this deadline, whichever comes first,
+     * which is also cancelled whenever this one is.
+     */
+    public Deadline within(double seconds) {
+        long expiresAt = System.nanoTime() + toNanos(seconds);
+        return new Deadline(expiresAt - expiresAtNanos < 0 ? expiresAt : expiresAtNanos, this);
+    }
+
+    private static long toNanos(double seconds) {
+        return (long) Math.min(seconds * 1e9, Long.MAX_VALUE / 4);
+    }
+
+    /** Makes this deadline expire now, for every search that shares it. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Returns true if this deadline was cancelled, as opposed to running out. */
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /** Returns true if this deadline has passed or was cancelled. */
+    public boolean expired() {
+        return isCancelled() || System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    /** Returns the time left until this deadline in nanoseconds, or 0 if it has expired. */
+    public long remainingNanos() {
+        if (isCancelled()) {
+            return 0;
+        }
+        return Math.max(0, expiresAtNanos - System.nanoTime());
+    }
+
+    /**
+     * Returns true if this deadline has expired and a search that has made N expansions
+     * is due to check it. Cheap enough to call on every expansion.
+     */
+    public boolean expired(int n) {
+        return (n & (CHECK_INTERVAL - 1)) == 0 && expired();
+    }
+}
@@ -0,0 +1,138 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2ab.IndexedMinPQ;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the table of shortest distances from each of many source vertices
+ * to each of many target vertices of an IndexedAStarGraph. Each row is one
+ * run of Dijkstra's algorithm that stops as soon as every target is settled,
+ * and the rows are spread over the common fork/join pool. When there are more
+ * sources than targets, the searches run backward from the targets instead,
+ * so there are as few of them as possible. The searches run in pooled
+ * SearchWorkspaces, so they allocate little more than the rows themselves.
+ *
+ * @author Rui Gao
+ */
+public class DistanceMatrix {
+    /* A task computes at most this many rows itself, and splits in two otherwise. */
+    private static final int ROWS_PER_TASK = 2;
+
+    /**
+     * Returns the matrix whose entry [i][j] is the shortest distance in G from the vertex
+     * with index SOURCES[i] to the one with index TARGETS[j], or infinity if there is no
+     * path. Indices of -1 stand for vertices not in G, and have no paths.
+     */
+    public static double[][] of(IndexedAStarGraph<?> g, int[] sources, int[] targets) {
+        boolean reverse = sources.length > targets.length;
+        int[] from = reverse ? targets : sources;
+        int[] to = reverse ? sources : targets;
+        double[][] rows = new double[from.length][];
+        ForkJoinPool.commonPool().invoke(new Rows(g, from, to, reverse, rows, 0, from.length));
+        if (!reverse) {
+            return rows;
+        }
+        double[][] matrix = new double[sources.length][targets.length];
+        for (int j = 0; j < targets.length; j++) {
+            for (int i = 0; i < sources.length; i++) {
+                matrix[i][j] = rows[j][i];
+            }
+        }
+        return matrix;
+    }
+
+    /* Computes rows [lo, hi) of ROWS, splitting the range among subtasks. */
+    private static class Rows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IndexedAStarGraph<?> g;
+        private final int[] from;
+        private final int[] to;
+        private final boolean reverse;
+        private final double[][] rows;
+        private final int lo;
+        private final int hi;
+
+        Rows(IndexedAStarGraph<?> g, int[] from, int[] to, boolean reverse, double[][] rows,
+             int lo, int hi) {
+            this.g = g;
+            this.from = from;
+            this.to = to;
+            this.reverse = reverse;
+            this.rows = rows;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > ROWS_PER_TASK) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Rows(g, from, to, reverse, rows, lo, mid),
+                        new Rows(g, from, to, reverse, rows, mid, hi));
+                return;
+            }
+            for (int i = lo; i < hi; i++) {
+                rows[i] = oneToMany(g, from[i], to, reverse);
+            }
+        }
+    }
+
+    /* Returns the distances from SOURCE to each of TARGETS in G, or to SOURCE if REVERSE. */
+    private static double[] oneToMany(IndexedAStarGraph<?> g, int source, int[] targets,
+                                      boolean reverse) {
+        double[] row = new double[targets.length];
+        Arrays.fill(row, Double.POSITIVE_INFINITY);
+        if (source < 0) {
+            return row;
+        }
+        SearchWorkspace ws = SearchWorkspace.acquire(g.numVertices());
+        /* Only used to mark the targets, which costs nothing to clear afterwards. */
+        SearchWorkspace isTarget = SearchWorkspace.acquire(g.numVertices());
+        try {
+            int remaining = 0;
+            for (int t : targets) {
+                if (t >= 0 && !isTarget.reached(t)) {
+                    isTarget.reach(t, 0.0, -1);
+                    remaining += 1;
+                }
+            }
+            IndexedMinPQ fringe = ws.fringe();
+            ws.reach(source, 0.0, -1);
+            fringe.add(source, 0.0);
+            while (remaining > 0 && fringe.size() > 0) {
+                int p = fringe.removeSmallest();
+                if (isTarget.reached(p)) {
+                    remaining -= 1;
+                }
+                double distP = ws.dist(p);
+                int first = reverse ? g.firstInEdge(p) : g.firstEdge(p);
+                int last = reverse ? g.lastInEdge(p) : g.lastEdge(p);
+                for (int e = first; e < last; e++) {
+                    int q = reverse ? g.inEdgeSource(e) : g.edgeTarget(e);
+                    double newDist = distP + (reverse ? g.inEdgeWeight(e) : g.edgeWeight(e));
+                    if (newDist < ws.dist(q)) {
+                        ws.reach(q, newDist, p);
+                        if (fringe.contains(q)) {
+                            fringe.changePriority(q, newDist);
+                        } else {
+                            fringe.add(q, newDist);
+                        }
+                    }
+                }
+            }
+            for (int j = 0; j < targets.length; j++) {
+                if (targets[j] >= 0) {
+                    row[j] = ws.dist(targets[j]);
+                }
+            }
+        } finally {
+            isTarget.release();
+            ws.release();
+        }
+        return row;
+    }
+}
@@ -0,0 +1,344 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2c.streetmap.StreetMapGraph;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A hub labeling of the vertex indices of an IndexedAStarGraph: every vertex
+ * has a forward label of hubs it has shortest paths to, and a backward label
+ * of hubs with shortest paths to it, such that every shortest path passes
+ * through a hub in both the forward label of its start and the backward label
+ * of its goal. The distance between two vertices is then the smallest sum of
+ * distances to a common hub, found by merging two labels sorted by hub.
+ * Labels are built from a ContractionHierarchy: a vertex's forward label is
+ * its upward search space, computed from the labels of its upward neighbors,
+ * less the hubs that a label query shows it does not reach by a shortest path.
+ * Labels are kept in flat arrays in CSR form. The file written by write is
+ * queried in place by read, straight from the memory-mapped file.
+ * Run main to build the labels for an OSM XML file offline.
+ *
+ * @author Rui Gao
+ */
+public class HubLabels {
+    /** "BMHL" in ASCII. */
+    private static final int MAGIC = 0x424D484C;
+    /**
+     * Bump this whenever the file layout, or the way graphs number their vertices,
+     * changes. Version 2 is for graphs numbered along a Hilbert curve, and version 3
+     * adds the checksum of the graph to the header.
+     */
+    static final int VERSION = 3;
+    /* Six ints and the checksum, which keeps the doubles after it aligned. */
+    private static final int HEADER_BYTES = 6 * Integer.BYTES + Long.BYTES;
+
+    private final int numOriginalEdges;
+    /* The checksum of the graph the labels were built for. */
+    private final long graphChecksum;
+    /* The labels of vertex v are at [offsets[v], offsets[v + 1]) of the hub and distance
+     * arrays, sorted by hub. */
+    private final IntBuffer fwdOffsets;
+    private final IntBuffer fwdHubs;
+    private final DoubleBuffer fwdDists;
+    private final IntBuffer bwdOffsets;
+    private final IntBuffer bwdHubs;
+    private final DoubleBuffer bwdDists;
+
+    private HubLabels(int numOriginalEdges, long graphChecksum, IntBuffer fwdOffsets,
+                      IntBuffer fwdHubs, DoubleBuffer fwdDists, IntBuffer bwdOffsets,
+                      IntBuffer bwdHubs, DoubleBuffer bwdDists) {
+        this.numOriginalEdges = numOriginalEdges;
+        this.graphChecksum = graphChecksum;
+        this.fwdOffsets = fwdOffsets;
+        this.fwdHubs = fwdHubs;
+        this.fwdDists = fwdDists;
+        this.bwdOffsets = bwdOffsets;
+        this.bwdHubs = bwdHubs;
+        this.bwdDists = bwdDists;
+    }
+
+    /**
+     * Builds the hub labels of a street map OSM XML file and writes them to a file.
+     * @param args The classpath location of the OSM XML file and the label file to write,
+     *             optionally followed by a hierarchy file already built for the same graph.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: HubLabels <osm xml> <label file> [hierarchy file]");
+            return;
+        }
+        StreetMapGraph g = new StreetMapGraph(args[0]);
+        ContractionHierarchy ch = args.length == 3 ? ContractionHierarchy.read(args[2])
+                : ContractionHierarchy.of(g);
+        if (!ch.matches(g)) {
+            throw new IllegalArgumentException("The contraction hierarchy is for another graph.");
+        }
+        of(ch).write(args[1]);
+    }
+
+    /** Builds the hub labels of the graph CH was built from. */
+    public static HubLabels of(ContractionHierarchy ch) {
+        int n = ch.numVertices();
+        int[] byRank = new int[n];
+        for (int v = 0; v < n; v++) {
+            byRank[ch.rank(v)] = v;
+        }
+        int[][] fwdHubs = new int[n][];
+        double[][] fwdDists = new double[n][];
+        int[][] bwdHubs = new int[n][];
+        double[][] bwdDists = new double[n][];
+        /* From the top of the hierarchy down, so the labels of higher vertices are done. */
+        for (int r = n - 1; r >= 0; r--) {
+            int v = byRank[r];
+            buildLabel(ch, v, true, fwdHubs, fwdDists, bwdHubs, bwdDists);
+            buildLabel(ch, v, false, bwdHubs, bwdDists, fwdHubs, fwdDists);
+        }
+        int[] fwdOffsets = new int[n + 1];
+        int[] bwdOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            fwdOffsets[v + 1] = fwdOffsets[v] + fwdHubs[v].length;
+            bwdOffsets[v + 1] = bwdOffsets[v] + bwdHubs[v].length;
+        }
+        return new HubLabels(ch.numEdges() - ch.numShortcuts(), ch.graphChecksum(),
+                IntBuffer.wrap(fwdOffsets), IntBuffer.wrap(flatten(fwdHubs, fwdOffsets[n])),
+                DoubleBuffer.wrap(flatten(fwdDists, fwdOffsets[n])),
+                IntBuffer.wrap(bwdOffsets), IntBuffer.wrap(flatten(bwdHubs, bwdOffsets[n])),
+                DoubleBuffer.wrap(flatten(bwdDists, bwdOffsets[n])));
+    }
+
+    /*
+     * Builds the forward label of V into HUBS and DISTS if FORWARD, else its backward label,
+     * from the labels of the higher ranked vertices it has hierarchy edges to (or from).
+     * OTHERHUBS and OTHERDISTS are the labels of the other direction, used for pruning.
+     */
+    private static void buildLabel(ContractionHierarchy ch, int v, boolean forward,
+                                   int[][] hubs, double[][] dists,
+                                   int[][] otherHubs, double[][] otherDists) {
+        SearchWorkspace candidates = SearchWorkspace.acquire(ch.numVertices());
+        try {
+            int[] found = new int[16];
+            int size = 0;
+            candidates.reach(v, 0.0, -1);
+            found[size++] = v;
+            int first = forward ? ch.firstUpEdge(v) : ch.firstDownEdge(v);
+            int last = forward ? ch.lastUpEdge(v) : ch.lastDownEdge(v);
+            for (int i = first; i < last; i++) {
+                int x = forward ? ch.upEdge(i) : ch.downEdge(i);
+                int u = forward ? ch.edgeTo(x) : ch.edgeFrom(x);
+                for (int j = 0; j < hubs[u].length; j++) {
+                    int h = hubs[u][j];
+                    double d = ch.edgeWeight(x) + dists[u][j];
+                    if (!candidates.reached(h)) {
+                        if (size == found.length) {
+                            found = Arrays.copyOf(found, size * 2);
+                        }
+                        found[size++] = h;
+                        candidates.reach(h, d, -1);
+                    } else if (d < candidates.dist(h)) {
+                        candidates.reach(h, d, -1);
+                    }
+                }
+            }
+            Arrays.sort(found, 0, size);
+            int[] labelHubs = new int[size];
+            double[] labelDists = new double[size];
+            for (int i = 0; i < size; i++) {
+                labelHubs[i] = found[i];
+                labelDists[i] = candidates.dist(found[i]);
+            }
+            /* Keep only the hubs whose distance no path through another hub beats. */
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int h = labelHubs[i];
+                double d = labelDists[i];
+                if (h == v || merge(labelHubs, labelDists, 0, size,
+                        otherHubs[h], otherDists[h]) >= d) {
+                    found[kept] = h;
+                    kept += 1;
+                }
+            }
+            hubs[v] = new int[kept];
+            dists[v] = new double[kept];
+            for (int i = 0; i < kept; i++) {
+                hubs[v][i] = found[i];
+                dists[v][i] = candidates.dist(found[i]);
+            }
+        } finally {
+            candidates.release();
+        }
+    }
+
+    /* Returns the smallest A_DISTS[i] + B_DISTS[j] over A_HUBS[i] == B_HUBS[j], for i in
+     * [aFrom, aTo), or infinity if the labels have no hub in common. */
+    private static double merge(int[] aHubs, double[] aDists, int aFrom, int aTo,
+                                int[] bHubs, double[] bDists) {
+        double best = Double.POSITIVE_INFINITY;
+        int i = aFrom;
+        int j = 0;
+        while (i < aTo && j < bHubs.length) {
+            if (aHubs[i] < bHubs[j]) {
+                i += 1;
+            } else if (aHubs[i] > bHubs[j]) {
+                j += 1;
+            } else {
+                best = Math.min(best, aDists[i] + bDists[j]);
+                i += 1;
+                j += 1;
+            }
+        }
+        return best;
+    }
+
+    private static int[] flatten(int[][] arrays, int total) {
+        int[] flat = new int[total];
+        int k = 0;
+        for (int[] a : arrays) {
+            System.arraycopy(a, 0, flat, k, a.length);
+            k += a.length;
+        }
+        return flat;
+    }
+
+    private static double[] flatten(double[][] arrays, int total) {
+        double[] flat = new double[total];
+        int k = 0;
+        for (double[] a : arrays) {
+            System.arraycopy(a, 0, flat, k, a.length);
+            k += a.length;
+        }
+        return flat;
+    }
+
+    /**
+     * Returns the shortest distance from the vertex with index S to the one with index T,
+     * or infinity if there is no path.
+     */
+    public double distance(int s, int t) {
+        double best = Double.POSITIVE_INFINITY;
+        int i = fwdOffsets.get(s);
+        int iEnd = fwdOffsets.get(s + 1);
+        int j = bwdOffsets.get(t);
+        int jEnd = bwdOffsets.get(t + 1);
+        while (i < iEnd && j < jEnd) {
+            int a = fwdHubs.get(i);
+            int b = bwdHubs.get(j);
+            if (a < b) {
+                i += 1;
+            } else if (a > b) {
+                j += 1;
+            } else {
+                best = Math.min(best, fwdDists.get(i) + bwdDists.get(j));
+                i += 1;
+                j += 1;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the number of vertices labeled. */
+    public int numVertices() {
+        return fwdOffsets.limit() - 1;
+    }
+
+    /** Returns the total number of hubs in all labels, forward and backward. */
+    public long numHubs() {
+        return (long) fwdHubs.limit() + bwdHubs.limit();
+    }
+
+    /**
+     * Returns true if these labels were built for G, or for a graph with the same vertex
+     * ids and edges in the same order.
+     */
+    public boolean matches(IndexedAStarGraph<?> g) {
+        if (g.numVertices() != numVertices()) {
+            return false;
+        }
+        long m = 0;
+        for (int v = 0; v < g.numVertices(); v++) {
+            m += g.lastEdge(v) - g.firstEdge(v);
+        }
+        return m == numOriginalEdges && ContractionHierarchy.checksum(g) == graphChecksum;
+    }
+
+    /** Writes these labels to the file at PATH. */
+    public void write(String path) throws IOException {
+        int n = numVertices();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(numOriginalEdges);
+            out.writeInt(fwdHubs.limit());
+            out.writeInt(bwdHubs.limit());
+            out.writeLong(graphChecksum);
+            /* Doubles first, so that they are aligned if the header is. */
+            for (int i = 0; i < fwdDists.limit(); i++) {
+                out.writeDouble(fwdDists.get(i));
+            }
+            for (int i = 0; i < bwdDists.limit(); i++) {
+                out.writeDouble(bwdDists.get(i));
+            }
+            for (IntBuffer ints : new IntBuffer[]{fwdOffsets, fwdHubs, bwdOffsets, bwdHubs}) {
+                for (int i = 0; i < ints.limit(); i++) {
+                    out.writeInt(ints.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the label file at PATH into memory, to be queried in place.
+     * Throws an IOException if the file is not a label file of the current version.
+     */
+    public static HubLabels read(String path) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.getInt() != MAGIC) {
+            throw new IOException(path + " is not a hub label file.");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported hub label version " + version + ".");
+        }
+        int n = buf.getInt();
+        int numOriginalEdges = buf.getInt();
+        int numFwd = buf.getInt();
+        int numBwd = buf.getInt();
+        long graphChecksum = buf.getLong();
+        long expected = HEADER_BYTES + Integer.BYTES * (2L * (n + 1) + numFwd + numBwd)
+                + Double.BYTES * ((long) numFwd + numBwd);
+        if (buf.capacity() != expected) {
+            throw new IOException(path + " is truncated.");
+        }
+        DoubleBuffer fwdDists = slice(buf, Double.BYTES * numFwd).asDoubleBuffer();
+        DoubleBuffer bwdDists = slice(buf, Double.BYTES * numBwd).asDoubleBuffer();
+        IntBuffer fwdOffsets = slice(buf, Integer.BYTES * (n + 1)).asIntBuffer();
+        IntBuffer fwdHubs = slice(buf, Integer.BYTES * numFwd).asIntBuffer();
+        IntBuffer bwdOffsets = slice(buf, Integer.BYTES * (n + 1)).asIntBuffer();
+        IntBuffer bwdHubs = slice(buf, Integer.BYTES * numBwd).asIntBuffer();
+        return new HubLabels(numOriginalEdges, graphChecksum, fwdOffsets, fwdHubs, fwdDists,
+                bwdOffsets, bwdHubs, bwdDists);
+    }
+
+    /* Returns the next LENGTH bytes of BUF as a buffer of their own, and skips past them. */
+    private static ByteBuffer slice(ByteBuffer buf, int length) {
+        ByteBuffer slice = buf.slice();
+        slice.limit(length);
+        buf.position(buf.position() + length);
+        return slice;
+    }
+}
@@ -0,0 +1,48 @@
+package bearmaps.proj2c;
+
+/**
+ * An AStarGraph whose vertices are also numbered densely from 0 to
+ * numVertices() - 1, so that solvers can traverse it with primitive
+ * indices instead of boxed vertices and edge objects.
+ * The outgoing edges of vertex V are numbered firstEdge(V) (inclusive)
+ * to lastEdge(V) (exclusive), and its incoming edges firstInEdge(V) to
+ * lastInEdge(V), so that the graph can also be searched backwards.
+ *
+ * @author Rui Gao
+ */
+public interface IndexedAStarGraph<Vertex> extends AStarGraph<Vertex> {
+    /* Returns the number of vertices in the graph. */
+    int numVertices();
+    /* Returns the index of vertex V, or -1 if V is not in the graph. */
+    int indexOf(Vertex v);
+    /* Returns the vertex with index I. */
+    Vertex vertex(int i);
+    /* Returns the first outgoing edge of the vertex with index V. */
+    int firstEdge(int v);
+    /* Returns one past the last outgoing edge of the vertex with index V. */
+    int lastEdge(int v);
+    /* Returns the index of the vertex edge E points to. */
+    int edgeTarget(int e);
+    /* Returns the weight of edge E. */
+    double edgeWeight(int e);
+    /* Returns the first incoming edge of the vertex with index V. */
+    int firstInEdge(int v);
+    /* Returns one past the last incoming edge of the vertex with index V. */
+    int lastInEdge(int v);
+    /* Returns the index of the vertex incoming edge E comes from. */
+    int inEdgeSource(int e);
+    /* Returns the weight of incoming edge E. */
+    double inEdgeWeight(int e);
+    /* Returns the estimated distance between the vertices with indices S and GOAL. */
+    double estimatedDistanceToGoal(int s, int goal);
+    /* Returns the estimated distance from START to the vertex with index V, for backward
+     * searches. By default the estimate is assumed to be symmetric. */
+    default double estimatedDistanceFromStart(int start, int v) {
+        return estimatedDistanceToGoal(v, start);
+    }
+    /* Returns false if edge E is known to be on no shortest path to the vertex with index
+     * GOAL, so that searches for GOAL can skip it. By default no edge is ruled out. */
+    default boolean mayLeadTo(int e, int goal) {
+        return true;
+    }
+}
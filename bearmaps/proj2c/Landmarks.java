@@ -0,0 +1,150 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2ab.IndexedMinPQ;
+
+import java.util.Arrays;
+
+/**
+ * Shortest distances from and to a few landmark vertices of an IndexedAStarGraph,
+ * which give lower bounds on the distance between any two vertices by the
+ * triangle inequality (the ALT heuristic): for every landmark L,
+ * d(v, t) >= d(v, L) - d(t, L) and d(v, t) >= d(L, t) - d(L, v).
+ * Landmarks are picked by the farthest strategy: each one is the vertex
+ * farthest from the landmarks picked before it, so they end up spread along
+ * the edges of the map, behind the vertices they bound best.
+ * Memory is two doubles per vertex per landmark.
+ *
+ * @author Rui Gao
+ */
+public class Landmarks {
+    /** The number of landmarks picked when none is given. */
+    public static final int DEFAULT_NUM_LANDMARKS = 8;
+    /* The number of candidate vertices tried when looking for one in the main component. */
+    private static final int NUM_SEED_CANDIDATES = 8;
+
+    private final int[] landmarks;
+    /* fromLandmark[i][v] is the distance from landmark i to v, toLandmark[i][v] from v to it. */
+    private final double[][] fromLandmark;
+    private final double[][] toLandmark;
+
+    private Landmarks(int[] landmarks, double[][] fromLandmark, double[][] toLandmark) {
+        this.landmarks = landmarks;
+        this.fromLandmark = fromLandmark;
+        this.toLandmark = toLandmark;
+    }
+
+    public static Landmarks of(IndexedAStarGraph<?> g) {
+        return of(g, DEFAULT_NUM_LANDMARKS);
+    }
+
+    /** Picks K landmarks of G and computes the distances from and to each of them. */
+    public static Landmarks of(IndexedAStarGraph<?> g, int k) {
+        int n = g.numVertices();
+        k = Math.min(k, n);
+        int[] landmarks = new int[k];
+        double[][] fromLandmark = new double[k][];
+        double[][] toLandmark = new double[k][];
+        if (k == 0) {
+            return new Landmarks(landmarks, fromLandmark, toLandmark);
+        }
+
+        /* Start from a vertex that reaches most of the graph, so that the landmarks do not
+         * all land on some island. */
+        double[] seedDist = null;
+        int bestReached = -1;
+        for (int i = 0; i < NUM_SEED_CANDIDATES && i < n; i++) {
+            double[] dist = shortestDistances(g, (int) ((long) i * n / NUM_SEED_CANDIDATES), false);
+            int reached = 0;
+            for (double d : dist) {
+                if (d < Double.POSITIVE_INFINITY) {
+                    reached += 1;
+                }
+            }
+            if (reached > bestReached) {
+                bestReached = reached;
+                seedDist = dist;
+            }
+            if (2 * reached >= n) {
+                break;
+            }
+        }
+
+        double[] minDist = seedDist.clone();
+        for (int i = 0; i < k; i++) {
+            int farthest = 0;
+            for (int v = 0; v < n; v++) {
+                if (minDist[v] < Double.POSITIVE_INFINITY
+                        && (minDist[farthest] == Double.POSITIVE_INFINITY
+                        || minDist[v] > minDist[farthest])) {
+                    farthest = v;
+                }
+            }
+            landmarks[i] = farthest;
+            fromLandmark[i] = shortestDistances(g, farthest, false);
+            toLandmark[i] = shortestDistances(g, farthest, true);
+            for (int v = 0; v < n; v++) {
+                if (minDist[v] < Double.POSITIVE_INFINITY) {
+                    minDist[v] = Math.min(minDist[v], fromLandmark[i][v]);
+                }
+            }
+        }
+        return new Landmarks(landmarks, fromLandmark, toLandmark);
+    }
+
+    /**
+     * Returns the distances from SOURCE to every vertex of G, or from every vertex to
+     * SOURCE if REVERSE, with infinity for vertices that cannot be reached.
+     */
+    static double[] shortestDistances(IndexedAStarGraph<?> g, int source, boolean reverse) {
+        double[] dist = new double[g.numVertices()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IndexedMinPQ fringe = new IndexedMinPQ(g.numVertices());
+        dist[source] = 0.0;
+        fringe.add(source, 0.0);
+        while (fringe.size() > 0) {
+            int p = fringe.removeSmallest();
+            int first = reverse ? g.firstInEdge(p) : g.firstEdge(p);
+            int last = reverse ? g.lastInEdge(p) : g.lastEdge(p);
+            for (int e = first; e < last; e++) {
+                int q = reverse ? g.inEdgeSource(e) : g.edgeTarget(e);
+                double newDist = dist[p] + (reverse ? g.inEdgeWeight(e) : g.edgeWeight(e));
+                if (newDist < dist[q]) {
+                    dist[q] = newDist;
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, newDist);
+                    } else {
+                        fringe.add(q, newDist);
+                    }
+                }
+            }
+        }
+        return dist;
+    }
+
+    /** Returns the number of landmarks. */
+    public int size() {
+        return landmarks.length;
+    }
+
+    /** Returns the vertex index of landmark I. */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /** Returns a lower bound on the distance from vertex V to vertex T. */
+    public double lowerBound(int v, int t) {
+        double bound = 0.0;
+        for (int i = 0; i < landmarks.length; i++) {
+            double[] to = toLandmark[i];
+            double[] from = fromLandmark[i];
+            /* Unreachable landmarks bound nothing, and infinity minus infinity is NaN. */
+            if (to[v] < Double.POSITIVE_INFINITY && to[t] < Double.POSITIVE_INFINITY) {
+                bound = Math.max(bound, to[v] - to[t]);
+            }
+            if (from[v] < Double.POSITIVE_INFINITY && from[t] < Double.POSITIVE_INFINITY) {
+                bound = Math.max(bound, from[t] - from[v]);
+            }
+        }
+        return bound;
+    }
+}
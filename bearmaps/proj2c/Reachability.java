@@ -0,0 +1,85 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2ab.IndexedMinPQ;
+
+import java.util.Arrays;
+
+/**
+ * The vertices of an IndexedAStarGraph reachable from a source vertex within a
+ * distance budget, found by Dijkstra's algorithm cut off at the budget. The
+ * search runs in a pooled SearchWorkspace, so it allocates little more than
+ * the list of vertices it reaches.
+ *
+ * @author Rui Gao
+ */
+public class Reachability {
+    private final int[] vertices;
+    private final double[] distances;
+
+    private Reachability(int[] vertices, double[] distances) {
+        this.vertices = vertices;
+        this.distances = distances;
+    }
+
+    /**
+     * Returns the vertices of G whose shortest distance from the vertex with index SOURCE
+     * is at most BUDGET. An index of -1 stands for a vertex not in G, which reaches nothing.
+     */
+    public static Reachability within(IndexedAStarGraph<?> g, int source, double budget) {
+        int[] vertices = new int[16];
+        double[] distances = new double[16];
+        int size = 0;
+        if (source < 0 || budget < 0) {
+            return new Reachability(new int[0], new double[0]);
+        }
+        SearchWorkspace ws = SearchWorkspace.acquire(g.numVertices());
+        try {
+            IndexedMinPQ fringe = ws.fringe();
+            ws.reach(source, 0.0, -1);
+            fringe.add(source, 0.0);
+            while (fringe.size() > 0 && fringe.getSmallestPriority() <= budget) {
+                int p = fringe.removeSmallest();
+                double dist = ws.dist(p);
+                if (size == vertices.length) {
+                    vertices = Arrays.copyOf(vertices, size * 2);
+                    distances = Arrays.copyOf(distances, size * 2);
+                }
+                vertices[size] = p;
+                distances[size] = dist;
+                size += 1;
+                for (int e = g.firstEdge(p); e < g.lastEdge(p); e++) {
+                    int q = g.edgeTarget(e);
+                    double newDist = dist + g.edgeWeight(e);
+                    /* Vertices past the budget are never settled, so they need not be queued. */
+                    if (newDist > budget || newDist >= ws.dist(q)) {
+                        continue;
+                    }
+                    ws.reach(q, newDist, p);
+                    if (fringe.contains(q)) {
+                        fringe.changePriority(q, newDist);
+                    } else {
+                        fringe.add(q, newDist);
+                    }
+                }
+            }
+        } finally {
+            ws.release();
+        }
+        return new Reachability(Arrays.copyOf(vertices, size), Arrays.copyOf(distances, size));
+    }
+
+    /** Returns the number of vertices reached. */
+    public int size() {
+        return vertices.length;
+    }
+
+    /** Returns the index of the Ith vertex reached, in order of increasing distance. */
+    public int vertex(int i) {
+        return vertices[i];
+    }
+
+    /** Returns the shortest distance from the source to the Ith vertex reached. */
+    public double distance(int i) {
+        return distances[i];
+    }
+}
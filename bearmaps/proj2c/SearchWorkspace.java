@@ -0,0 +1,112 @@
+package bearmaps.proj2c;
+
+import bearmaps.proj2ab.IndexedMinPQ;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The per-vertex state of one search direction: the distance to each vertex,
+ * the edge or vertex it was reached by, and the fringe. The state is kept in
+ * dense arrays indexed by vertex that are reused from one search to the next.
+ * Each vertex is stamped with the search that last reached it, so that
+ * starting a new search only bumps the current stamp instead of clearing
+ * every array. Workspaces are pooled per thread: a search acquires the ones it
+ * needs and releases them when done, typically in a finally block. Each pool
+ * keeps at most MAX_POOLED_PER_THREAD workspaces, enough for the two
+ * directions of a bidirectional search, and releasing any more drops them for
+ * the garbage collector. Each workspace is sized to the whole graph, so the
+ * pools retain at most that many graph-sized workspaces per thread that has
+ * searched.
+ *
+ * @author Rui Gao
+ */
+public final class SearchWorkspace {
+    /** The most workspaces kept in each thread's pool once released. */
+    public static final int MAX_POOLED_PER_THREAD = 2;
+
+    private static final ThreadLocal<ArrayDeque<SearchWorkspace>> POOL =
+            ThreadLocal.withInitial(ArrayDeque::new);
+
+    private double[] dist;
+    private int[] parent;
+    private int[] stamp;
+    private int epoch;
+    private final IndexedMinPQ fringe;
+
+    private SearchWorkspace(int numVertices) {
+        dist = new double[numVertices];
+        parent = new int[numVertices];
+        stamp = new int[numVertices];
+        epoch = 0;
+        fringe = new IndexedMinPQ(numVertices);
+    }
+
+    /**
+     * Returns a workspace of this thread's pool, or a new one if all are in use, with room
+     * for NUMVERTICES vertices, no vertex reached and an empty fringe.
+     */
+    public static SearchWorkspace acquire(int numVertices) {
+        SearchWorkspace ws = POOL.get().pollFirst();
+        if (ws == null) {
+            ws = new SearchWorkspace(numVertices);
+        }
+        ws.reset(numVertices);
+        return ws;
+    }
+
+    /**
+     * Returns this workspace to the pool of the current thread, or drops it if the pool
+     * is full. It must not be used after.
+     */
+    public void release() {
+        ArrayDeque<SearchWorkspace> pool = POOL.get();
+        if (pool.size() < MAX_POOLED_PER_THREAD) {
+            pool.addFirst(this);
+        }
+    }
+
+    private void reset(int numVertices) {
+        if (numVertices > stamp.length) {
+            dist = new double[numVertices];
+            parent = new int[numVertices];
+            stamp = new int[numVertices];
+            epoch = 0;
+        }
+        fringe.ensureCapacity(numVertices);
+        fringe.clear();
+        epoch += 1;
+        /* After 2^32 searches the stamps wrap around, and old ones could be mistaken for new. */
+        if (epoch == 0) {
+            Arrays.fill(stamp, 0);
+            epoch = 1;
+        }
+    }
+
+    /** Returns true if V has been reached by the current search. */
+    public boolean reached(int v) {
+        return stamp[v] == epoch;
+    }
+
+    /** Returns the distance V has been reached with, or infinity if it has not been. */
+    public double dist(int v) {
+        return stamp[v] == epoch ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the edge or vertex V has been reached by, as given to reach. */
+    public int parent(int v) {
+        return parent[v];
+    }
+
+    /** Records that V has been reached with distance DIST by PARENT. */
+    public void reach(int v, double dist, int parent) {
+        this.dist[v] = dist;
+        this.parent[v] = parent;
+        stamp[v] = epoch;
+    }
+
+    /** Returns the fringe of the current search. */
+    public IndexedMinPQ fringe() {
+        return fringe;
+    }
+}
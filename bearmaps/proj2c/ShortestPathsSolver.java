@@ -12,4 +12,12 @@ public interface ShortestPathsSolver<Vertex> {
     double solutionWeight();
     int numStatesExplored();
     double explorationTime();
+
+    /**
+     * Returns a factor that the solution's weight is guaranteed to be within of the
+     * shortest path's. Exact solvers return 1.
+     */
+    default double suboptimalityBound() {
+        return 1.0;
+    }
 }
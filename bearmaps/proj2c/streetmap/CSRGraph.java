@@ -0,0 +1,306 @@
+package bearmaps.proj2c.streetmap;
+
+import bearmaps.proj2ab.HilbertCurve;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An immutable compressed sparse row (CSR) store of a street graph.
+ * Vertices are numbered densely in the order a Hilbert curve visits them, so
+ * that vertices near each other on the map are mostly near each other in
+ * memory, and the OSM ids are kept sorted alongside with the index of each
+ * for lookups. The outgoing edges of vertex v occupy the range
+ * [offsets[v], offsets[v + 1])
+ * of the parallel edge arrays. Way names are interned into a single table.
+ * The transpose is kept alongside, so the incoming edges of v occupy
+ * [inOffsets[v], inOffsets[v + 1]) of the incoming edge arrays.
+ * Each vertex also has its position as a unit vector from the centre of the
+ * earth, so great-circle distances between vertices need no trigonometry.
+ *
+ * @author Rui Gao
+ */
+public final class CSRGraph {
+    /** The radius of the earth in miles. */
+    public static final double EARTH_RADIUS = 3963;
+
+    private final long[] ids;
+    private final double[] lons;
+    private final double[] lats;
+    private final String[] names;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final int[] wayNameIndices;
+    private final String[] wayNames;
+    private final int[] inOffsets;
+    private final int[] inSources;
+    private final double[] inWeights;
+    private final double[] unitX;
+    private final double[] unitY;
+    private final double[] unitZ;
+    /* The ids in increasing order, and the index of the vertex with each. */
+    private final long[] sortedIds;
+    private final int[] sortedIndices;
+
+    public CSRGraph(long[] ids, double[] lons, double[] lats, String[] names, int[] offsets,
+                    int[] targets, double[] weights, int[] wayNameIndices, String[] wayNames) {
+        this(ids, lons, lats, names, offsets, targets, weights, wayNameIndices, wayNames,
+                unitVectors(lons, lats));
+    }
+
+    /* Creates the graph given the unit vectors of its vertices, {x, y, z} by index. */
+    private CSRGraph(long[] ids, double[] lons, double[] lats, String[] names, int[] offsets,
+                     int[] targets, double[] weights, int[] wayNameIndices, String[] wayNames,
+                     double[][] unit) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.wayNameIndices = wayNameIndices;
+        this.wayNames = wayNames;
+
+        int n = ids.length;
+        sortedIds = ids.clone();
+        Arrays.sort(sortedIds);
+        sortedIndices = new int[n];
+        for (int v = 0; v < n; v++) {
+            sortedIndices[Arrays.binarySearch(sortedIds, ids[v])] = v;
+        }
+        unitX = unit[0];
+        unitY = unit[1];
+        unitZ = unit[2];
+        inOffsets = new int[n + 1];
+        inSources = new int[targets.length];
+        inWeights = new double[targets.length];
+        for (int target : targets) {
+            inOffsets[target + 1] += 1;
+        }
+        for (int v = 0; v < n; v++) {
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        int[] next = Arrays.copyOf(inOffsets, n);
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int in = next[targets[e]];
+                inSources[in] = v;
+                inWeights[in] = weights[e];
+                next[targets[e]] += 1;
+            }
+        }
+    }
+
+    /**
+     * Compacts a street graph into a CSRGraph, weighing each edge by the great-circle
+     * distance between its ends. Node i has OSM id IDS[i], which must be increasing, and
+     * is at (LONS[i], LATS[i]) with the given NAMES[i], which may be null. Edge e leads
+     * from node SOURCES[e] to node TARGETS[e] along the way named
+     * WAYNAMES[WAYNAMEINDICES[e]]. The outgoing edges of each vertex are ordered by the
+     * OSM ids of their targets.
+     */
+    static CSRGraph of(long[] ids, double[] lons, double[] lats, String[] names,
+                       int[] sources, int[] targets, int[] wayNameIndices, String[] wayNames) {
+        int n = ids.length;
+        int m = sources.length;
+        /* Vertex v is node order[v], and node i is vertex indexOfNode[i]. */
+        int[] order = HilbertCurve.order(lons, lats);
+        int[] indexOfNode = new int[n];
+        long[] vertexIds = new long[n];
+        double[] vertexLons = new double[n];
+        double[] vertexLats = new double[n];
+        String[] vertexNames = new String[n];
+        for (int v = 0; v < n; v++) {
+            indexOfNode[order[v]] = v;
+            vertexIds[v] = ids[order[v]];
+            vertexLons[v] = lons[order[v]];
+            vertexLats[v] = lats[order[v]];
+            vertexNames[v] = names[order[v]];
+        }
+
+        /* Counting sorts by target node, then stably by source vertex, so each vertex's
+         * edges are ordered by the ids of their targets. */
+        int[] byTarget = countingSort(n, identity(m), i -> targets[i]);
+        int[] bySource = countingSort(n, byTarget, i -> indexOfNode[sources[i]]);
+        int[] offsets = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            offsets[indexOfNode[sources[e]] + 1] += 1;
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] edgeTargets = new int[m];
+        int[] edgeWayNames = new int[m];
+        for (int e = 0; e < m; e++) {
+            edgeTargets[e] = indexOfNode[targets[bySource[e]]];
+            edgeWayNames[e] = wayNameIndices[bySource[e]];
+        }
+
+        double[][] unit = unitVectors(vertexLons, vertexLats);
+        double[] weights = new double[m];
+        for (int v = 0; v < n; v++) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                weights[e] = arcLength(chord(unit[0], unit[1], unit[2], v, edgeTargets[e]));
+            }
+        }
+        return new CSRGraph(vertexIds, vertexLons, vertexLats, vertexNames, offsets,
+                edgeTargets, weights, edgeWayNames, wayNames, unit);
+    }
+
+    /* Returns the unit vectors from the centre of the earth to the points at (LONS[i],
+     * LATS[i]), as the arrays {x, y, z} of their coordinates. */
+    private static double[][] unitVectors(double[] lons, double[] lats) {
+        int n = lons.length;
+        double[][] unit = new double[3][n];
+        for (int v = 0; v < n; v++) {
+            double phi = Math.toRadians(lats[v]);
+            double lambda = Math.toRadians(lons[v]);
+            unit[0][v] = Math.cos(phi) * Math.cos(lambda);
+            unit[1][v] = Math.cos(phi) * Math.sin(lambda);
+            unit[2][v] = Math.sin(phi);
+        }
+        return unit;
+    }
+
+    /* Returns the length of the chord between the unit vectors at V and W of X, Y and Z. */
+    private static double chord(double[] x, double[] y, double[] z, int v, int w) {
+        double dx = x[v] - x[w];
+        double dy = y[v] - y[w];
+        double dz = z[v] - z[w];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /* Returns the great-circle distance in miles spanned by a chord of the unit sphere. */
+    private static double arcLength(double chord) {
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1.0, chord / 2));
+    }
+
+    private static int[] identity(int m) {
+        int[] result = new int[m];
+        for (int i = 0; i < m; i++) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /* Returns ITEMS stably sorted by KEY, each of which is from 0 to N - 1. */
+    private static int[] countingSort(int n, int[] items, IntUnaryOperator key) {
+        int[] starts = new int[n + 1];
+        for (int item : items) {
+            starts[key.applyAsInt(item) + 1] += 1;
+        }
+        for (int k = 0; k < n; k++) {
+            starts[k + 1] += starts[k];
+        }
+        int[] sorted = new int[items.length];
+        for (int item : items) {
+            int k = key.applyAsInt(item);
+            sorted[starts[k]] = item;
+            starts[k] += 1;
+        }
+        return sorted;
+    }
+
+    public int numVertices() {
+        return ids.length;
+    }
+
+    public int numEdges() {
+        return targets.length;
+    }
+
+    /** Returns the index of the vertex with OSM id ID, or -1 if there is none. */
+    public int indexOf(long id) {
+        int i = Arrays.binarySearch(sortedIds, id);
+        return i < 0 ? -1 : sortedIndices[i];
+    }
+
+    public long id(int v) {
+        return ids[v];
+    }
+
+    public double lon(int v) {
+        return lons[v];
+    }
+
+    public double lat(int v) {
+        return lats[v];
+    }
+
+    public String name(int v) {
+        return names[v];
+    }
+
+    /* Returns the length of the chord between vertices V and W on the unit sphere. */
+    private double chord(int v, int w) {
+        return chord(unitX, unitY, unitZ, v, w);
+    }
+
+    /** Returns the great-circle distance in miles between vertices V and W. */
+    public double distance(int v, int w) {
+        return arcLength(chord(v, w));
+    }
+
+    /**
+     * Returns a lower bound on the great-circle distance in miles between vertices V and
+     * W, without trigonometry. The angle between them is 2 asin(c / 2) for a chord of
+     * length c, and asin(x) >= x + x^3 / 6, so the angle is at least c + c^3 / 24. The
+     * bound is within a billionth of the distance for vertices up to 100 miles apart.
+     */
+    public double distanceLowerBound(int v, int w) {
+        double c = chord(v, w);
+        return EARTH_RADIUS * c * (1 + c * c / 24);
+    }
+
+    public int firstEdge(int v) {
+        return offsets[v];
+    }
+
+    public int lastEdge(int v) {
+        return offsets[v + 1];
+    }
+
+    public int edgeTarget(int e) {
+        return targets[e];
+    }
+
+    public double edgeWeight(int e) {
+        return weights[e];
+    }
+
+    public int firstInEdge(int v) {
+        return inOffsets[v];
+    }
+
+    public int lastInEdge(int v) {
+        return inOffsets[v + 1];
+    }
+
+    public int inEdgeSource(int e) {
+        return inSources[e];
+    }
+
+    public double inEdgeWeight(int e) {
+        return inWeights[e];
+    }
+
+    public String wayName(int e) {
+        return wayNames[wayNameIndices[e]];
+    }
+
+    /** Returns the index of the name of edge E in the interned way name table. */
+    public int wayNameIndex(int e) {
+        return wayNameIndices[e];
+    }
+
+    public int numWayNames() {
+        return wayNames.length;
+    }
+
+    /** Returns the way name at index I of the interned way name table. */
+    public String wayNameAt(int i) {
+        return wayNames[i];
+    }
+}
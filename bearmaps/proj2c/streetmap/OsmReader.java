@@ -0,0 +1,557 @@
+package bearmaps.proj2c.streetmap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the roads of an OSM XML file into a CSRGraph in two streaming passes.
+ * The first pass keeps the ways tagged with an allowed highway type, and the
+ * second keeps only the nodes those ways pass through, along with any named
+ * nodes, so the coordinates of all other nodes are never even parsed. Each
+ * pass decodes the XML on its own thread with a StAX reader and hands the
+ * elements it keeps, in batches of primitive arrays, to the calling thread,
+ * which assembles them while the next batch is decoded.
+ * See OSM documentation on
+ * <a href="http://wiki.openstreetmap.org/wiki/Key:highway">the highway tag</a>,
+ * <a href="http://wiki.openstreetmap.org/wiki/Way">the way XML element</a> and
+ * <a href="http://wiki.openstreetmap.org/wiki/Node">the node XML element</a>.
+ *
+ * As OSM files list all their nodes before their ways, the second pass stops
+ * at the first way.
+ *
+ * @author Rui Gao
+ */
+public class OsmReader {
+    /**
+     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
+     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
+     * roads, but in practice we walk all over them with such impunity that we forget cars can
+     * actually drive on them.
+     */
+    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
+            ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
+                    "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
+                    "secondary_link", "tertiary_link"));
+    /** The number of elements handed over at a time. */
+    private static final int BATCH_SIZE = 4096;
+    /** The number of decoded batches that may wait to be assembled. */
+    private static final int QUEUE_CAPACITY = 16;
+    /** How often a pass reports its progress, in seconds. */
+    private static final double REPORT_INTERVAL = 1.0;
+
+    /** Receives the progress of each pass while a file is read. */
+    public interface Progress {
+        /** Reports nothing. */
+        Progress NONE = (pass, bytes, elements, seconds, done) -> { };
+
+        /**
+         * Reports that PASS, "ways" or "nodes", has read BYTES of the file and kept
+         * ELEMENTS of them in SECONDS so far, and whether it is DONE.
+         */
+        void report(String pass, long bytes, long elements, double seconds, boolean done);
+
+        /** Returns a Progress that prints a line with the throughput to OUT. */
+        static Progress printingTo(PrintStream out) {
+            return (pass, bytes, elements, seconds, done) -> out.printf(
+                    "%s %s: %.1f MB read, %d kept in %.1f s (%.1f MB/s)%n",
+                    done ? "Read" : "Reading", pass, bytes / 1e6, elements, seconds,
+                    seconds > 0 ? bytes / 1e6 / seconds : 0.0);
+        }
+    }
+
+    private OsmReader() {
+    }
+
+    /**
+     * Reads the OSM XML file at classpath location FILENAME into a CSRGraph, reporting
+     * to PROGRESS. Throws an IllegalArgumentException if there is no such file or it
+     * cannot be parsed.
+     */
+    public static CSRGraph read(String filename, Progress progress) {
+        Ways ways = new Ways();
+        new Pass<WayBatch>("ways", filename, progress) {
+            @Override
+            void decode(XMLStreamReader xml, Decoder<WayBatch> out)
+                    throws XMLStreamException, InterruptedException {
+                decodeWays(xml, out);
+            }
+
+            @Override
+            void assemble(WayBatch batch) {
+                ways.add(batch);
+            }
+        }.run();
+
+        long[] referenced = ways.referencedIds();
+        Nodes nodes = new Nodes();
+        new Pass<NodeBatch>("nodes", filename, progress) {
+            @Override
+            void decode(XMLStreamReader xml, Decoder<NodeBatch> out)
+                    throws XMLStreamException, InterruptedException {
+                decodeNodes(xml, referenced, out);
+            }
+
+            @Override
+            void assemble(NodeBatch batch) {
+                nodes.add(batch);
+            }
+        }.run();
+        return assemble(ways, nodes);
+    }
+
+    /* The ways kept so far: the ids of the nodes along way w are
+     * refs[wayStarts[w]..wayStarts[w + 1]), and its name is wayNames[wayNameIndices[w]]. */
+    private static class Ways {
+        private long[] refs = new long[BATCH_SIZE];
+        private int numRefs = 0;
+        private int[] wayStarts = new int[BATCH_SIZE + 1];
+        private int[] wayNameIndices = new int[BATCH_SIZE];
+        private int numWays = 0;
+        private final Map<String, Integer> wayNameTable = new HashMap<>();
+        private final List<String> wayNames = new ArrayList<>();
+
+        void add(WayBatch batch) {
+            for (int i = 0; i < batch.size; i++) {
+                int start = batch.starts[i];
+                int length = batch.starts[i + 1] - start;
+                if (numRefs + length > refs.length) {
+                    refs = Arrays.copyOf(refs, Math.max(2 * refs.length, numRefs + length));
+                }
+                System.arraycopy(batch.refs, start, refs, numRefs, length);
+                numRefs += length;
+                if (numWays + 1 >= wayNameIndices.length) {
+                    wayNameIndices = Arrays.copyOf(wayNameIndices, 2 * wayNameIndices.length);
+                    wayStarts = Arrays.copyOf(wayStarts, 2 * wayStarts.length);
+                }
+                Integer nameIndex = wayNameTable.get(batch.names[i]);
+                if (nameIndex == null) {
+                    nameIndex = wayNames.size();
+                    wayNameTable.put(batch.names[i], nameIndex);
+                    wayNames.add(batch.names[i]);
+                }
+                wayNameIndices[numWays] = nameIndex;
+                numWays += 1;
+                wayStarts[numWays] = numRefs;
+            }
+        }
+
+        /* Returns the ids of the nodes the ways pass through, sorted without duplicates. */
+        long[] referencedIds() {
+            long[] ids = Arrays.copyOf(refs, numRefs);
+            Arrays.sort(ids);
+            return unique(ids, ids.length);
+        }
+    }
+
+    /* The nodes kept so far, in the order they were read. */
+    private static class Nodes {
+        private long[] ids = new long[BATCH_SIZE];
+        private double[] lons = new double[BATCH_SIZE];
+        private double[] lats = new double[BATCH_SIZE];
+        private String[] names = new String[BATCH_SIZE];
+        private int size = 0;
+
+        void add(NodeBatch batch) {
+            if (size + batch.size > ids.length) {
+                int capacity = Math.max(2 * ids.length, size + batch.size);
+                ids = Arrays.copyOf(ids, capacity);
+                lons = Arrays.copyOf(lons, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            System.arraycopy(batch.ids, 0, ids, size, batch.size);
+            System.arraycopy(batch.lons, 0, lons, size, batch.size);
+            System.arraycopy(batch.lats, 0, lats, size, batch.size);
+            System.arraycopy(batch.names, 0, names, size, batch.size);
+            size += batch.size;
+        }
+    }
+
+    /* A batch of decoded ways: the node ids along way i are refs[starts[i]..starts[i + 1]),
+     * and those of the way being decoded follow from starts[size] to numRefs. */
+    private static class WayBatch {
+        private long[] refs = new long[8 * BATCH_SIZE];
+        private int numRefs = 0;
+        private final int[] starts = new int[BATCH_SIZE + 1];
+        private final String[] names = new String[BATCH_SIZE];
+        private int size = 0;
+
+        boolean isFull() {
+            return size == BATCH_SIZE;
+        }
+    }
+
+    /* A batch of decoded nodes, in parallel arrays. */
+    private static class NodeBatch {
+        private final long[] ids = new long[BATCH_SIZE];
+        private final double[] lons = new double[BATCH_SIZE];
+        private final double[] lats = new double[BATCH_SIZE];
+        private final String[] names = new String[BATCH_SIZE];
+        private int size = 0;
+
+        boolean isFull() {
+            return size == BATCH_SIZE;
+        }
+    }
+
+    /* Decodes the allowed ways in XML into batches for OUT. */
+    private static void decodeWays(XMLStreamReader xml, Decoder<WayBatch> out)
+            throws XMLStreamException, InterruptedException {
+        WayBatch batch = new WayBatch();
+        boolean inWay = false;
+        boolean allowed = false;
+        String name = "";
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = xml.getLocalName();
+                if (element.equals("way")) {
+                    inWay = true;
+                    allowed = false;
+                    name = "";
+                } else if (inWay && element.equals("nd")) {
+                    if (batch.numRefs == batch.refs.length) {
+                        batch.refs = Arrays.copyOf(batch.refs, 2 * batch.numRefs);
+                    }
+                    batch.refs[batch.numRefs] = Long.parseLong(attribute(xml, "ref"));
+                    batch.numRefs += 1;
+                } else if (inWay && element.equals("tag")) {
+                    String k = attribute(xml, "k");
+                    if ("highway".equals(k)) {
+                        allowed = ALLOWED_HIGHWAY_TYPES.contains(attribute(xml, "v"));
+                    } else if ("name".equals(k)) {
+                        name = attribute(xml, "v");
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && inWay
+                    && xml.getLocalName().equals("way")) {
+                inWay = false;
+                if (!allowed) {
+                    batch.numRefs = batch.starts[batch.size];
+                    continue;
+                }
+                batch.names[batch.size] = name;
+                batch.size += 1;
+                batch.starts[batch.size] = batch.numRefs;
+                if (batch.isFull()) {
+                    out.emit(batch, batch.size);
+                    batch = new WayBatch();
+                }
+            }
+        }
+        out.emit(batch, batch.size);
+    }
+
+    /* Decodes the nodes in XML that are in REFERENCED or named into batches for OUT,
+     * until the first way. */
+    private static void decodeNodes(XMLStreamReader xml, long[] referenced,
+                                       Decoder<NodeBatch> out)
+            throws XMLStreamException, InterruptedException {
+        NodeBatch batch = new NodeBatch();
+        /* The node being read, and whether a way passes through it. */
+        long id = 0;
+        boolean inNode = false;
+        boolean isReferenced = false;
+        String lon = null;
+        String lat = null;
+        String name = null;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String element = xml.getLocalName();
+                if (element.equals("node")) {
+                    inNode = true;
+                    id = Long.parseLong(attribute(xml, "id"));
+                    isReferenced = Arrays.binarySearch(referenced, id) >= 0;
+                    lon = attribute(xml, "lon");
+                    lat = attribute(xml, "lat");
+                    name = null;
+                } else if (inNode && element.equals("tag")
+                        && "name".equals(attribute(xml, "k"))) {
+                    name = attribute(xml, "v");
+                } else if (element.equals("way") || element.equals("relation")) {
+                    break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && inNode
+                    && xml.getLocalName().equals("node")) {
+                inNode = false;
+                if (!isReferenced && name == null) {
+                    continue;
+                }
+                batch.ids[batch.size] = id;
+                batch.lons[batch.size] = Double.parseDouble(lon);
+                batch.lats[batch.size] = Double.parseDouble(lat);
+                batch.names[batch.size] = name;
+                batch.size += 1;
+                if (batch.isFull()) {
+                    out.emit(batch, batch.size);
+                    batch = new NodeBatch();
+                }
+            }
+        }
+        out.emit(batch, batch.size);
+    }
+
+    /* Returns the value of the attribute of the current element of XML named NAME. */
+    private static String attribute(XMLStreamReader xml, String name) {
+        return xml.getAttributeValue(null, name);
+    }
+
+    /* Joins the kept nodes by the edges along the kept ways, in both directions, and drops
+     * the nodes left with no edges and no name. */
+    private static CSRGraph assemble(Ways ways, Nodes nodes) {
+        /* Positions in the sorted ids of the nodes, keeping the first of any repeated id. */
+        long[] ids = unique(sortedCopy(nodes.ids, nodes.size), nodes.size);
+        int n = ids.length;
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        String[] names = new String[n];
+        boolean[] filled = new boolean[n];
+        for (int i = 0; i < nodes.size; i++) {
+            int v = Arrays.binarySearch(ids, nodes.ids[i]);
+            if (!filled[v]) {
+                filled[v] = true;
+                lons[v] = nodes.lons[i];
+                lats[v] = nodes.lats[i];
+                names[v] = nodes.names[i];
+            }
+        }
+
+        int[] position = new int[ways.numRefs];
+        for (int i = 0; i < ways.numRefs; i++) {
+            position[i] = Arrays.binarySearch(ids, ways.refs[i]);
+        }
+        int m = 0;
+        for (int w = 0; w < ways.numWays; w++) {
+            for (int i = ways.wayStarts[w]; i + 1 < ways.wayStarts[w + 1]; i++) {
+                if (position[i] >= 0 && position[i + 1] >= 0) {
+                    m += 2;
+                }
+            }
+        }
+        int[] sources = new int[m];
+        int[] targets = new int[m];
+        int[] wayNameIndices = new int[m];
+        boolean[] hasEdge = new boolean[n];
+        int e = 0;
+        for (int w = 0; w < ways.numWays; w++) {
+            for (int i = ways.wayStarts[w]; i + 1 < ways.wayStarts[w + 1]; i++) {
+                int from = position[i];
+                int to = position[i + 1];
+                if (from < 0 || to < 0) {
+                    continue;
+                }
+                sources[e] = from;
+                targets[e] = to;
+                sources[e + 1] = to;
+                targets[e + 1] = from;
+                wayNameIndices[e] = ways.wayNameIndices[w];
+                wayNameIndices[e + 1] = ways.wayNameIndices[w];
+                hasEdge[from] = true;
+                hasEdge[to] = true;
+                e += 2;
+            }
+        }
+
+        int[] kept = new int[n];
+        int numKept = 0;
+        for (int v = 0; v < n; v++) {
+            if (hasEdge[v] || names[v] != null) {
+                kept[v] = numKept;
+                ids[numKept] = ids[v];
+                lons[numKept] = lons[v];
+                lats[numKept] = lats[v];
+                names[numKept] = names[v];
+                numKept += 1;
+            }
+        }
+        for (e = 0; e < m; e++) {
+            sources[e] = kept[sources[e]];
+            targets[e] = kept[targets[e]];
+        }
+        return CSRGraph.of(Arrays.copyOf(ids, numKept), Arrays.copyOf(lons, numKept),
+                Arrays.copyOf(lats, numKept), Arrays.copyOf(names, numKept), sources, targets,
+                wayNameIndices, ways.wayNames.toArray(new String[0]));
+    }
+
+    private static long[] sortedCopy(long[] values, int length) {
+        long[] copy = Arrays.copyOf(values, length);
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    /* Returns the distinct values among the first LENGTH of SORTED. */
+    private static long[] unique(long[] sorted, int length) {
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            if (size == 0 || sorted[i] != sorted[size - 1]) {
+                sorted[size] = sorted[i];
+                size += 1;
+            }
+        }
+        return Arrays.copyOf(sorted, size);
+    }
+
+    /* Hands decoded batches from a pass's decoding thread to the thread assembling them,
+     * counting the elements kept. */
+    private static class Decoder<B> {
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        /* Written by the decoding thread only, and read for progress reports. */
+        private volatile long elements = 0;
+
+        void emit(B batch, int size) throws InterruptedException {
+            elements += size;
+            queue.put(batch);
+        }
+    }
+
+    /* The end of a pass, with the exception that ended it, if any. */
+    private static class Done {
+        private final Exception error;
+
+        Done(Exception error) {
+            this.error = error;
+        }
+    }
+
+    /* One streaming pass over a file: decode runs on its own thread, and assemble is called
+     * on the thread running the pass with each batch in order. */
+    private abstract static class Pass<B> {
+        private final String name;
+        private final String filename;
+        private final Progress progress;
+
+        Pass(String name, String filename, Progress progress) {
+            this.name = name;
+            this.filename = filename;
+            this.progress = progress;
+        }
+
+        abstract void decode(XMLStreamReader xml, Decoder<B> out)
+                throws XMLStreamException, InterruptedException;
+
+        abstract void assemble(B batch);
+
+        @SuppressWarnings("unchecked")
+        void run() {
+            InputStream resource = Thread.currentThread().getContextClassLoader()
+                    .getResourceAsStream(filename);
+            if (resource == null) {
+                throw new IllegalArgumentException("No OSM file at " + filename + ".");
+            }
+            CountingInputStream in = new CountingInputStream(resource);
+            Decoder<B> out = new Decoder<>();
+            Thread decoder = new Thread(() -> {
+                Exception error = null;
+                XMLStreamReader xml = null;
+                try {
+                    XMLInputFactory factory = XMLInputFactory.newInstance();
+                    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                    xml = factory.createXMLStreamReader(in);
+                    decode(xml, out);
+                } catch (XMLStreamException | RuntimeException e) {
+                    error = e;
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    try {
+                        if (xml != null) {
+                            xml.close();
+                        }
+                        in.close();
+                    } catch (XMLStreamException | IOException e) {
+                        error = error == null ? e : error;
+                    }
+                }
+                try {
+                    out.queue.put(new Done(error));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "osm-" + name);
+            decoder.setDaemon(true);
+            long start = System.nanoTime();
+            long lastReport = start;
+            decoder.start();
+            try {
+                while (true) {
+                    Object next = out.queue.take();
+                    if (next instanceof Done) {
+                        Exception error = ((Done) next).error;
+                        if (error != null) {
+                            throw new IllegalArgumentException("Could not read the OSM file "
+                                    + filename + ".", error);
+                        }
+                        break;
+                    }
+                    assemble((B) next);
+                    long now = System.nanoTime();
+                    if ((now - lastReport) / 1e9 >= REPORT_INTERVAL) {
+                        progress.report(name, in.count(), out.elements, (now - start) / 1e9,
+                                false);
+                        lastReport = now;
+                    }
+                }
+            } catch (InterruptedException e) {
+                decoder.interrupt();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading " + filename + ".");
+            }
+            progress.report(name, in.count(), out.elements,
+                    (System.nanoTime() - start) / 1e9, true);
+        }
+    }
+
+    /* Counts the bytes read through it, for progress reports from another thread. */
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count += 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -1,28 +1,30 @@
 package bearmaps.proj2c.streetmap;
 
-import bearmaps.proj2c.AStarGraph;
+import bearmaps.proj2c.IndexedAStarGraph;
 import bearmaps.proj2c.WeightedEdge;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+
 import java.util.*;
 
-public class StreetMapGraph implements AStarGraph<Long> {
-    private Map<Long, Node> nodes = new HashMap<>();
-    private Map<Long, Set<WeightedEdge<Long>>> neighbors = new HashMap<>();
+public class StreetMapGraph implements IndexedAStarGraph<Long> {
+    private final CSRGraph csr;
 
-    private StreetMapGraph() {
+    public StreetMapGraph(String filename) {
+        this(filename, OsmReader.Progress.NONE);
     }
 
-    public StreetMapGraph(String filename) {
-        StreetMapGraph smg = StreetMapGraph.readFromXML(filename);
-        this.nodes = smg.nodes;
-        this.neighbors = smg.neighbors;
+    /** Reads the graph from the OSM XML file FILENAME, reporting to PROGRESS meanwhile. */
+    public StreetMapGraph(String filename, OsmReader.Progress progress) {
+        this(OsmReader.read(filename, progress));
+    }
+
+    /** Creates a graph over an already compacted CSR. */
+    protected StreetMapGraph(CSRGraph csr) {
+        this.csr = csr;
+    }
+
+    /** Returns the compact store backing this graph. */
+    public CSRGraph csr() {
+        return csr;
     }
 
     /**
@@ -31,101 +33,102 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     @Override
     public List<WeightedEdge<Long>> neighbors(Long v) {
-        Set<WeightedEdge<Long>> incidentSet = neighbors.get(v);
-        List<WeightedEdge<Long>> incidentList = new ArrayList<>();
-        for (WeightedEdge<Long> e : incidentSet) {
-            incidentList.add(e);
+        int i = csr.indexOf(v);
+        List<WeightedEdge<Long>> incidentList = new ArrayList<>(csr.lastEdge(i) - csr.firstEdge(i));
+        for (int e = csr.firstEdge(i); e < csr.lastEdge(i); e++) {
+            WeightedEdge<Long> weightedEdge = new WeightedEdge<>(v, csr.id(csr.edgeTarget(e)),
+                    csr.edgeWeight(e));
+            weightedEdge.setName(csr.wayName(e));
+            incidentList.add(weightedEdge);
         }
 
         return incidentList;
     }
 
     /**
-     * Returns the great-circle distance between S and GOAL. Assumes
-     * S and GOAL exist in this graph.
+     * Returns a lower bound on the great-circle distance between S and GOAL.
+     * Assumes S and GOAL exist in this graph.
      */
     @Override
     public double estimatedDistanceToGoal(Long s, Long goal) {
-        Node sNode = nodes.get(s);
-        Node goalNode = nodes.get(goal);
-        return distance(sNode.lon(), goalNode.lon(), sNode.lat(), goalNode.lat());
+        return estimatedDistanceToGoal(csr.indexOf(s), csr.indexOf(goal));
     }
 
-    /**
-     * Returns a set of my vertices. Altering this set does not alter this
-     * graph.
-     **/
-    private Set<Long> vertices() {
-        Set<Long> vertices = new HashSet<>();
-        for (long id : nodes.keySet()) {
-            vertices.add(id);
-        }
+    @Override
+    public int numVertices() {
+        return csr.numVertices();
+    }
 
-        return vertices;
+    @Override
+    public int indexOf(Long v) {
+        return csr.indexOf(v);
     }
 
-    /**
-     * Factory method. Creates and returns a graph from an OSM XML
-     * file. Assumes file is correctly formatted.
-     */
-    private static StreetMapGraph readFromXML(String filename) {
-        StreetMapGraph smg = new StreetMapGraph();
-        try {
-            //File inputFile = new File(filename);
-            //FileInputStream inputStream = new FileInputStream(inputFile);
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(smg);
-            //saxParser.parse(inputStream, gbh);
-            saxParser.parse(Thread.currentThread().getContextClassLoader().getResourceAsStream(filename), gbh);
-        } catch (ParserConfigurationException | SAXException | IOException e) {
-            e.printStackTrace();
-        }
+    @Override
+    public Long vertex(int i) {
+        return csr.id(i);
+    }
 
-        smg.clean();
-        return smg;
+    @Override
+    public int firstEdge(int v) {
+        return csr.firstEdge(v);
     }
 
-    /** Adds a node to this graph, if it doesn't yet exist. **/
-    void addNode(Node node) {
-        if (!nodes.containsKey(node.id())) {
-            nodes.put(node.id(), node);
-            neighbors.put(node.id(), new HashSet<>());
-        }
+    @Override
+    public int lastEdge(int v) {
+        return csr.lastEdge(v);
     }
 
-    /** Adds an edge to this graph, if FROMID and TOID are in this graph. Does
-     *  not add additional edge if edge already exists.
-     **/
-    void addWeightedEdge(long fromID, long toID, String name) {
-        if (nodes.containsKey(fromID) && nodes.containsKey(toID)) {
-            Node from = nodes.get(fromID);
-            Node to = nodes.get(toID);
-            double weight = distance(from.lon(), to.lon(), from.lat(), to.lat());
-
-            Set<WeightedEdge<Long>> edgeSet = neighbors.get(fromID);
-            WeightedEdge<Long> weightedEdge = new WeightedEdge<>(from.id(), to.id(), weight);
-            weightedEdge.setName(name);
-            edgeSet.add(weightedEdge);
-        }
+    @Override
+    public int edgeTarget(int e) {
+        return csr.edgeTarget(e);
+    }
+
+    @Override
+    public double edgeWeight(int e) {
+        return csr.edgeWeight(e);
+    }
+
+    @Override
+    public int firstInEdge(int v) {
+        return csr.firstInEdge(v);
+    }
+
+    @Override
+    public int lastInEdge(int v) {
+        return csr.lastInEdge(v);
+    }
+
+    @Override
+    public int inEdgeSource(int e) {
+        return csr.inEdgeSource(e);
+    }
+
+    @Override
+    public double inEdgeWeight(int e) {
+        return csr.inEdgeWeight(e);
+    }
+
+    /**
+     * Returns a lower bound on the great-circle distance between the vertices
+     * with indices S and GOAL, from their unit vectors without trigonometry.
+     */
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return csr.distanceLowerBound(s, goal);
     }
 
     /**
-     * Removes vertices with 0 out-degree from graph. Note that this will
-     * cause issues if edges are not bidirectional.
+     * Returns a set of my vertices. Altering this set does not alter this
+     * graph.
      **/
-    private void clean() {
-        List<Long> toRemove = new ArrayList<>();
-        for (long id : nodes.keySet()) {
-            if (neighbors(id).size() == 0 && nodes.get(id).name() == null) {
-                toRemove.add(id);
-            }
+    private Set<Long> vertices() {
+        Set<Long> vertices = new HashSet<>();
+        for (int i = 0; i < csr.numVertices(); i++) {
+            vertices.add(csr.id(i));
         }
 
-        for (long id : toRemove) {
-            nodes.remove(id);
-            neighbors.remove(id);
-        }
+        return vertices;
     }
 
     /**
@@ -174,34 +177,17 @@ public class StreetMapGraph implements AStarGraph<Long> {
         return true;
     }
 
-    /**
-     * Returns the great-circle (haversine) distance between geographic coordinates
-     * (LATV, LONV) and (LATW, LONW).
-     *
-     * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
-     **/
-    private double distance(double lonV, double lonW, double latV, double latW) {
-        double phi1 = Math.toRadians(latV);
-        double phi2 = Math.toRadians(latW);
-        double dphi = Math.toRadians(latW - latV);
-        double dlambda = Math.toRadians(lonW - lonV);
-
-        double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
-        a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return 3963 * c;
-    }
-
     /**
      * Gets the longitude of a vertex.
      * @param v The id of the vertex.
      * @return The longitude of the vertex.
      */
     public double lon(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = csr.indexOf(v);
+        if (i < 0) {
             return 0.0;
         }
-        return nodes.get(v).lon();
+        return csr.lon(i);
     }
 
     /**
@@ -210,10 +196,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The latitude of the vertex.
      */
     public double lat(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = csr.indexOf(v);
+        if (i < 0) {
             return 0.0;
         }
-        return nodes.get(v).lat();
+        return csr.lat(i);
     }
 
     /**
@@ -222,16 +209,19 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The name of the vertex.
      */
     public String name(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = csr.indexOf(v);
+        if (i < 0) {
             return null;
         }
-        return nodes.get(v).name();
+        return csr.name(i);
     }
 
     protected List<Node> getNodes() {
-        List<Node> nodes = new ArrayList<>();
-        for(Map.Entry<Long, Node> nodeEntry: this.nodes.entrySet()){
-            nodes.add(nodeEntry.getValue());
+        List<Node> nodes = new ArrayList<>(csr.numVertices());
+        for (int i = 0; i < csr.numVertices(); i++) {
+            Node node = Node.of(csr.id(i), csr.lat(i), csr.lon(i));
+            node.setName(csr.name(i));
+            nodes.add(node);
         }
         return nodes;
     }
@@ -1,10 +1,17 @@
 package bearmaps.proj2d;
 
 import bearmaps.proj2ab.KDTree;
-import bearmaps.proj2ab.Point;
-import bearmaps.proj2ab.PointSet;
+import bearmaps.proj2ab.Partition;
+import bearmaps.proj2c.ArcFlags;
+import bearmaps.proj2c.Components;
+import bearmaps.proj2c.ContractionHierarchy;
+import bearmaps.proj2c.CustomizableContractionHierarchy;
+import bearmaps.proj2c.HubLabels;
+import bearmaps.proj2c.Landmarks;
+import bearmaps.proj2c.streetmap.CSRGraph;
+import bearmaps.proj2c.streetmap.OsmReader;
 import bearmaps.proj2c.streetmap.StreetMapGraph;
-import bearmaps.proj2c.streetmap.Node;
+import bearmaps.proj2d.utils.Constants;
 import bearmaps.proj2d.utils.HashTrieMap;
 import bearmaps.proj2d.utils.TrieMap;
 
@@ -21,57 +28,369 @@ import java.util.*;
  * @author Alan Yao, Josh Hug, Rui Gao
  */
 public class AugmentedStreetMapGraph extends StreetMapGraph {
-    private final Map<Point, Long> pointIDMap;
-    private final PointSet pointSet;
+    private final KDTree pointSet;
     private final TrieMap<List<Map<String, Object>>> nameLocationsMap;
     private final Map<String, String> cleanFullMap;
+    private final Components components;
+    /* The hierarchy and hub labels of the edge lengths, and the hierarchy customized with
+     * a weight overlay, which is used in place of them while not null. */
+    private volatile ContractionHierarchy hierarchy;
+    private volatile ContractionHierarchy overlayHierarchy;
+    private volatile Landmarks landmarks;
+    private volatile HubLabels hubLabels;
+    private volatile ArcFlags arcFlags;
+    private volatile CustomizableContractionHierarchy customizable;
+    private final RouteCache routeCache = new RouteCache(Constants.ROUTE_CACHE_NODES);
 
     public AugmentedStreetMapGraph(String dbPath) {
-        super(dbPath);
-        List<Node> nodes = this.getNodes();
-        pointIDMap = new HashMap<>();
+        this(dbPath, OsmReader.Progress.NONE);
+    }
+
+    /** Reads the graph from the OSM XML file DBPATH, reporting to PROGRESS meanwhile. */
+    public AugmentedStreetMapGraph(String dbPath, OsmReader.Progress progress) {
+        super(dbPath, progress);
         nameLocationsMap = new HashTrieMap<>();
         cleanFullMap = new HashMap<>();
-        for (Node n : nodes) {
-            double lon = n.lon();
-            double lat = n.lat();
-            String name = n.name();
-            long id = n.id();
-            if (name == null) {
-                pointIDMap.put(new Point(lon, lat), id);
-            } else {
-                Map<String, Object> location = new HashMap<>();
-                location.put("lat", lat);
-                location.put("lon", lon);
-                location.put("name", name);
-                location.put("id", id);
-                String cleaned = cleanString(name);
-                List<Map<String, Object>> locations = nameLocationsMap.get(cleaned);
-                if (locations == null) {
-                    locations = new LinkedList<>();
-                    nameLocationsMap.put(cleaned, locations);
-                    cleanFullMap.put(cleaned, name);
+        pointSet = spatialIndex(csr(), snappableVertices(csr()));
+        indexNames(verticesByCleanedName(csr()));
+        components = Components.of(this);
+    }
+
+    /**
+     * Creates a graph over an already compacted CSR whose spatial index was built by
+     * spatialIndex and whose names were grouped by verticesByCleanedName.
+     */
+    AugmentedStreetMapGraph(CSRGraph csr, KDTree pointSet, Map<String, int[]> byCleanedName) {
+        super(csr);
+        nameLocationsMap = new HashTrieMap<>();
+        cleanFullMap = new HashMap<>();
+        this.pointSet = pointSet;
+        indexNames(byCleanedName);
+        components = Components.of(this);
+    }
+
+    /** Returns the indices of the unnamed vertices of CSR, which are the ones routes snap to. */
+    static int[] snappableVertices(CSRGraph csr) {
+        int count = 0;
+        for (int v = 0; v < csr.numVertices(); v++) {
+            if (csr.name(v) == null) {
+                count += 1;
+            }
+        }
+        int[] snappable = new int[count];
+        for (int v = 0, i = 0; v < csr.numVertices(); v++) {
+            if (csr.name(v) == null) {
+                snappable[i] = v;
+                i += 1;
+            }
+        }
+        return snappable;
+    }
+
+    /** Groups the indices of the named vertices of CSR by cleaned name, in vertex order. */
+    static Map<String, int[]> verticesByCleanedName(CSRGraph csr) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int v = 0; v < csr.numVertices(); v++) {
+            String name = csr.name(v);
+            if (name != null) {
+                groups.computeIfAbsent(cleanString(name), k -> new ArrayList<>()).add(v);
+            }
+        }
+        Map<String, int[]> byCleanedName = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+            byCleanedName.put(group.getKey(),
+                    group.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return byCleanedName;
+    }
+
+    /**
+     * Builds a KDTree over the SNAPPABLE vertices of CSR whose payloads are vertex indices.
+     * Longitudes are scaled by the cosine of the mean latitude, so planar distances in
+     * the tree approximate ground distances.
+     */
+    static KDTree spatialIndex(CSRGraph csr, int[] snappable) {
+        double[] lons = new double[snappable.length];
+        double[] lats = new double[snappable.length];
+        double meanLat = 0.0;
+        for (int i = 0; i < snappable.length; i++) {
+            lons[i] = csr.lon(snappable[i]);
+            lats[i] = csr.lat(snappable[i]);
+            meanLat += lats[i] / snappable.length;
+        }
+        return new KDTree(lons, lats, snappable.clone(), Math.cos(Math.toRadians(meanLat)));
+    }
+
+    /** Returns the spatial index of the snappable vertices. */
+    KDTree spatialIndex() {
+        return pointSet;
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph: the one customized with its weight
+     * overlay if it has one, and otherwise the one of its lengths, contracting it on first
+     * use if none has been set.
+     */
+    public ContractionHierarchy contractionHierarchy() {
+        ContractionHierarchy result = overlayHierarchy;
+        return result != null ? result : lengthHierarchy();
+    }
+
+    /* Returns the contraction hierarchy of the lengths, contracting it if none has been set. */
+    private ContractionHierarchy lengthHierarchy() {
+        ContractionHierarchy result = hierarchy;
+        if (result == null) {
+            synchronized (this) {
+                result = hierarchy;
+                if (result == null) {
+                    result = ContractionHierarchy.of(this);
+                    hierarchy = result;
                 }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph like contractionHierarchy if one has
+     * been set or contracted, and null otherwise, without contracting it.
+     */
+    public ContractionHierarchy currentContractionHierarchy() {
+        ContractionHierarchy result = overlayHierarchy;
+        return result != null ? result : hierarchy;
+    }
+
+    /**
+     * Uses CH, typically read from a file built offline, as the contraction hierarchy of
+     * the lengths of this graph. Searches already running finish with the previous one.
+     * The cached routes and the hub labels were found with the previous one too, so they
+     * are dropped. Throws an IllegalArgumentException if CH was built from another graph.
+     */
+    public void setContractionHierarchy(ContractionHierarchy ch) {
+        if (!ch.matches(this)) {
+            throw new IllegalArgumentException("The contraction hierarchy is for another graph.");
+        }
+        synchronized (this) {
+            hierarchy = ch;
+            hubLabels = null;
+        }
+        routeCache.clear();
+    }
+
+    /**
+     * Uses CH, customized with the weights of a weight overlay, in place of the contraction
+     * hierarchy and hub labels of the lengths of this graph, or stops using one if CH is
+     * null, which restores those. Searches already running finish with the previous
+     * hierarchy, and the cached routes are dropped. Throws an IllegalArgumentException if
+     * CH was built from another graph.
+     */
+    public void setWeightOverlay(ContractionHierarchy ch) {
+        if (ch != null && !ch.matches(this)) {
+            throw new IllegalArgumentException("The contraction hierarchy is for another graph.");
+        }
+        overlayHierarchy = ch;
+        routeCache.clear();
+    }
+
+    /** Returns true if a weight overlay is in use, which only hierarchy searches see. */
+    public boolean hasWeightOverlay() {
+        return overlayHierarchy != null;
+    }
+
+    /**
+     * Returns the hub labels of the lengths of this graph, building them from the
+     * contraction hierarchy of its lengths on first use if none have been set.
+     */
+    public HubLabels hubLabels() {
+        HubLabels result = hubLabels;
+        if (result == null) {
+            synchronized (this) {
+                result = hubLabels;
+                if (result == null) {
+                    result = HubLabels.of(lengthHierarchy());
+                    hubLabels = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hub labels of this graph if they have been built or set since the
+     * contraction hierarchy of its lengths was last set, and no weight overlay is in use,
+     * and null otherwise.
+     */
+    public HubLabels currentHubLabels() {
+        return overlayHierarchy == null ? hubLabels : null;
+    }
+
+    /**
+     * Uses LABELS, typically read from a file built offline, as the hub labels of the
+     * lengths of this graph. Throws an IllegalArgumentException if LABELS were built for another graph.
+     */
+    public void setHubLabels(HubLabels labels) {
+        if (!labels.matches(this)) {
+            throw new IllegalArgumentException("The hub labels are for another graph.");
+        }
+        hubLabels = labels;
+    }
+
+    /** Returns the ALT landmarks of this graph, computing them on first use. */
+    public Landmarks landmarks() {
+        Landmarks result = landmarks;
+        if (result == null) {
+            synchronized (this) {
+                result = landmarks;
+                if (result == null) {
+                    result = Landmarks.of(this);
+                    landmarks = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the arc flags of this graph over a partition of its vertices into
+     * 2^ARC_FLAG_LEVELS cells by their coordinates, computing them on first use.
+     */
+    public ArcFlags arcFlags() {
+        ArcFlags result = arcFlags;
+        if (result == null) {
+            synchronized (this) {
+                result = arcFlags;
+                if (result == null) {
+                    double[][] xy = planarCoordinates();
+                    result = ArcFlags.of(this,
+                            Partition.of(xy[0], xy[1], Constants.ARC_FLAG_LEVELS));
+                    arcFlags = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the metric-independent customizable contraction hierarchy of this graph,
+     * ordering its vertices by nested dissection on first use. Customizing it with new
+     * weights gives a contraction hierarchy to pass to setContractionHierarchy.
+     */
+    public CustomizableContractionHierarchy customizableHierarchy() {
+        CustomizableContractionHierarchy result = customizable;
+        if (result == null) {
+            synchronized (this) {
+                result = customizable;
+                if (result == null) {
+                    double[][] xy = planarCoordinates();
+                    result = CustomizableContractionHierarchy.of(this, xy[0], xy[1]);
+                    customizable = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /* Returns the longitudes, scaled by the cosine of each latitude, and the latitudes of
+     * the vertices, so that planar distances between them approximate ground distances. */
+    private double[][] planarCoordinates() {
+        CSRGraph csr = csr();
+        double[] xs = new double[csr.numVertices()];
+        double[] ys = new double[csr.numVertices()];
+        for (int v = 0; v < csr.numVertices(); v++) {
+            xs[v] = csr.lon(v) * Math.cos(Math.toRadians(csr.lat(v)));
+            ys[v] = csr.lat(v);
+        }
+        return new double[][]{xs, ys};
+    }
+
+    /** Returns the connected components of this graph, which are labelled when it is built. */
+    public Components components() {
+        return components;
+    }
+
+    /** Returns the cache of the routes found on this graph. */
+    public RouteCache routeCache() {
+        return routeCache;
+    }
+
+    /** Fills the location indices from the named vertices grouped by cleaned name. */
+    private void indexNames(Map<String, int[]> byCleanedName) {
+        CSRGraph csr = csr();
+        for (Map.Entry<String, int[]> group : byCleanedName.entrySet()) {
+            String cleaned = group.getKey();
+            List<Map<String, Object>> locations = new LinkedList<>();
+            for (int v : group.getValue()) {
+                Map<String, Object> location = new HashMap<>();
+                location.put("lat", csr.lat(v));
+                location.put("lon", csr.lon(v));
+                location.put("name", csr.name(v));
+                location.put("id", csr.id(v));
                 locations.add(location);
             }
+            nameLocationsMap.put(cleaned, locations);
+            cleanFullMap.put(cleaned, csr.name(group.getValue()[0]));
         }
-        pointSet = new KDTree(pointIDMap.keySet());
     }
 
 
     /**
      * For Project Part II
      * Returns the vertex closest to the given longitude and latitude.
+     * Throws NoSuchElementException if the graph has no node to snap to.
      * @param lon The target longitude.
      * @param lat The target latitude.
      * @return The id of the node in the graph closest to the target.
      */
     public long closest(double lon, double lat) {
-        Point closestPoint = pointSet.nearest(lon, lat);
-        return pointIDMap.get(closestPoint);
+        int v = pointSet.nearestPayload(lon, lat);
+        if (v < 0) {
+            throw new NoSuchElementException("The graph has no node to snap to.");
+        }
+        return csr().id(v);
+    }
+
+    /**
+     * Returns the K vertices closest to the given longitude and latitude, closest first.
+     * These are candidates for snapping when the closest vertex is not a good fit.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param k The number of candidates.
+     * @return The ids of the candidate nodes.
+     */
+    public long[] closest(double lon, double lat, int k) {
+        int[] vertices = pointSet.kNearestPayloads(lon, lat, k);
+        long[] ids = new long[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            ids[i] = csr().id(vertices[i]);
+        }
+        return ids;
     }
 
 
+    /**
+     * Returns the vertex closest to the given longitude and latitude among those in the
+     * largest strongly connected component, from which every other vertex in it can be
+     * reached. Looks through ever more of the closest vertices, up to
+     * SNAP_MAX_CANDIDATES, and returns the closest vertex if none of them qualify.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The id of the node in the largest component closest to the target.
+     */
+    public long closestInLargestComponent(double lon, double lat) {
+        for (int k = 16; k <= Constants.SNAP_MAX_CANDIDATES; k *= 2) {
+            long[] candidates = closest(lon, lat, k);
+            for (long id : candidates) {
+                if (components.component(indexOf(id)) == components.largest()) {
+                    return id;
+                }
+            }
+            if (candidates.length < k) {
+                break;
+            }
+        }
+        return closest(lon, lat);
+    }
+
     /**
      * For Project Part III (gold points)
      * In linear time, collect all the names of OSM nameLocationsMap that prefix-match the query string.
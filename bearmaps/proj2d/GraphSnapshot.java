@@ -0,0 +1,211 @@
+package bearmaps.proj2d;
+
+import bearmaps.proj2ab.KDTree;
+import bearmaps.proj2c.streetmap.CSRGraph;
+import bearmaps.proj2c.streetmap.OsmReader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes versioned binary snapshots of an AugmentedStreetMapGraph:
+ * the CSR nodes and edges, the interned way names, the KD-tree of snappable
+ * vertices in its tree order and the vertices grouped by cleaned name.
+ * All numbers are big-endian, and arrays are stored raw so that loading a
+ * snapshot is a memory map plus bulk copies rather than a parse.
+ * Run main to compile an OSM XML file into a snapshot offline.
+ *
+ * @author Rui Gao
+ */
+public class GraphSnapshot {
+    /** "BMAP" in ASCII. */
+    private static final int MAGIC = 0x424D4150;
+    /**
+     * Bump this whenever the layout below, or the order vertices are numbered in,
+     * changes. Version 3 numbers them along a Hilbert curve.
+     */
+    static final int VERSION = 3;
+
+    /**
+     * Compiles an OSM XML file into a snapshot.
+     * @param args The classpath location of the OSM XML file and the snapshot file to write.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: GraphSnapshot <osm xml> <snapshot file>");
+            return;
+        }
+        write(new AugmentedStreetMapGraph(args[0], OsmReader.Progress.printingTo(System.out)),
+                args[1]);
+    }
+
+    /** Writes a snapshot of G to the file at PATH. */
+    public static void write(AugmentedStreetMapGraph g, String path) throws IOException {
+        CSRGraph csr = g.csr();
+        int n = csr.numVertices();
+        int m = csr.numEdges();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(m);
+            for (int v = 0; v < n; v++) {
+                out.writeLong(csr.id(v));
+            }
+            for (int v = 0; v < n; v++) {
+                out.writeDouble(csr.lon(v));
+            }
+            for (int v = 0; v < n; v++) {
+                out.writeDouble(csr.lat(v));
+            }
+            for (int v = 0; v <= n; v++) {
+                out.writeInt(v < n ? csr.firstEdge(v) : m);
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(csr.edgeTarget(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeDouble(csr.edgeWeight(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(csr.wayNameIndex(e));
+            }
+            out.writeInt(csr.numWayNames());
+            for (int i = 0; i < csr.numWayNames(); i++) {
+                writeString(out, csr.wayNameAt(i));
+            }
+            int numNamed = 0;
+            for (int v = 0; v < n; v++) {
+                if (csr.name(v) != null) {
+                    numNamed += 1;
+                }
+            }
+            out.writeInt(numNamed);
+            for (int v = 0; v < n; v++) {
+                if (csr.name(v) != null) {
+                    out.writeInt(v);
+                    writeString(out, csr.name(v));
+                }
+            }
+
+            KDTree pointSet = g.spatialIndex();
+            out.writeDouble(pointSet.xScale());
+            out.writeInt(pointSet.size());
+            for (int i = 0; i < pointSet.size(); i++) {
+                out.writeDouble(pointSet.x(i));
+            }
+            for (int i = 0; i < pointSet.size(); i++) {
+                out.writeDouble(pointSet.y(i));
+            }
+            for (int i = 0; i < pointSet.size(); i++) {
+                out.writeInt(pointSet.payload(i));
+            }
+
+            Map<String, int[]> byCleanedName = AugmentedStreetMapGraph.verticesByCleanedName(csr);
+            out.writeInt(byCleanedName.size());
+            for (Map.Entry<String, int[]> group : byCleanedName.entrySet()) {
+                writeString(out, group.getKey());
+                out.writeInt(group.getValue().length);
+                for (int v : group.getValue()) {
+                    out.writeInt(v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the snapshot file at PATH into memory and builds the graph it describes.
+     * Throws an IOException if the file is not a snapshot of the current version.
+     */
+    public static AugmentedStreetMapGraph read(String path) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.getInt() != MAGIC) {
+            throw new IOException(path + " is not a graph snapshot.");
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported graph snapshot version " + version + ".");
+        }
+        int n = buf.getInt();
+        int m = buf.getInt();
+        long[] ids = new long[n];
+        buf.asLongBuffer().get(ids);
+        skip(buf, Long.BYTES * n);
+        double[] lons = readDoubles(buf, n);
+        double[] lats = readDoubles(buf, n);
+        int[] offsets = readInts(buf, n + 1);
+        int[] targets = readInts(buf, m);
+        double[] weights = readDoubles(buf, m);
+        int[] wayNameIndices = readInts(buf, m);
+        String[] wayNames = new String[buf.getInt()];
+        for (int i = 0; i < wayNames.length; i++) {
+            wayNames[i] = readString(buf);
+        }
+        String[] names = new String[n];
+        int numNamed = buf.getInt();
+        for (int i = 0; i < numNamed; i++) {
+            int v = buf.getInt();
+            names[v] = readString(buf);
+        }
+        CSRGraph csr = new CSRGraph(ids, lons, lats, names, offsets, targets, weights,
+                wayNameIndices, wayNames);
+
+        double xScale = buf.getDouble();
+        int numPoints = buf.getInt();
+        double[] xs = readDoubles(buf, numPoints);
+        double[] ys = readDoubles(buf, numPoints);
+        int[] payloads = readInts(buf, numPoints);
+        KDTree pointSet = KDTree.fromTreeOrder(xs, ys, payloads, xScale);
+        int numGroups = buf.getInt();
+        Map<String, int[]> byCleanedName = new LinkedHashMap<>();
+        for (int i = 0; i < numGroups; i++) {
+            String cleaned = readString(buf);
+            byCleanedName.put(cleaned, readInts(buf, buf.getInt()));
+        }
+        return new AugmentedStreetMapGraph(csr, pointSet, byCleanedName);
+    }
+
+    private static int[] readInts(ByteBuffer buf, int length) {
+        int[] result = new int[length];
+        buf.asIntBuffer().get(result);
+        skip(buf, Integer.BYTES * length);
+        return result;
+    }
+
+    private static double[] readDoubles(ByteBuffer buf, int length) {
+        double[] result = new double[length];
+        buf.asDoubleBuffer().get(result);
+        skip(buf, Double.BYTES * length);
+        return result;
+    }
+
+    private static void skip(ByteBuffer buf, int bytes) {
+        buf.position(buf.position() + bytes);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,8 +1,13 @@
 package bearmaps.proj2d;
 
+import bearmaps.proj2c.ContractionHierarchy;
+import bearmaps.proj2c.HubLabels;
 import bearmaps.proj2d.server.handler.APIRouteHandler;
 import bearmaps.proj2d.utils.Constants;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -21,7 +26,22 @@ public class MapServerInitializer {
      **/
     public static void initializeServer(Map<String, APIRouteHandler> apiHandlers){
         port(getHerokuAssignedPort());
-        Constants.SEMANTIC_STREET_GRAPH = new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+        Constants.SEMANTIC_STREET_GRAPH = loadGraph();
+        ContractionHierarchy ch = loadHierarchy(Constants.SEMANTIC_STREET_GRAPH);
+        HubLabels labels = loadHubLabels(Constants.SEMANTIC_STREET_GRAPH);
+        if (ch != null) {
+            Constants.SEMANTIC_STREET_GRAPH.setContractionHierarchy(ch);
+        }
+        if (ch != null && labels != null) {
+            Constants.SEMANTIC_STREET_GRAPH.setHubLabels(labels);
+        } else {
+            buildInBackground(Constants.SEMANTIC_STREET_GRAPH, labels);
+        }
+        if (Constants.WEIGHT_OVERLAY_PATH != null) {
+            WeightOverlay.watch(Constants.SEMANTIC_STREET_GRAPH, Constants.WEIGHT_OVERLAY_PATH,
+                    Constants.WEIGHT_OVERLAY_POLL_SECONDS);
+        }
+        Constants.TILE_CACHE.warmUp(Constants.IMG_ROOT, Constants.TILE_CACHE_WARM_DEPTH);
         staticFileLocation("/page");
         /* Allow for all origin requests (since this is not an authenticated server, we do not
          * care about CSRF).  */
@@ -37,12 +57,99 @@ public class MapServerInitializer {
                 throw new RuntimeException("Duplicate API Path found");
             }
             get("/"+apiRoute.getKey(), apiRoute.getValue());
+            /* Form-encoded POST bodies are read as query parameters too, for requests too
+             * long to fit in a URL, such as matrices of many locations. */
+            post("/"+apiRoute.getKey(), apiRoute.getValue());
             paths.add(apiRoute.getKey());
         }
 
 
     }
 
+    /**
+     * Loads the graph from its binary snapshot if one has been compiled, and falls back
+     * to parsing the OSM XML file otherwise.
+     */
+    private static AugmentedStreetMapGraph loadGraph() {
+        if (Files.exists(Paths.get(Constants.SNAPSHOT_PATH))) {
+            try {
+                return GraphSnapshot.read(Constants.SNAPSHOT_PATH);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new AugmentedStreetMapGraph(Constants.OSM_DB_PATH);
+    }
+
+    /**
+     * Loads the contraction hierarchy of G from its file if one has been built for it,
+     * and returns null otherwise.
+     */
+    private static ContractionHierarchy loadHierarchy(AugmentedStreetMapGraph g) {
+        if (Files.exists(Paths.get(Constants.HIERARCHY_PATH))) {
+            try {
+                ContractionHierarchy ch = ContractionHierarchy.read(Constants.HIERARCHY_PATH);
+                if (ch.matches(g)) {
+                    return ch;
+                }
+                System.err.println(Constants.HIERARCHY_PATH + " was built for another graph.");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps the hub labels of G from their file if they have been built for it, and returns
+     * null otherwise.
+     */
+    private static HubLabels loadHubLabels(AugmentedStreetMapGraph g) {
+        if (Files.exists(Paths.get(Constants.HUB_LABELS_PATH))) {
+            try {
+                HubLabels labels = HubLabels.read(Constants.HUB_LABELS_PATH);
+                if (labels.matches(g)) {
+                    return labels;
+                }
+                System.err.println(Constants.HUB_LABELS_PATH + " was built for another graph.");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Contracts G if it has no contraction hierarchy yet, and then sets LABELS as its hub
+     * labels, building them from the hierarchy if null, on a daemon thread so that the
+     * server can start at once. Until it is done, which can take minutes on a large map,
+     * routes are found by A* search and distances by A* or hierarchy search, so both are
+     * best built offline.
+     */
+    private static void buildInBackground(AugmentedStreetMapGraph g, HubLabels labels) {
+        if (g.currentContractionHierarchy() == null) {
+            System.err.println("No contraction hierarchy for the graph at "
+                    + Constants.HIERARCHY_PATH + "; contracting it in the background and "
+                    + "searching with A* until then. Run ContractionHierarchy.main to build "
+                    + "it offline.");
+        }
+        if (labels == null) {
+            System.err.println("No hub labels for the graph at " + Constants.HUB_LABELS_PATH
+                    + "; building them in the background. Run HubLabels.main to build them "
+                    + "offline.");
+        }
+        Thread t = new Thread(() -> {
+            ContractionHierarchy ch = g.currentContractionHierarchy();
+            if (ch == null) {
+                ch = ContractionHierarchy.of(g);
+                g.setContractionHierarchy(ch);
+            }
+            g.setHubLabels(labels != null ? labels : HubLabels.of(ch));
+        }, "hierarchy-builder");
+        t.setDaemon(true);
+        t.start();
+    }
+
     private static int getHerokuAssignedPort() {
         ProcessBuilder processBuilder = new ProcessBuilder();
         if (processBuilder.environment().get("PORT") != null) {
@@ -0,0 +1,282 @@
+package bearmaps.proj2d;
+
+import bearmaps.proj2c.AStarSolver;
+import bearmaps.proj2c.Deadline;
+import bearmaps.proj2c.ShortestPathsSolver;
+import bearmaps.proj2c.SolverOutcome;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A cache of the shortest paths found between pairs of snapped graph nodes,
+ * for one graph. Each graph has its own, so reloading the graph starts afresh.
+ * Paths are kept as arrays of node ids with their weight, up to a budget of
+ * node ids in total, evicting the least recently used paths beyond it.
+ * Concurrent requests for the same pair share a single search: the first one
+ * runs it, and the others wait for its result, each only until its own
+ * deadline. Searches that time out are not kept, since a later search may
+ * well succeed, and requests that were waiting for one search again.
+ *
+ * @author Rui Gao
+ */
+public class RouteCache {
+    /**
+     * A path found by a search, as an array of node ids, and its weight. When the
+     * search timed out, the path is the partial one an A* search had got to, or empty.
+     * Routes found by approximate searches also carry how far from shortest they may be.
+     */
+    public static class Route {
+        private final long[] path;
+        private final double weight;
+        private final SolverOutcome outcome;
+        private final double suboptimalityBound;
+
+        Route(long[] path, double weight, SolverOutcome outcome) {
+            this(path, weight, outcome, 1.0);
+        }
+
+        Route(long[] path, double weight, SolverOutcome outcome, double suboptimalityBound) {
+            this.path = path;
+            this.weight = weight;
+            this.outcome = outcome;
+            this.suboptimalityBound = suboptimalityBound;
+        }
+
+        /** Returns the result of a finished SOLVER as a Route. */
+        static Route of(ShortestPathsSolver<Long> solver) {
+            List<Long> solution = solver.outcome() == SolverOutcome.TIMEOUT
+                    && solver instanceof AStarSolver
+                    ? ((AStarSolver<Long>) solver).partialSolution() : solver.solution();
+            long[] path = solution.stream().mapToLong(Long::longValue).toArray();
+            return new Route(path, solver.solutionWeight(), solver.outcome(),
+                    solver.suboptimalityBound());
+        }
+
+        /** Returns the ids of the nodes on the path, which must not be modified. */
+        public long[] path() {
+            return path;
+        }
+
+        public double weight() {
+            return weight;
+        }
+
+        public SolverOutcome outcome() {
+            return outcome;
+        }
+
+        /** Returns how many times the shortest path's weight the weight can be at most. */
+        public double suboptimalityBound() {
+            return suboptimalityBound;
+        }
+    }
+
+    private static class Key {
+        private final long src;
+        private final long dest;
+        private final Router.Algorithm algorithm;
+
+        Key(long src, long dest, Router.Algorithm algorithm) {
+            this.src = src;
+            this.dest = dest;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return src == other.src && dest == other.dest && algorithm == other.algorithm;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(src, dest, algorithm);
+        }
+    }
+
+    /* How often a request waiting for another's search checks whether it was cancelled. */
+    private static final long WAIT_SLICE_MILLIS = 20;
+
+    private final long budgetNodes;
+    /* In access order, so the first entry is always the least recently used. Searches in
+     * flight are in here too, so that identical requests can wait for them. */
+    private final LinkedHashMap<Key, CompletableFuture<Route>> routes;
+    private long sizeNodes;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /** Creates an empty cache that holds paths of at most BUDGETNODES node ids in total. */
+    public RouteCache(long budgetNodes) {
+        this.budgetNodes = budgetNodes;
+        routes = new LinkedHashMap<>(16, 0.75f, true);
+        sizeNodes = 0;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+    }
+
+    /**
+     * Returns the route from SRC to DEST found by ALGORITHM, running SEARCH to find it
+     * unless it is cached or already being searched for.
+     */
+    public Route get(long src, long dest, Router.Algorithm algorithm,
+                     Supplier<ShortestPathsSolver<Long>> search) {
+        return get(src, dest, algorithm, Deadline.never(), search);
+    }
+
+    /**
+     * Returns the route from SRC to DEST found by ALGORITHM, running SEARCH, which must
+     * give up by DEADLINE, to find it unless it is cached or already being searched for.
+     * A request that waits for another's search waits only until its own DEADLINE, and
+     * if that search timed out or failed, runs SEARCH itself rather than share the
+     * other request's failure.
+     */
+    public Route get(long src, long dest, Router.Algorithm algorithm, Deadline deadline,
+                     Supplier<ShortestPathsSolver<Long>> search) {
+        Key key = new Key(src, dest, algorithm);
+        while (true) {
+            CompletableFuture<Route> future;
+            boolean mine = false;
+            synchronized (routes) {
+                future = routes.get(key);
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    routes.put(key, future);
+                    mine = true;
+                }
+            }
+            if (mine) {
+                misses.incrementAndGet();
+                return search(key, future, search);
+            }
+            Route route = await(future, deadline);
+            if (route == null) {
+                /* The other search timed out or failed, and has been removed, so the next
+                 * attempt runs a search of its own unless yet another one got there first. */
+                continue;
+            }
+            if (route.outcome != SolverOutcome.TIMEOUT) {
+                hits.incrementAndGet();
+            }
+            return route;
+        }
+    }
+
+    /* Runs SEARCH for KEY and completes FUTURE, the placeholder for it, with its route. */
+    private Route search(Key key, CompletableFuture<Route> future,
+                         Supplier<ShortestPathsSolver<Long>> search) {
+        Route route;
+        try {
+            route = Route.of(search.get());
+        } catch (RuntimeException | Error e) {
+            synchronized (routes) {
+                routes.remove(key, future);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        /* Failed searches are removed before they complete, so that the requests waiting
+         * for them find the way clear to search again. */
+        synchronized (routes) {
+            if (route.outcome == SolverOutcome.TIMEOUT || route.path.length > budgetNodes) {
+                routes.remove(key, future);
+            } else if (routes.get(key) == future) {
+                sizeNodes += route.path.length;
+                evict();
+            }
+        }
+        future.complete(route);
+        return route;
+    }
+
+    /* Waits for FUTURE until DEADLINE, checking for cancellation every WAIT_SLICE_MILLIS.
+     * Returns its route if it found one, null if it timed out or failed, and an empty
+     * timed out route if DEADLINE expired first. */
+    private static Route await(CompletableFuture<Route> future, Deadline deadline) {
+        while (true) {
+            long remaining = deadline.remainingNanos();
+            if (remaining <= 0) {
+                return new Route(new long[0], 0.0, SolverOutcome.TIMEOUT);
+            }
+            try {
+                Route route = future.get(Math.min(remaining,
+                        TimeUnit.MILLISECONDS.toNanos(WAIT_SLICE_MILLIS)), TimeUnit.NANOSECONDS);
+                return route.outcome == SolverOutcome.TIMEOUT ? null : route;
+            } catch (TimeoutException e) {
+                continue;
+            } catch (ExecutionException | CancellationException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new Route(new long[0], 0.0, SolverOutcome.TIMEOUT);
+            }
+        }
+    }
+
+    /* Evicts finished routes, least recently used first, until the budget is met. */
+    private void evict() {
+        Iterator<CompletableFuture<Route>> eldest = routes.values().iterator();
+        while (sizeNodes > budgetNodes && eldest.hasNext()) {
+            CompletableFuture<Route> future = eldest.next();
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                sizeNodes -= future.join().path.length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Forgets every cached route, e.g. after the weights they were found with change.
+     * Searches in flight still finish, but their routes are not kept.
+     */
+    public void clear() {
+        synchronized (routes) {
+            routes.clear();
+            sizeNodes = 0;
+        }
+    }
+
+    /** Returns the number of routes cached or being searched for. */
+    public int size() {
+        synchronized (routes) {
+            return routes.size();
+        }
+    }
+
+    /** Returns the number of node ids on the cached paths. */
+    public long sizeNodes() {
+        synchronized (routes) {
+            return sizeNodes;
+        }
+    }
+
+    /** Returns the number of requests answered by a cached or in-flight search. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Returns the number of requests that had to run a search. */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Returns the number of routes evicted to stay within the budget. */
+    public long evictions() {
+        return evictions.get();
+    }
+}
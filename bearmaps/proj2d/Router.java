@@ -1,9 +1,26 @@
 package bearmaps.proj2d;
 
+import bearmaps.proj2c.ALTGraph;
 import bearmaps.proj2c.AStarSolver;
+import bearmaps.proj2c.AnytimeAStarSolver;
+import bearmaps.proj2c.ArcFlagsGraph;
+import bearmaps.proj2c.BidirectionalAStarSolver;
+import bearmaps.proj2c.CHSolver;
+import bearmaps.proj2c.ContractionHierarchy;
+import bearmaps.proj2c.Deadline;
+import bearmaps.proj2c.DistanceMatrix;
+import bearmaps.proj2c.HubLabels;
+import bearmaps.proj2c.Reachability;
+import bearmaps.proj2c.ShortestPathsSolver;
+import bearmaps.proj2c.SolverOutcome;
+import bearmaps.proj2d.utils.Constants;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.ObjIntConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -12,6 +29,30 @@ import java.util.regex.Pattern;
  * @author Josh Hug, Rui Gao
  */
 public class Router {
+    /* Batches of queries are searched in parallel on this pool, which is shared by all of
+     * them, so that concurrent batches cannot take more threads than there are cores. */
+    private static final ForkJoinPool BATCH_POOL = new ForkJoinPool(Constants.ROUTING_PARALLELISM);
+
+    /** Why distance matrices and reachable areas are refused while a weight overlay is in use. */
+    public static final String OVERLAY_UNSUPPORTED =
+            "Unavailable while a weight overlay is in use, as it would be ignored.";
+
+    /** The shortest path algorithms that shortestPath can run. */
+    public enum Algorithm {
+        /** A* search forward from the start. */
+        ASTAR,
+        /** A* search forward from the start and backward from the destination at once. */
+        BIDIRECTIONAL_ASTAR,
+        /** A* search guided by the graph's landmarks, which are computed on first use. */
+        ALT,
+        /**
+         * A query of the graph's contraction hierarchy, or A* search while it has none,
+         * such as while the server is still contracting it in the background.
+         */
+        CONTRACTION_HIERARCHY,
+        /** A* search that skips edges ruled out by the graph's arc flags, computed on first use. */
+        ARC_FLAGS
+    }
 
     /**
      * Overloaded method for shortestPath that has flexibility to specify a solver
@@ -26,9 +67,334 @@ public class Router {
      */
     public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        long src = g.closest(stlon, stlat);
-        long dest = g.closest(destlon, destlat);
-        return new AStarSolver<>(g, src, dest, 20).solution();
+        return shortestPath(g, stlon, stlat, destlon, destlat, Algorithm.ASTAR);
+    }
+
+    /**
+     * Returns a List of longs representing the shortest path from the node closest to
+     * a start location and the node closest to the destination location, found by the
+     * given algorithm. Routes between the same pair of nodes are looked up in the
+     * graph's route cache rather than searched for again. The search is given
+     * ROUTE_TIMEOUT_SECONDS to finish.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param algorithm The algorithm to search with.
+     * @return A list of node id's in the order visited on the shortest path, or an empty
+     * list if there is none or the search timed out.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat, Algorithm algorithm) {
+        RouteCache.Route route = findRoute(g, stlon, stlat, destlon, destlat, algorithm,
+                Deadline.after(Constants.ROUTE_TIMEOUT_SECONDS));
+        return route.outcome() == SolverOutcome.SOLVED ? toList(route.path()) : new ArrayList<>();
+    }
+
+    /**
+     * Returns the route from the node closest to a start location to the node closest to
+     * the destination location, found by the given algorithm before a deadline. Unlike
+     * shortestPath, this tells a search that timed out apart from one that found no path,
+     * and keeps the partial path of an A* search that timed out.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param algorithm The algorithm to search with.
+     * @param deadline When to give up the search, which may be cancelled from another thread.
+     * @return The route, whose outcome is TIMEOUT if the deadline expired first.
+     */
+    public static RouteCache.Route findRoute(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                             double destlon, double destlat, Algorithm algorithm,
+                                             Deadline deadline) {
+        long src = snap(g, stlon, stlat);
+        long dest = snap(g, destlon, destlat);
+        return cachedRoute(g, src, dest, algorithm, deadline);
+    }
+
+    /**
+     * Returns a draft route from the node closest to a start location to the node closest
+     * to the destination location, at most 1 + EPSILON times as long as the shortest path.
+     * It is found by an anytime search that finds a first route quickly and then spends
+     * up to DRAFT_REFINE_SECONDS refining it, so it is often better than that. Drafts are
+     * never cached, so they cannot be served in place of exact routes. That search would
+     * not see a weight overlay, so while one is in use the exact route is found instead.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param epsilon How much longer than the shortest path the route may be, as a fraction.
+     * @param deadline When to give up the search.
+     * @return The route, along with the bound on its suboptimality achieved.
+     */
+    public static RouteCache.Route draftRoute(AugmentedStreetMapGraph g, double stlon,
+                                              double stlat, double destlon, double destlat,
+                                              double epsilon, Deadline deadline) {
+        long src = snap(g, stlon, stlat);
+        long dest = snap(g, destlon, destlat);
+        if (g.hasWeightOverlay()) {
+            return cachedRoute(g, src, dest, Algorithm.CONTRACTION_HIERARCHY, deadline);
+        }
+        if (g.components().unreachable(g.indexOf(src), g.indexOf(dest))) {
+            return new RouteCache.Route(new long[0], 0.0, SolverOutcome.UNSOLVABLE);
+        }
+        return RouteCache.Route.of(new AnytimeAStarSolver<>(g, src, dest, 1.0 + epsilon,
+                deadline, Constants.DRAFT_REFINE_SECONDS));
+    }
+
+    /**
+     * Returns the length of the shortest path from the node closest to a start location
+     * to the node closest to the destination location, without finding the path itself.
+     * The search is given ROUTE_TIMEOUT_SECONDS to finish.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @return The distance in miles, or infinity if there is no path or the search timed out.
+     */
+    public static double distance(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                  double destlon, double destlat) {
+        RouteCache.Route route = findDistance(g, stlon, stlat, destlon, destlat,
+                Deadline.after(Constants.ROUTE_TIMEOUT_SECONDS));
+        return route.outcome() == SolverOutcome.SOLVED ? route.weight() : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the length of the shortest path from the node closest to a start location
+     * to the node closest to the destination location, found before a deadline, without
+     * finding the path itself. Answered by the graph's hub labels if they are up to date
+     * with its contraction hierarchy, by a search of the hierarchy otherwise, such as
+     * after new weights have been customized into it, and by A* search while the graph
+     * has no hierarchy yet. Unlike distance, this tells a search that timed out apart
+     * from one that found no path.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param deadline When to give up the search.
+     * @return A route with no path whose weight is the distance in miles, and whose
+     * outcome is TIMEOUT if the deadline expired first.
+     */
+    public static RouteCache.Route findDistance(AugmentedStreetMapGraph g, double stlon,
+                                                double stlat, double destlon, double destlat,
+                                                Deadline deadline) {
+        long src = snap(g, stlon, stlat);
+        long dest = snap(g, destlon, destlat);
+        HubLabels labels = g.currentHubLabels();
+        if (labels != null) {
+            double d = labels.distance(g.indexOf(src), g.indexOf(dest));
+            return new RouteCache.Route(new long[0], d, d < Double.POSITIVE_INFINITY
+                    ? SolverOutcome.SOLVED : SolverOutcome.UNSOLVABLE);
+        }
+        ShortestPathsSolver<Long> solver = solver(g, src, dest, Algorithm.CONTRACTION_HIERARCHY,
+                deadline);
+        return new RouteCache.Route(new long[0], solver.solutionWeight(), solver.outcome());
+    }
+
+    /** An origin and a destination to find the shortest path between. */
+    public static class Query {
+        final double stlon;
+        final double stlat;
+        final double destlon;
+        final double destlat;
+
+        public Query(double stlon, double stlat, double destlon, double destlat) {
+            this.stlon = stlon;
+            this.stlat = stlat;
+            this.destlon = destlon;
+            this.destlat = destlat;
+        }
+    }
+
+    /**
+     * Returns the shortest path between the nodes closest to the origin and destination
+     * of each query, found by the given algorithm. Each search is given
+     * ROUTE_TIMEOUT_SECONDS to finish.
+     * @param g The graph to use.
+     * @param queries The origins and destinations.
+     * @param algorithm The algorithm to search with.
+     * @return The path for queries.get(i) at index i, as a list of node ids, which is
+     * empty if there is no path or the search timed out.
+     */
+    public static List<List<Long>> shortestPaths(AugmentedStreetMapGraph g, List<Query> queries,
+                                                 Algorithm algorithm) {
+        List<List<Long>> paths = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            paths.add(null);
+        }
+        shortestPaths(g, queries, algorithm, Deadline.never(), (route, i) -> paths.set(i,
+                route.outcome() == SolverOutcome.SOLVED ? toList(route.path())
+                        : new ArrayList<>()));
+        return paths;
+    }
+
+    /**
+     * Finds the shortest path for each query like shortestPaths, searching for them in
+     * parallel, and passes each route to onRoute along with the index of its query as
+     * soon as it is found. Routes therefore arrive in no particular order, but onRoute is
+     * never called by two threads at once. Each search is given ROUTE_TIMEOUT_SECONDS
+     * to finish, and all of them stop once DEADLINE expires. If onRoute throws, e.g.
+     * because the client it writes to has gone, DEADLINE is cancelled so that the
+     * searches still running stop early and the rest are skipped, and the exception is
+     * rethrown.
+     * @param g The graph to use.
+     * @param queries The origins and destinations.
+     * @param algorithm The algorithm to search with.
+     * @param deadline When to give up on the whole batch.
+     * @param onRoute Receives each route and the index of its query.
+     */
+    public static void shortestPaths(AugmentedStreetMapGraph g, List<Query> queries,
+                                     Algorithm algorithm, Deadline deadline,
+                                     ObjIntConsumer<RouteCache.Route> onRoute) {
+        double[][] starts = new double[queries.size()][];
+        double[][] ends = new double[queries.size()][];
+        for (int i = 0; i < queries.size(); i++) {
+            Query q = queries.get(i);
+            starts[i] = new double[]{q.stlon, q.stlat};
+            ends[i] = new double[]{q.destlon, q.destlat};
+        }
+        long[] srcs = closest(g, starts);
+        long[] dests = closest(g, ends);
+        Object lock = new Object();
+        List<ForkJoinTask<?>> searches = new ArrayList<>(srcs.length);
+        for (int q = 0; q < srcs.length; q++) {
+            int i = q;
+            searches.add(ForkJoinTask.adapt(() -> {
+                if (deadline.isCancelled()) {
+                    return;
+                }
+                RouteCache.Route route = cachedRoute(g, srcs[i], dests[i], algorithm,
+                        deadline.within(Constants.ROUTE_TIMEOUT_SECONDS));
+                synchronized (lock) {
+                    if (deadline.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        onRoute.accept(route, i);
+                    } catch (RuntimeException | Error e) {
+                        deadline.cancel();
+                        throw e;
+                    }
+                }
+            }));
+        }
+        /* invokeAll forks the searches into the pool it is called from, so call it there. */
+        BATCH_POOL.submit(() -> ForkJoinTask.invokeAll(searches)).join();
+    }
+
+    /**
+     * Returns the node that routes from or to the given location start or end at: the
+     * closest node, or the closest in the largest component if SNAP_TO_LARGEST_COMPONENT.
+     */
+    private static long snap(AugmentedStreetMapGraph g, double lon, double lat) {
+        return Constants.SNAP_TO_LARGEST_COMPONENT
+                ? g.closestInLargestComponent(lon, lat) : g.closest(lon, lat);
+    }
+
+    /**
+     * Returns the route from SRC to DEST found by ALGORITHM before DEADLINE, from G's
+     * route cache if there. Pairs the graph's components show to be disconnected are
+     * rejected without a search.
+     */
+    private static RouteCache.Route cachedRoute(AugmentedStreetMapGraph g, long src, long dest,
+                                                Algorithm algorithm, Deadline deadline) {
+        if (g.components().unreachable(g.indexOf(src), g.indexOf(dest))) {
+            return new RouteCache.Route(new long[0], 0.0, SolverOutcome.UNSOLVABLE);
+        }
+        return g.routeCache().get(src, dest, algorithm, deadline,
+                () -> solver(g, src, dest, algorithm, deadline));
+    }
+
+    private static List<Long> toList(long[] path) {
+        List<Long> list = new ArrayList<>(path.length);
+        for (long id : path) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the ids of the nodes closest to each of the given locations.
+     * @param g The graph to use.
+     * @param points The locations, each as {longitude, latitude}.
+     * @return The id of the node closest to points[i] at index i.
+     */
+    public static long[] closest(AugmentedStreetMapGraph g, double[][] points) {
+        long[] ids = new long[points.length];
+        for (int i = 0; i < points.length; i++) {
+            ids[i] = snap(g, points[i][0], points[i][1]);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the table of shortest path distances between every source node and every
+     * target node, found by one search per source, or per target if there are fewer targets.
+     * Those searches would not see a weight overlay, so this throws an IllegalStateException
+     * while one is in use.
+     * @param g The graph to use.
+     * @param sources The ids of the source nodes.
+     * @param targets The ids of the target nodes.
+     * @return A matrix whose entry [i][j] is the distance in miles from sources[i] to
+     * targets[j], or infinity if there is no path between them.
+     */
+    public static double[][] distanceMatrix(AugmentedStreetMapGraph g, long[] sources,
+                                            long[] targets) {
+        if (g.hasWeightOverlay()) {
+            throw new IllegalStateException(OVERLAY_UNSUPPORTED);
+        }
+        return DistanceMatrix.of(g, indicesOf(g, sources), indicesOf(g, targets));
+    }
+
+    /**
+     * Returns the nodes reachable within a distance budget from the node closest to a
+     * location, with their shortest path distances from it. The search would not see a
+     * weight overlay, so this throws an IllegalStateException while one is in use.
+     * @param g The graph to use.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @param budget The largest distance to search, in miles.
+     * @return The indices of the nodes reached in g, in order of increasing distance.
+     */
+    public static Reachability reachable(AugmentedStreetMapGraph g, double lon, double lat,
+                                         double budget) {
+        if (g.hasWeightOverlay()) {
+            throw new IllegalStateException(OVERLAY_UNSUPPORTED);
+        }
+        return Reachability.within(g, g.indexOf(snap(g, lon, lat)), budget);
+    }
+
+    private static int[] indicesOf(AugmentedStreetMapGraph g, long[] ids) {
+        int[] indices = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            indices[i] = g.indexOf(ids[i]);
+        }
+        return indices;
+    }
+
+    /** Returns a solver that has run ALGORITHM from SRC to DEST on G, or until DEADLINE. */
+    private static ShortestPathsSolver<Long> solver(AugmentedStreetMapGraph g, long src, long dest,
+                                                    Algorithm algorithm, Deadline deadline) {
+        switch (algorithm) {
+            case BIDIRECTIONAL_ASTAR:
+                return new BidirectionalAStarSolver<>(g, src, dest, deadline);
+            case ALT:
+                return new AStarSolver<>(new ALTGraph<>(g, g.landmarks()), src, dest, deadline);
+            case CONTRACTION_HIERARCHY:
+                ContractionHierarchy ch = g.currentContractionHierarchy();
+                return ch != null ? new CHSolver<>(ch, g, src, dest, deadline)
+                        : new AStarSolver<>(g, src, dest, deadline);
+            case ARC_FLAGS:
+                return new AStarSolver<>(new ArcFlagsGraph<>(g, g.arcFlags()), src, dest, deadline);
+            case ASTAR:
+            default:
+                return new AStarSolver<>(g, src, dest, deadline);
+        }
     }
 
     /**
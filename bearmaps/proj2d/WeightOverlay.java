@@ -0,0 +1,167 @@
+package bearmaps.proj2d;
+
+import bearmaps.proj2c.ContractionHierarchy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live edge weights for an AugmentedStreetMapGraph, read from a text file of
+ * overrides such as traffic or closures, one edge per line:
+ *
+ *     from_id to_id factor
+ *
+ * which multiplies the length of the edge from node from_id to node to_id by
+ * factor, or closes it if factor is inf. A road closed both ways needs a line
+ * per direction. Blank lines and lines starting with # are skipped, and edges
+ * not listed keep their lengths. Applying an overlay customizes the graph's
+ * customizable contraction hierarchy with the new weights and uses the result
+ * in place of the hierarchy and hub labels of its lengths, so only contraction
+ * hierarchy routing and distances see them: draft routes are found exactly in
+ * the meantime, and distance matrices and isochrones are refused. Removing the
+ * overlay restores the hierarchy and hub labels of the lengths, which answer
+ * queries several times faster than a customized one.
+ *
+ * @author Rui Gao
+ */
+public class WeightOverlay {
+    private WeightOverlay() {
+    }
+
+    /**
+     * Returns the weight of each edge of G, by index, with the overrides in the file at
+     * PATH applied. Throws an IOException naming the line if one is malformed or names
+     * an edge G does not have.
+     */
+    public static double[] read(AugmentedStreetMapGraph g, String path) throws IOException {
+        double[] weights = baseWeights(g);
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(path),
+                StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber += 1;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                int e;
+                double factor;
+                try {
+                    if (fields.length != 3) {
+                        throw new NumberFormatException();
+                    }
+                    e = edge(g, Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+                    factor = parseFactor(fields[2]);
+                } catch (NumberFormatException ex) {
+                    throw new IOException(path + ":" + lineNumber + ": expected "
+                            + "\"from_id to_id factor\" but got \"" + line + "\"");
+                }
+                if (e < 0) {
+                    throw new IOException(path + ":" + lineNumber + ": no edge from "
+                            + fields[0] + " to " + fields[1]);
+                }
+                weights[e] = g.edgeWeight(e) * factor;
+            }
+        }
+        return weights;
+    }
+
+    /* Returns the factor in FIELD, which must be inf, infinity, or a number of at least 0. */
+    private static double parseFactor(String field) {
+        if (field.equalsIgnoreCase("inf") || field.equalsIgnoreCase("infinity")) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double factor = Double.parseDouble(field);
+        if (!(factor >= 0)) {
+            throw new NumberFormatException();
+        }
+        return factor;
+    }
+
+    /* Returns the lengths of the edges of G, by index. */
+    private static double[] baseWeights(AugmentedStreetMapGraph g) {
+        int n = g.numVertices();
+        double[] weights = new double[n == 0 ? 0 : g.lastEdge(n - 1)];
+        for (int v = 0; v < n; v++) {
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                weights[e] = g.edgeWeight(e);
+            }
+        }
+        return weights;
+    }
+
+    /* Returns the index of the shortest edge from node FROM to node TO, or -1 if none. */
+    private static int edge(AugmentedStreetMapGraph g, long from, long to) {
+        int v = g.indexOf(from);
+        int w = g.indexOf(to);
+        if (v < 0 || w < 0) {
+            return -1;
+        }
+        int best = -1;
+        for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+            if (g.edgeTarget(e) == w && (best < 0 || g.edgeWeight(e) < g.edgeWeight(best))) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Customizes G with the overrides in the file at PATH and uses the result as G's
+     * weight overlay, or stops using one if there is no such file. Routes being searched
+     * meanwhile finish with the previous hierarchy.
+     */
+    public static void apply(AugmentedStreetMapGraph g, String path) throws IOException {
+        if (!Files.exists(Paths.get(path))) {
+            g.setWeightOverlay(null);
+            return;
+        }
+        ContractionHierarchy ch = g.customizableHierarchy().customize(g, read(g, path));
+        g.setWeightOverlay(ch);
+    }
+
+    /**
+     * Applies the overrides in the file at PATH to G now if it exists, and again every
+     * time it changes, checking every PERIOD_SECONDS on a daemon thread. A file that
+     * cannot be read is reported and leaves the previous weights in place; a file that
+     * is removed restores the hierarchy and hub labels of the lengths. While there is no
+     * file G is left alone, so it keeps them. Shut down the returned executor to stop
+     * watching.
+     */
+    public static ScheduledExecutorService watch(AugmentedStreetMapGraph g, String path,
+                                                 double periodSeconds) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "weight-overlay");
+            t.setDaemon(true);
+            return t;
+        });
+        Path file = Paths.get(path);
+        /* The modification time of the file last applied, or null for none, so that the
+         * checks before there is a file find nothing to do. */
+        FileTime[] applied = new FileTime[1];
+        long periodMillis = Math.max(1, Math.round(periodSeconds * 1000));
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                FileTime modified = Files.exists(file) ? Files.getLastModifiedTime(file) : null;
+                if (!Objects.equals(modified, applied[0])) {
+                    applied[0] = modified;
+                    apply(g, path);
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+}
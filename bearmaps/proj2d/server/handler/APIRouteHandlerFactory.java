@@ -19,9 +19,14 @@ public class APIRouteHandlerFactory {
     static {
         handlerMap = new HashMap<>();
         handlerMap.put("raster", new RasterAPIHandler());
+        handlerMap.put("raster.png", new RasterImageAPIHandler());
         handlerMap.put("route", new RoutingAPIHandler());
+        handlerMap.put("routes", new RoutesAPIHandler());
+        handlerMap.put("distance", new DistanceAPIHandler());
         handlerMap.put("clear_route", new ClearRouteAPIHandler());
         handlerMap.put("search", new SearchAPIHandler());
+        handlerMap.put("matrix", new MatrixAPIHandler());
+        handlerMap.put("isochrone", new IsochroneAPIHandler());
         handlerMap.put("", new RedirectAPIHandler());
     }
 
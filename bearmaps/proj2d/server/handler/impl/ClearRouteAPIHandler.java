@@ -4,11 +4,12 @@ import bearmaps.proj2d.server.handler.APIRouteHandler;
 import spark.Request;
 import spark.Response;
 
-import static bearmaps.proj2d.utils.Constants.ROUTE_LIST;
+import static bearmaps.proj2d.utils.Constants.ROUTE_STORE;
 
 
 /**
- * Handles the "Clear Route" button in Bearmaps.
+ * Handles the "Clear Route" button in Bearmaps, forgetting the route whose token
+ * is given as the route_token parameter.
  * Created by rahul
  */
 public class ClearRouteAPIHandler extends APIRouteHandler {
@@ -16,12 +17,12 @@ public class ClearRouteAPIHandler extends APIRouteHandler {
 
     @Override
     protected Object parseRequestParams(Request request) {
-        return null;
+        return request.queryParams("route_token");
     }
 
     @Override
     protected Object processRequest(Object requestParams, Response response) {
-        ROUTE_LIST.clear();
+        ROUTE_STORE.remove((String) requestParams);
         return true;
     }
 }
@@ -0,0 +1,59 @@
+package bearmaps.proj2d.server.handler.impl;
+
+import bearmaps.proj2c.Deadline;
+import bearmaps.proj2c.SolverOutcome;
+import bearmaps.proj2d.RouteCache;
+import bearmaps.proj2d.Router;
+import bearmaps.proj2d.server.handler.APIRouteHandler;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.proj2d.utils.Constants.ROUTE_TIMEOUT_SECONDS;
+import static bearmaps.proj2d.utils.Constants.SEMANTIC_STREET_GRAPH;
+
+/**
+ * Handles requests for the length of the shortest path between two locations,
+ * without the path itself, which the hub labels answer without a search.
+ * @author Rui Gao
+ */
+public class DistanceAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+
+    /**
+     * Each distance request to the server will have the same parameters as a route request:
+     * start_lat, start_lon, end_lat and end_lon.
+     */
+    private static final String[] REQUIRED_DISTANCE_REQUEST_PARAMS = {"start_lat", "start_lon",
+            "end_lat", "end_lon"};
+
+    @Override
+    protected Map<String, Double> parseRequestParams(Request request) {
+        return getRequestParams(request, REQUIRED_DISTANCE_REQUEST_PARAMS);
+    }
+
+    /**
+     * Finds the shortest path distance between the nodes closest to the two locations.
+     * @return A map of results for the client: <br>
+     * "distance_success" : Boolean, whether there is a path between the locations.<br>
+     * "distance"         : Double, the length of the shortest path in miles, if there is one.<br>
+     * "timed_out"        : Boolean, whether the search gave up before finding the distance.
+     */
+    @Override
+    protected Map<String, Object> processRequest(Map<String, Double> requestParams,
+                                                 Response response) {
+        RouteCache.Route found = Router.findDistance(SEMANTIC_STREET_GRAPH,
+                requestParams.get("start_lon"), requestParams.get("start_lat"),
+                requestParams.get("end_lon"), requestParams.get("end_lat"),
+                Deadline.after(ROUTE_TIMEOUT_SECONDS));
+        Map<String, Object> result = new HashMap<>();
+        boolean success = found.outcome() == SolverOutcome.SOLVED;
+        result.put("distance_success", success);
+        if (success) {
+            result.put("distance", found.weight());
+        }
+        result.put("timed_out", found.outcome() == SolverOutcome.TIMEOUT);
+        return result;
+    }
+}
@@ -0,0 +1,99 @@
+package bearmaps.proj2d.server.handler.impl;
+
+import bearmaps.proj2ab.ConvexHull;
+import bearmaps.proj2c.Reachability;
+import bearmaps.proj2c.streetmap.CSRGraph;
+import bearmaps.proj2d.Router;
+import bearmaps.proj2d.server.handler.APIRouteHandler;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.proj2d.utils.Constants.DISTANCE_SCALE;
+import static bearmaps.proj2d.utils.Constants.ISOCHRONE_MAX_MILES;
+import static bearmaps.proj2d.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the area reachable within a distance of a location. The
+ * area is given as the convex hull of the nodes reached, and the nodes themselves
+ * are listed too if the nodes parameter is true. Requests are refused while a
+ * weight overlay is in use, as the search would ignore it.
+ * @author Rui Gao
+ */
+public class IsochroneAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /**
+     * Each isochrone request to the server will have the following parameters
+     * as keys in the params map.<br>
+     * lon : location longitude,<br> lat : location latitude,<br>
+     * distance : the distance budget in miles.
+     */
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat", "distance"};
+
+    @Override
+    protected Map<String, Double> parseRequestParams(Request request) {
+        Map<String, Double> params = getRequestParams(request, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+        double distance = params.get("distance");
+        if (!(distance >= 0 && distance <= ISOCHRONE_MAX_MILES)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - distance must be between 0 and "
+                    + ISOCHRONE_MAX_MILES + " miles.");
+        }
+        params.put("nodes", "true".equals(request.queryParams("nodes")) ? 1.0 : 0.0);
+        return params;
+    }
+
+    /**
+     * Finds the nodes reachable within the distance budget from the node closest to
+     * the location.
+     * @return A map of results for the client: <br>
+     * "source"    : long, the id of the node the location snapped to.<br>
+     * "num_nodes" : int, the number of nodes reached.<br>
+     * "hull"      : double[][], the {lon, lat} of the corners of the convex hull of the
+     *               nodes reached, counterclockwise.<br>
+     * "nodes"     : long[], only if requested, the ids of the nodes reached, nearest first.<br>
+     * "distances" : double[], only if requested, the distance in miles to each of them.
+     */
+    @Override
+    protected Map<String, Object> processRequest(Map<String, Double> requestParams,
+                                                 Response response) {
+        if (SEMANTIC_STREET_GRAPH.hasWeightOverlay()) {
+            halt(HALT_RESPONSE, Router.OVERLAY_UNSUPPORTED);
+        }
+        Reachability reached = Router.reachable(SEMANTIC_STREET_GRAPH, requestParams.get("lon"),
+                requestParams.get("lat"), requestParams.get("distance"));
+        CSRGraph csr = SEMANTIC_STREET_GRAPH.csr();
+        int n = reached.size();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int i = 0; i < n; i++) {
+            lons[i] = csr.lon(reached.vertex(i));
+            lats[i] = csr.lat(reached.vertex(i));
+        }
+        int[] corners = ConvexHull.of(lons, lats);
+        double[][] hull = new double[corners.length][];
+        for (int i = 0; i < corners.length; i++) {
+            hull[i] = new double[]{lons[corners[i]], lats[corners[i]]};
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("source", n > 0 ? SEMANTIC_STREET_GRAPH.vertex(reached.vertex(0)) : null);
+        result.put("num_nodes", n);
+        result.put("hull", hull);
+        if (requestParams.get("nodes") > 0) {
+            long[] nodes = new long[n];
+            double[] distances = new double[n];
+            for (int i = 0; i < n; i++) {
+                nodes[i] = SEMANTIC_STREET_GRAPH.vertex(reached.vertex(i));
+                distances[i] = Math.round(reached.distance(i) * DISTANCE_SCALE) / DISTANCE_SCALE;
+            }
+            result.put("nodes", nodes);
+            result.put("distances", distances);
+        }
+        return result;
+    }
+}
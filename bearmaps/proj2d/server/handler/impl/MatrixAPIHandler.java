@@ -0,0 +1,99 @@
+package bearmaps.proj2d.server.handler.impl;
+
+import bearmaps.proj2d.Router;
+import bearmaps.proj2d.server.handler.APIRouteHandler;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.proj2d.utils.Constants.DISTANCE_SCALE;
+import static bearmaps.proj2d.utils.Constants.MATRIX_MAX_LOCATIONS;
+import static bearmaps.proj2d.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the shortest path distances between many sources and many
+ * targets at once. The sources and targets parameters each list locations as
+ * lon,lat pairs separated by semicolons, e.g. sources=-122.26,37.87;-122.25,37.86.
+ * Long lists can be sent as a form-encoded POST body instead of in the URL.
+ * Requests are refused while a weight overlay is in use, as the searches would
+ * ignore it.
+ * @author Rui Gao
+ */
+public class MatrixAPIHandler extends APIRouteHandler<Map<String, double[][]>, Map<String, Object>> {
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    private static final String[] REQUIRED_MATRIX_REQUEST_PARAMS = {"sources", "targets"};
+
+    @Override
+    protected Map<String, double[][]> parseRequestParams(Request request) {
+        Map<String, double[][]> params = new HashMap<>();
+        for (String param : REQUIRED_MATRIX_REQUEST_PARAMS) {
+            String value = request.queryParams(param);
+            if (value == null) {
+                halt(HALT_RESPONSE, "Request failed - parameters missing.");
+            }
+            params.put(param, parseLocations(value));
+        }
+        return params;
+    }
+
+    /** Parses a list of lon,lat pairs separated by semicolons. */
+    private static double[][] parseLocations(String value) {
+        String[] pairs = value.split(";");
+        if (pairs.length > MATRIX_MAX_LOCATIONS) {
+            halt(HALT_RESPONSE, "Too many locations - at most " + MATRIX_MAX_LOCATIONS + ".");
+        }
+        double[][] locations = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                locations[i] = new double[]{Double.parseDouble(lonLat[0].trim()),
+                        Double.parseDouble(lonLat[1].trim())};
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Snaps the sources and targets to their closest nodes and finds the shortest path
+     * distances between them.
+     * @return A map of results for the client: <br>
+     * "sources"   : long[], the ids of the nodes the sources snapped to.<br>
+     * "targets"   : long[], the ids of the nodes the targets snapped to.<br>
+     * "distances" : Double[][], the distance in miles from sources[i] to targets[j] at
+     *               [i][j], or null if there is no path between them.
+     */
+    @Override
+    protected Map<String, Object> processRequest(Map<String, double[][]> requestParams,
+                                                 Response response) {
+        if (SEMANTIC_STREET_GRAPH.hasWeightOverlay()) {
+            halt(HALT_RESPONSE, Router.OVERLAY_UNSUPPORTED);
+        }
+        long[] sources = Router.closest(SEMANTIC_STREET_GRAPH, requestParams.get("sources"));
+        long[] targets = Router.closest(SEMANTIC_STREET_GRAPH, requestParams.get("targets"));
+        double[][] matrix = Router.distanceMatrix(SEMANTIC_STREET_GRAPH, sources, targets);
+        Double[][] distances = new Double[sources.length][targets.length];
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < targets.length; j++) {
+                double d = matrix[i][j];
+                /* JSON has no infinity, so unreachable targets are null. */
+                distances[i][j] = d == Double.POSITIVE_INFINITY ? null
+                        : Math.round(d * DISTANCE_SCALE) / DISTANCE_SCALE;
+            }
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("sources", sources);
+        result.put("targets", targets);
+        result.put("distances", distances);
+        return result;
+    }
+}
@@ -6,19 +6,29 @@ import spark.Request;
 import spark.Response;
 import bearmaps.proj2d.utils.Constants;
 
+import bearmaps.proj2d.utils.PngEncoder;
+
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import static bearmaps.proj2d.utils.Constants.SEMANTIC_STREET_GRAPH;
-import static bearmaps.proj2d.utils.Constants.ROUTE_LIST;
+import static bearmaps.proj2d.utils.Constants.ROUTE_STORE;
 
 /**
  * Handles requests from the web browser for map images. These images
@@ -33,7 +43,8 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      * i.e., params.get("ullat") inside RasterAPIHandler.processRequest(). <br>
      * ullat : upper left corner latitude, <br> ullon : upper left corner longitude, <br>
      * lrlat : lower right corner latitude,<br> lrlon : lower right corner longitude <br>
-     * w : user viewport window width in pixels,<br> h : user viewport height in pixels.
+     * w : user viewport window width in pixels,<br> h : user viewport height in pixels. <br>
+     * A request may also pass the route_token of a route to draw on the raster.
      **/
     private static final String[] REQUIRED_RASTER_REQUEST_PARAMS = {"ullat", "ullon", "lrlat",
             "lrlon", "w", "h"};
@@ -46,6 +57,15 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
             "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
 
 
+    /** Encodes rastered PNGs; see Constants.RASTER_PNG_DEFLATE_LEVEL. */
+    private static final PngEncoder PNG_ENCODER = new PngEncoder(Constants.RASTER_PNG_DEFLATE_LEVEL,
+            Constants.RASTER_PNG_FILTER);
+
+    static {
+        /* Encode rasters in memory rather than through a temporary file per image. */
+        ImageIO.setUseCache(false);
+    }
+
     @Override
     protected Map<String, Double> parseRequestParams(Request request) {
         return getRequestParams(request, REQUIRED_RASTER_REQUEST_PARAMS);
@@ -190,14 +210,33 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     }
 
     @Override
-    protected Object buildJsonResponse(Map<String, Object> result) {
+    public Object handle(Request request, Response response) throws Exception {
+        Map<String, Double> requestParams = parseRequestParams(request);
+        Map<String, Object> result = processRequest(requestParams, response);
+        return buildJsonResponse(result, routeOf(request));
+    }
+
+    /**
+     * Returns the route whose token the request passed as route_token, or null if it
+     * passed none or the route has expired.
+     */
+    protected static long[] routeOf(Request request) {
+        return ROUTE_STORE.get(request.queryParams("route_token"));
+    }
+
+    /** Builds the JSON response for RESULT, with ROUTE drawn on the image if it is not null. */
+    private Object buildJsonResponse(Map<String, Object> result, long[] route) {
         boolean rasterSuccess = validateRasteredImgParams(result);
 
         if (rasterSuccess) {
+            /* Encode to Base64 while the PNG is written, rather than copying it afterwards. */
             ByteArrayOutputStream os = new ByteArrayOutputStream();
-            writeImagesToOutputStream(result, os);
-            String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
-            result.put("b64_encoded_image_data", encodedImage);
+            try (OutputStream b64 = Base64.getEncoder().wrap(os)) {
+                PNG_ENCODER.write(renderImage(result, route), b64);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            result.put("b64_encoded_image_data", new String(os.toByteArray(), StandardCharsets.US_ASCII));
         }
         return super.buildJsonResponse(result);
     }
@@ -218,7 +257,7 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
      * Validates that Rasterer has returned a result that can be rendered.
      * @param rip : Parameters provided by the rasterer
      */
-    private boolean validateRasteredImgParams(Map<String, Object> rip) {
+    protected boolean validateRasteredImgParams(Map<String, Object> rip) {
         for (String p : REQUIRED_RASTER_RESULT_PARAMS) {
             if (!rip.containsKey(p)) {
                 System.out.println("Your rastering result is missing the " + p + " field.");
@@ -236,12 +275,12 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
     }
 
     /**
-     * Writes the images corresponding to rasteredImgParams to the output stream.
+     * Draws the images corresponding to rasteredImgParams, and the route if it is not null,
+     * into a single image, and adds its raster_width and raster_height to rasteredImgParams.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we made this into provided code since it was just a bit too low level.
      */
-    private  void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
-                                                  ByteArrayOutputStream os) {
+    protected BufferedImage renderImage(Map<String, Object> rasteredImageParams, long[] route) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
         int numVertTiles = renderGrid.length;
         int numHorizTiles = renderGrid[0].length;
@@ -249,18 +288,18 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         BufferedImage img = new BufferedImage(numHorizTiles * Constants.TILE_SIZE,
                 numVertTiles * Constants.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
         Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(Constants.IMG_ROOT + renderGrid[r][c]), x, y, null);
-                x += Constants.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += Constants.TILE_SIZE;
-                }
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        /* Tiles are fetched, and decoded on a cache miss, in parallel. Each one is copied
+         * into its own region of the raster, so the copies need no locking. */
+        IntStream.range(0, numVertTiles * numHorizTiles).parallel().forEach(i -> {
+            int r = i / numHorizTiles;
+            int c = i % numHorizTiles;
+            BufferedImage tile = getImage(Constants.IMG_ROOT + renderGrid[r][c]);
+            if (tile != null) {
+                copyTile(tile, img, pixels, c * Constants.TILE_SIZE, r * Constants.TILE_SIZE);
             }
-        }
+        });
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -271,44 +310,76 @@ public class RasterAPIHandler extends APIRouteHandler<Map<String, Double>, Map<S
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
         AugmentedStreetMapGraph graph = SEMANTIC_STREET_GRAPH;
-        List<Long> route = ROUTE_LIST;
 
-        if (route != null && !route.isEmpty()) {
+        if (route != null && route.length > 0) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(Constants.ROUTE_STROKE_COLOR);
             g2d.setStroke(new BasicStroke(Constants.ROUTE_STROKE_WIDTH_PX,
                     BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            route.stream().reduce((v, w) -> {
+            for (int i = 0; i + 1 < route.length; i++) {
+                long v = route[i];
+                long w = route[i + 1];
                 g2d.drawLine((int) ((graph.lon(v) - ullon) * (1 / wdpp)),
                         (int) ((ullat - graph.lat(v)) * (1 / hdpp)),
                         (int) ((graph.lon(w) - ullon) * (1 / wdpp)),
                         (int) ((ullat - graph.lat(w)) * (1 / hdpp)));
-                return w;
-            });
+            }
         }
 
         rasteredImageParams.put("raster_width", img.getWidth());
         rasteredImageParams.put("raster_height", img.getHeight());
+        return img;
+    }
 
-        try {
-            ImageIO.write(img, "png", os);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Writes IMG to OS as a PNG, or as a JPEG of quality Constants.RASTER_JPEG_QUALITY if
+     * JPEG is true. JPEGs are several times smaller, but blur the text on the map.
+     */
+    protected static void writeImage(BufferedImage img, boolean jpeg, OutputStream os)
+            throws IOException {
+        if (!jpeg) {
+            PNG_ENCODER.write(img, os);
+            return;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(Constants.RASTER_JPEG_QUALITY);
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(os)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
         }
-
     }
 
-    private BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                //File in = new File(imgPath);
-                //tileImg = ImageIO.read(in);
-                tileImg = ImageIO.read(Thread.currentThread().getContextClassLoader().getResource(imgPath));
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
+    /**
+     * Copies TILE into IMG, whose TYPE_INT_RGB pixels are PIXELS, with its upper left
+     * corner at (X, Y). Indexed tiles are copied row by row through their palette, and
+     * other tiles through getRGB.
+     */
+    private static void copyTile(BufferedImage tile, BufferedImage img, int[] pixels, int x, int y) {
+        int width = Math.min(tile.getWidth(), img.getWidth() - x);
+        int height = Math.min(tile.getHeight(), img.getHeight() - y);
+        if (!(tile.getColorModel() instanceof IndexColorModel)) {
+            tile.getRGB(0, 0, width, height, pixels, y * img.getWidth() + x, img.getWidth());
+            return;
+        }
+        IndexColorModel palette = (IndexColorModel) tile.getColorModel();
+        int[] rgbs = new int[palette.getMapSize()];
+        palette.getRGBs(rgbs);
+        WritableRaster raster = tile.getRaster();
+        int[] row = new int[width];
+        for (int ty = 0; ty < height; ty++) {
+            raster.getSamples(0, ty, width, 1, 0, row);
+            int offset = (y + ty) * img.getWidth() + x;
+            for (int tx = 0; tx < width; tx++) {
+                pixels[offset + tx] = rgbs[row[tx]];
             }
         }
-        return tileImg;
+    }
+
+    private BufferedImage getImage(String imgPath) {
+        return Constants.TILE_CACHE.get(imgPath);
     }
 }
@@ -0,0 +1,58 @@
+package bearmaps.proj2d.server.handler.impl;
+
+import spark.Request;
+import spark.Response;
+
+import java.awt.image.BufferedImage;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Handles the same requests as RasterAPIHandler, but streams the rastered PNG
+ * straight to the response instead of embedding it as Base64 in JSON. The other
+ * raster results are sent as headers, e.g. raster_ul_lon as X-Raster-Ul-Lon.
+ * The optional format parameter picks the encoding: png (the default) or jpeg.
+ * A query without coverage gets an empty 204 response.
+ * @author Rui Gao
+ */
+public class RasterImageAPIHandler extends RasterAPIHandler {
+    /** HTTP response for a query that rasters no tiles. */
+    private static final int NO_CONTENT = 204;
+
+    /** The raster results that are sent as headers. */
+    private static final String[] HEADER_RESULT_PARAMS = {"raster_ul_lon", "raster_ul_lat",
+            "raster_lr_lon", "raster_lr_lat", "depth", "raster_width", "raster_height"};
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        Map<String, Double> requestParams = parseRequestParams(request);
+        Map<String, Object> result = processRequest(requestParams, response);
+        if (!validateRasteredImgParams(result)) {
+            response.status(NO_CONTENT);
+            return "";
+        }
+        boolean jpeg = "jpeg".equals(request.queryParams("format"));
+        BufferedImage img = renderImage(result, routeOf(request));
+        StringBuilder exposed = new StringBuilder();
+        for (String param : HEADER_RESULT_PARAMS) {
+            response.header(headerName(param), String.valueOf(result.get(param)));
+            exposed.append(exposed.length() > 0 ? ", " : "").append(headerName(param));
+        }
+        response.header("Access-Control-Expose-Headers", exposed.toString());
+        response.type(jpeg ? "image/jpeg" : "image/png");
+        /* Spark does not write a body once the response has been committed. */
+        try (OutputStream os = response.raw().getOutputStream()) {
+            writeImage(img, jpeg, os);
+        }
+        return "";
+    }
+
+    /** Returns the header a raster result is sent as, e.g. X-Raster-Ul-Lon for raster_ul_lon. */
+    static String headerName(String param) {
+        StringBuilder name = new StringBuilder("X-Raster");
+        for (String word : param.replaceFirst("^raster_", "").split("_")) {
+            name.append('-').append(Character.toUpperCase(word.charAt(0))).append(word.substring(1));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package bearmaps.proj2d.server.handler.impl;
+
+import bearmaps.proj2c.Deadline;
+import bearmaps.proj2c.SolverOutcome;
+import bearmaps.proj2d.Router;
+import bearmaps.proj2d.server.handler.APIRouteHandler;
+import com.google.gson.Gson;
+import spark.Request;
+import spark.Response;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bearmaps.proj2d.utils.Constants.ROUTES_MAX_QUERIES;
+import static bearmaps.proj2d.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the routes between many origin/destination pairs at once.
+ * The queries parameter lists them separated by semicolons, each as
+ * start_lon,start_lat,end_lon,end_lat. Long lists can be sent as a form-encoded
+ * POST body instead of in the URL. The routes are searched for in parallel and
+ * streamed back as newline-delimited JSON, one line per route as soon as it is
+ * found, so they arrive in no particular order:
+ * {"index":0,"routing_success":true,"weight":1.23,"route":[...]}
+ * A search that runs out of time is reported with "timed_out":true instead, along
+ * with the partial route it had found, if any.
+ * @author Rui Gao
+ */
+public class RoutesAPIHandler extends APIRouteHandler<List<Router.Query>, Object> {
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    private final Gson gson = new Gson();
+
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        List<Router.Query> queries = parseRequestParams(request);
+        response.type("application/x-ndjson");
+        processRequest(queries, response);
+        return "";
+    }
+
+    @Override
+    protected List<Router.Query> parseRequestParams(Request request) {
+        String value = request.queryParams("queries");
+        if (value == null) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] parts = value.split(";");
+        if (parts.length > ROUTES_MAX_QUERIES) {
+            halt(HALT_RESPONSE, "Too many queries - at most " + ROUTES_MAX_QUERIES + ".");
+        }
+        List<Router.Query> queries = new ArrayList<>(parts.length);
+        for (String part : parts) {
+            String[] coords = part.split(",");
+            try {
+                if (coords.length != 4) {
+                    throw new NumberFormatException(part);
+                }
+                queries.add(new Router.Query(Double.parseDouble(coords[0].trim()),
+                        Double.parseDouble(coords[1].trim()), Double.parseDouble(coords[2].trim()),
+                        Double.parseDouble(coords[3].trim())));
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide start_lon,start_lat,"
+                        + "end_lon,end_lat for each query.");
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Finds the routes of all QUERIES and writes each to the response as soon as it is
+     * found. Spark does not write a body once the response has been committed, so this
+     * returns nothing. Jetty only notices that a client has disconnected when writing to
+     * it fails, which cancels the searches still running and skips the rest.
+     */
+    @Override
+    protected Object processRequest(List<Router.Query> queries, Response response) {
+        try (Writer out = new OutputStreamWriter(response.raw().getOutputStream(),
+                StandardCharsets.UTF_8)) {
+            Router.shortestPaths(SEMANTIC_STREET_GRAPH, queries,
+                    Router.Algorithm.CONTRACTION_HIERARCHY, Deadline.never(), (route, index) -> {
+                        boolean solved = route.outcome() == SolverOutcome.SOLVED;
+                        Map<String, Object> line = new LinkedHashMap<>();
+                        line.put("index", index);
+                        line.put("routing_success", solved);
+                        if (solved) {
+                            line.put("weight", route.weight());
+                            line.put("route", route.path());
+                        } else if (route.outcome() == SolverOutcome.TIMEOUT) {
+                            line.put("timed_out", true);
+                            line.put("partial_route", route.path());
+                        }
+                        try {
+                            out.write(gson.toJson(line));
+                            out.write('\n');
+                            out.flush();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+}
@@ -1,16 +1,22 @@
 package bearmaps.proj2d.server.handler.impl;
 
+import bearmaps.proj2c.Deadline;
+import bearmaps.proj2c.SolverOutcome;
+import bearmaps.proj2d.RouteCache;
 import bearmaps.proj2d.Router;
 import bearmaps.proj2d.server.handler.APIRouteHandler;
 import spark.Request;
 import spark.Response;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static bearmaps.proj2d.utils.Constants.SEMANTIC_STREET_GRAPH;
-import static bearmaps.proj2d.utils.Constants.ROUTE_LIST;
+import static bearmaps.proj2d.utils.Constants.ROUTE_STORE;
+import static bearmaps.proj2d.utils.Constants.ROUTE_TIMEOUT_SECONDS;
+import static spark.Spark.halt;
 
 /**
  * Handles requests from the web browser for routes between locations. The
@@ -18,19 +24,33 @@ import static bearmaps.proj2d.utils.Constants.ROUTE_LIST;
  * Created by rahul
  */
 public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
 
     /**
      * Each route request to the server will have the following parameters
      * as keys in the params map.<br>
      * start_lat : start point latitude,<br> start_lon : start point longitude,<br>
-     * end_lat : end point latitude, <br>end_lon : end point longitude.
+     * end_lat : end point latitude, <br>end_lon : end point longitude.<br>
+     * An optional epsilon asks for a quick draft route at most 1 + epsilon times as long
+     * as the shortest one instead.
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
             "end_lat", "end_lon"};
 
     @Override
     protected Map<String, Double> parseRequestParams(Request request) {
-        return getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+        Map<String, Double> params = getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+        String epsilon = request.queryParams("epsilon");
+        try {
+            params.put("epsilon", epsilon == null ? 0.0 : Double.parseDouble(epsilon));
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        if (!(params.get("epsilon") >= 0)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - epsilon must not be negative.");
+        }
+        return params;
     }
 
     /**
@@ -38,9 +58,8 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * street directions between the given points. THis method has been
      * completed for you.
      *
-     * The route to draw on the map should be added to the end of
-     * bearmaps.proj2d.utils.Constants.ROUTE_LIST. This is a LinkedList of longs,
-     * where each long corresponds to one point on the map.
+     * The route to draw on the map is stored in bearmaps.proj2d.utils.Constants.ROUTE_STORE
+     * as an array of node ids, under a token that later raster requests pass to draw it.
      *
      * Street directions can also be provided in the form of text as a return
      * value to this function.
@@ -52,34 +71,57 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * @return A map of results for the front end as specified: <br>
      * "routing_success" : Boolean, whether the route list should be drawn (i.e. if not empty).
      *
+     * "route_token"     : String, the token to pass to raster requests to draw the route,
+     *                     or null if there is no route.
+     *
+     * "timed_out"       : Boolean, whether the search gave up before finding the route.
+     *
+     * "suboptimality_bound" : Double, how many times the shortest route's length the route
+     *                         can be at most, which is 1 unless a draft was requested.
+     *
      * "directions_success" : Boolean, whether the query generated text directions (i.e. if
      *                        length of directions is > 0).
      * "directions"      : String. The text directions you want to display, in HTML format.
      */
     @Override
     protected Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
-        List<Long> route = Router.shortestPath(
-                SEMANTIC_STREET_GRAPH,
-                requestParams.get("start_lon"), requestParams.get("start_lat"),
-                requestParams.get("end_lon"), requestParams.get("end_lat"));
-        ROUTE_LIST.clear();
-        ROUTE_LIST.addAll(route);
-        String directions = getDirectionsText();
+        double epsilon = requestParams.get("epsilon");
+        RouteCache.Route found = epsilon > 0
+                ? Router.draftRoute(SEMANTIC_STREET_GRAPH,
+                        requestParams.get("start_lon"), requestParams.get("start_lat"),
+                        requestParams.get("end_lon"), requestParams.get("end_lat"),
+                        epsilon, Deadline.after(ROUTE_TIMEOUT_SECONDS))
+                : Router.findRoute(SEMANTIC_STREET_GRAPH,
+                        requestParams.get("start_lon"), requestParams.get("start_lat"),
+                        requestParams.get("end_lon"), requestParams.get("end_lat"),
+                        Router.Algorithm.CONTRACTION_HIERARCHY,
+                        Deadline.after(ROUTE_TIMEOUT_SECONDS));
+        boolean timedOut = found.outcome() == SolverOutcome.TIMEOUT;
+        boolean success = found.outcome() == SolverOutcome.SOLVED && found.path().length > 0;
+        String token = success ? ROUTE_STORE.put(found.path()) : null;
+        String directions = success ? getDirectionsText(found.path()) : "";
 
         Map<String, Object> routeParams = new HashMap<>();
-        routeParams.put("routing_success", !route.isEmpty());
+        routeParams.put("routing_success", success);
+        routeParams.put("route_token", token);
+        routeParams.put("timed_out", timedOut);
+        routeParams.put("suboptimality_bound", found.outcome() == SolverOutcome.SOLVED
+                ? found.suboptimalityBound() : null);
         routeParams.put("directions_success", directions.length() > 0);
         routeParams.put("directions", directions);
         return routeParams;
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes a route and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private String getDirectionsText() {
-
-        List<Router.NavigationDirection> directions = Router.routeDirections(SEMANTIC_STREET_GRAPH, ROUTE_LIST);
+    private String getDirectionsText(long[] path) {
+        List<Long> route = new ArrayList<>(path.length);
+        for (long id : path) {
+            route.add(id);
+        }
+        List<Router.NavigationDirection> directions = Router.routeDirections(SEMANTIC_STREET_GRAPH, route);
         if (directions == null || directions.isEmpty()) {
             return "";
         }
@@ -3,8 +3,6 @@ package bearmaps.proj2d.utils;
 import bearmaps.proj2d.AugmentedStreetMapGraph;
 
 import java.awt.*;
-import java.util.LinkedList;
-import java.util.List;
 
 /**
  * A class holding all the constant values used throughout the project
@@ -27,9 +25,51 @@ public class Constants {
      **/
     public static final String OSM_DB_PATH = "library/data/proj2d_xml/berkeley-2019.osm.xml";
 
+    /**
+     * The binary graph snapshot compiled from OSM_DB_PATH by GraphSnapshot. When this file
+     * exists, the server loads it instead of parsing the OSM XML file.
+     */
+    public static final String SNAPSHOT_PATH = "library/data/proj2d_xml/berkeley-2019.bmap";
+
+    /**
+     * The contraction hierarchy built from OSM_DB_PATH by ContractionHierarchy. When this
+     * file exists, the server loads it instead of contracting the graph at startup.
+     */
+    public static final String HIERARCHY_PATH = "library/data/proj2d_xml/berkeley-2019.ch";
+
+    /**
+     * The hub labels built from OSM_DB_PATH by HubLabels. When this file exists, the server
+     * maps it instead of building the labels from the contraction hierarchy at startup.
+     */
+    public static final String HUB_LABELS_PATH = "library/data/proj2d_xml/berkeley-2019.hl";
+
     /** The tile images are in the IMG_ROOT folder. */
     public static final String IMG_ROOT = "library/data/proj2d_imgs/";
 
+    /**
+     * The most bytes of decoded tiles TILE_CACHE holds. A decoded 256x256 tile takes 64KB
+     * to 256KB depending on its color model, so the default holds at least 500 tiles. Set
+     * the bearmaps.tileCacheBytes system property to override it.
+     */
+    public static final long TILE_CACHE_BYTES = Long.getLong("bearmaps.tileCacheBytes", 128L << 20);
+
+    /** The tiles of depth at most TILE_CACHE_WARM_DEPTH are decoded when the server starts. */
+    public static final int TILE_CACHE_WARM_DEPTH = 3;
+
+    /** The decoded tiles shared by all raster requests. */
+    public static final TileCache TILE_CACHE = new TileCache(TILE_CACHE_BYTES);
+
+    /**
+     * The deflate level, from 0 to 9, and row filter of rastered PNGs. The map tiles are
+     * drawn in flat colors, which compress well without filtering, and beyond level 1 the
+     * output barely shrinks while encoding gets much slower.
+     */
+    public static final int RASTER_PNG_DEFLATE_LEVEL = 1;
+    public static final PngEncoder.Filter RASTER_PNG_FILTER = PngEncoder.Filter.NONE;
+
+    /** The quality, from 0 to 1, of rasters requested as JPEGs. */
+    public static final float RASTER_JPEG_QUALITY = 0.85f;
+
     /** Route stroke information: Cyan with half transparency. */
     public static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
 
@@ -41,9 +81,81 @@ public class Constants {
 
     public static AugmentedStreetMapGraph SEMANTIC_STREET_GRAPH;
 
+    /** The most routes ROUTE_STORE holds at once. */
+    public static final int ROUTE_STORE_CAPACITY = 10000;
+
+    /** How long a route stays in ROUTE_STORE without being drawn: 30 minutes. */
+    public static final long ROUTE_TTL_MILLIS = 30L * 60 * 1000;
+
+    /**
+     * The routes of all users, each under the token returned by the route request that
+     * found it. Raster and clear_route requests refer to a route by its token.
+     */
+    public static final RouteStore ROUTE_STORE = new RouteStore(ROUTE_STORE_CAPACITY,
+            ROUTE_TTL_MILLIS);
+
     /**
-     * This is used to maintain a single List of route so that the same instance(object) is accessed
-     * from everywhere in the code. Enum is a cleaner way to achieve such a singleton pattern.
+     * The most node ids on the paths each graph's route cache holds, about 8 bytes each.
+     * Routes across Berkeley have a few hundred nodes, so this is tens of thousands of routes.
      */
-    public static final List<Long> ROUTE_LIST = new LinkedList<>();
+    public static final long ROUTE_CACHE_NODES = Long.getLong("bearmaps.routeCacheNodes", 4L << 20);
+
+    /**
+     * Distances in matrix and isochrone responses are rounded to 1/DISTANCE_SCALE miles,
+     * about 1.6 cm, to keep them compact.
+     */
+    public static final double DISTANCE_SCALE = 1e5;
+
+    /** The most sources, and the most targets, a single matrix request may have. */
+    public static final int MATRIX_MAX_LOCATIONS = 1000;
+
+    /** The largest distance budget, in miles, an isochrone request may search. */
+    public static final double ISOCHRONE_MAX_MILES = 25.0;
+
+    /**
+     * Whether routes snap their endpoints to the closest nodes in the graph's largest
+     * strongly connected component, rather than to the closest nodes, so that a route
+     * can always be found between them.
+     */
+    public static final boolean SNAP_TO_LARGEST_COMPONENT =
+            Boolean.getBoolean("bearmaps.snapToLargestComponent");
+
+    /** The most nearby nodes looked through when snapping to the largest component. */
+    public static final int SNAP_MAX_CANDIDATES = 1024;
+
+    /**
+     * How long a single route search may take before it gives up, in seconds: 20 by
+     * default, the limit searches had before they took deadlines. Set the
+     * bearmaps.routeTimeoutSeconds system property to override it.
+     */
+    public static final double ROUTE_TIMEOUT_SECONDS =
+            Double.parseDouble(System.getProperty("bearmaps.routeTimeoutSeconds", "20"));
+
+    /**
+     * How long a draft route, requested with an epsilon, is refined for once one is found,
+     * in seconds. Drafts are for previews during map interaction, so they must arrive quickly.
+     */
+    public static final double DRAFT_REFINE_SECONDS = 0.05;
+
+    /**
+     * Arc flags partition the graph into 2 to the power of this many cells, which is at
+     * most 6 as each edge keeps one bit per cell in a long.
+     */
+    public static final int ARC_FLAG_LEVELS = 5;
+
+    /**
+     * The file of live edge weight overrides to watch, set with the system property
+     * bearmaps.weightOverlay, or null to route with the lengths of the edges only.
+     */
+    public static final String WEIGHT_OVERLAY_PATH =
+            System.getProperty("bearmaps.weightOverlay");
+
+    /** How often the weight overlay file is checked for changes, in seconds. */
+    public static final double WEIGHT_OVERLAY_POLL_SECONDS = 5.0;
+
+    /** The most searches of batched route queries that run at once. */
+    public static final int ROUTING_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** The most queries a single batch route request may have. */
+    public static final int ROUTES_MAX_QUERIES = 10000;
 }
@@ -1,6 +1,6 @@
 package bearmaps.proj2d.utils;
 
-import bearmaps.proj2ab.ArrayHeapMinPQ;
+import bearmaps.proj2ab.DAryHeapMinPQ;
 import bearmaps.proj2ab.ExtrinsicMinPQ;
 
 import java.util.*;
@@ -127,8 +127,8 @@ public class HashTrieMap<V> implements TrieMap<V> {
         }
 
         private List<String> keysWithPrefix(String prefix, int n) {
-            ExtrinsicMinPQ<String> keyScore = new ArrayHeapMinPQ<>();
-            ExtrinsicMinPQ<Tuple<String, Node>> nextBest = new ArrayHeapMinPQ<>();
+            ExtrinsicMinPQ<String> keyScore = new DAryHeapMinPQ<>();
+            ExtrinsicMinPQ<Tuple<String, Node>> nextBest = new DAryHeapMinPQ<>();
             nextBest.add(new Tuple<>(prefix, this), -best);
             while (nextBest.size() != 0) {
                 Tuple<String, Node> p = nextBest.removeSmallest();
@@ -0,0 +1,130 @@
+package bearmaps.proj2d.utils;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the routes of all users, each under its own unguessable token, so that
+ * concurrent users never see or overwrite each other's routes. Routes are kept
+ * as arrays of node ids. A route expires once it has not been read for the
+ * time to live, and when the store is over capacity the least recently read
+ * routes are evicted first.
+ *
+ * @author Rui Gao
+ */
+public class RouteStore {
+    /* Evicting down to this fraction of the capacity means sweeps happen only once in a while. */
+    private static final double EVICT_TO_FRACTION = 0.9;
+    private static final int TOKEN_BYTES = 16;
+
+    private final int capacity;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Entry> routes;
+    private final SecureRandom random;
+
+    private static class Entry {
+        private final long[] route;
+        private volatile long lastRead;
+
+        Entry(long[] route, long lastRead) {
+            this.route = route;
+            this.lastRead = lastRead;
+        }
+    }
+
+    /** Creates an empty store of at most CAPACITY routes that each live TTLMILLIS unread. */
+    public RouteStore(int capacity, long ttlMillis) {
+        this(capacity, ttlMillis, System::currentTimeMillis);
+    }
+
+    /** Creates an empty store that reads the time in milliseconds from CLOCK. */
+    public RouteStore(int capacity, long ttlMillis, LongSupplier clock) {
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        routes = new ConcurrentHashMap<>();
+        random = new SecureRandom();
+    }
+
+    /** Stores ROUTE and returns the token to read it back with. */
+    public String put(long[] route) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        routes.put(token, new Entry(route, clock.getAsLong()));
+        if (routes.size() > capacity) {
+            evict();
+        }
+        return token;
+    }
+
+    /** Returns the route stored under TOKEN, or null if there is none or it has expired. */
+    public long[] get(String token) {
+        if (token == null) {
+            return null;
+        }
+        Entry entry = routes.get(token);
+        if (entry == null) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (now - entry.lastRead > ttlMillis) {
+            routes.remove(token, entry);
+            return null;
+        }
+        entry.lastRead = now;
+        return entry.route;
+    }
+
+    /** Removes the route stored under TOKEN, if any. */
+    public void remove(String token) {
+        if (token != null) {
+            routes.remove(token);
+        }
+    }
+
+    /** Returns the number of routes stored, expired ones included until they are swept. */
+    public int size() {
+        return routes.size();
+    }
+
+    /** Removes the expired routes, then the least recently read ones until well under capacity. */
+    private synchronized void evict() {
+        if (routes.size() <= capacity) {
+            return;
+        }
+        long now = clock.getAsLong();
+        List<Map.Entry<String, Entry>> live = new ArrayList<>();
+        List<Long> lastReads = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : routes.entrySet()) {
+            /* Read each time once, since concurrent gets keep updating them. */
+            long lastRead = e.getValue().lastRead;
+            if (now - lastRead > ttlMillis) {
+                routes.remove(e.getKey(), e.getValue());
+            } else {
+                live.add(e);
+                lastReads.add(lastRead);
+            }
+        }
+        int target = (int) (capacity * EVICT_TO_FRACTION);
+        if (live.size() <= target) {
+            return;
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < live.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingLong(lastReads::get));
+        for (int i = 0; i < live.size() - target; i++) {
+            Map.Entry<String, Entry> e = live.get(order.get(i));
+            routes.remove(e.getKey(), e.getValue());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package bearmaps.proj2d.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of decoded tile images shared by all raster requests. It holds at most
+ * a budget of decoded bytes and evicts the least recently used tiles beyond
+ * that. Tiles are decoded outside of the lock, so a slow decode never blocks
+ * hits on other tiles; two requests missing the same tile at once may both
+ * decode it, and the second result simply replaces the first. Tiles that cannot
+ * be read are remembered, and reported once, so later requests for them skip the
+ * lookup; there are only as many of those as there are tile names.
+ *
+ * @author Rui Gao
+ */
+public class TileCache {
+    private final long budgetBytes;
+    /* In access order, so the first entry is always the least recently used. */
+    private final LinkedHashMap<String, BufferedImage> images;
+    private long sizeBytes;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    /* The paths of the tiles that could not be read. */
+    private final Set<String> unreadable;
+
+    /** Creates an empty cache that holds at most BUDGETBYTES of decoded images. */
+    public TileCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        images = new LinkedHashMap<>(16, 0.75f, true);
+        sizeBytes = 0;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+        unreadable = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Returns the image at IMGPATH on the classpath, decoding it only if it is not
+     * cached. Returns null if the image cannot be read.
+     */
+    public BufferedImage get(String imgPath) {
+        synchronized (images) {
+            BufferedImage img = images.get(imgPath);
+            if (img != null) {
+                hits.incrementAndGet();
+                return img;
+            }
+        }
+        misses.incrementAndGet();
+        BufferedImage img = load(imgPath);
+        if (img != null) {
+            put(imgPath, img);
+        }
+        return img;
+    }
+
+    /**
+     * Decodes every tile of depth at most MAXDEPTH into the cache, as long as they
+     * fit in the budget. The tiles at IMGROOT are named as in RasterAPIHandler.
+     */
+    public void warmUp(String imgRoot, int maxDepth) {
+        for (int d = 0; d <= maxDepth; d++) {
+            int n = 1 << d;
+            for (int x = 0; x < n; x++) {
+                for (int y = 0; y < n; y++) {
+                    String imgPath = imgRoot + String.format("d%d_x%d_y%d.png", d, x, y);
+                    synchronized (images) {
+                        if (images.containsKey(imgPath)) {
+                            continue;
+                        }
+                    }
+                    BufferedImage img = load(imgPath);
+                    if (img != null) {
+                        put(imgPath, img);
+                    }
+                }
+            }
+        }
+    }
+
+    /* Decodes the image at IMGPATH, or returns null if it is missing or unreadable. */
+    private BufferedImage load(String imgPath) {
+        if (unreadable.contains(imgPath)) {
+            return null;
+        }
+        URL resource = Thread.currentThread().getContextClassLoader().getResource(imgPath);
+        if (resource == null) {
+            if (unreadable.add(imgPath)) {
+                System.err.println("No tile at " + imgPath + ".");
+            }
+            return null;
+        }
+        try {
+            BufferedImage img = ImageIO.read(resource);
+            if (img == null && unreadable.add(imgPath)) {
+                System.err.println("Cannot decode the tile at " + imgPath + ".");
+            }
+            return img;
+        } catch (IOException e) {
+            if (unreadable.add(imgPath)) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    private void put(String imgPath, BufferedImage img) {
+        long size = sizeOf(img);
+        if (size > budgetBytes) {
+            return;
+        }
+        synchronized (images) {
+            BufferedImage old = images.put(imgPath, img);
+            if (old != null) {
+                sizeBytes -= sizeOf(old);
+            }
+            sizeBytes += size;
+            Iterator<Map.Entry<String, BufferedImage>> eldest = images.entrySet().iterator();
+            while (sizeBytes > budgetBytes) {
+                sizeBytes -= sizeOf(eldest.next().getValue());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Returns the number of bytes the pixels of IMG take up. */
+    private static long sizeOf(BufferedImage img) {
+        DataBuffer data = img.getRaster().getDataBuffer();
+        return (long) data.getSize() * data.getNumBanks()
+                * DataBuffer.getDataTypeSize(data.getDataType()) / Byte.SIZE;
+    }
+
+    /** Returns the number of tiles in the cache. */
+    public int size() {
+        synchronized (images) {
+            return images.size();
+        }
+    }
+
+    /** Returns the number of bytes the cached tiles take up. */
+    public long sizeBytes() {
+        synchronized (images) {
+            return sizeBytes;
+        }
+    }
+
+    public long budgetBytes() {
+        return budgetBytes;
+    }
+
+    /** Returns the number of lookups that found their tile in the cache. */
+    public long hits() {
+        return hits.get();
+    }
+
+    /** Returns the number of lookups that had to decode their tile. */
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Returns the number of tiles evicted to stay within the budget. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TileCache[%d tiles, %d/%d bytes, %d hits, %d misses, %d evictions]",
+                size(), sizeBytes(), budgetBytes, hits(), misses(), evictions());
+    }
+}
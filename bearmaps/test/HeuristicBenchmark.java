@@ -0,0 +1,176 @@
+package bearmaps.test;
+
+import bearmaps.proj2c.AStarSolver;
+import bearmaps.proj2c.IndexedAStarGraph;
+import bearmaps.proj2c.WeightedEdge;
+import bearmaps.proj2c.streetmap.CSRGraph;
+import bearmaps.proj2d.AugmentedStreetMapGraph;
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the A* heuristic, the great-circle lower bound from unit vectors,
+ * against the haversine formula it replaced, both on its own and inside A*
+ * searches between random pairs of vertices. Run main, optionally with the
+ * classpath location of an OSM XML file; the small Berkeley extract is used
+ * by default.
+ *
+ * @author Rui Gao
+ */
+public class HeuristicBenchmark {
+    private static final String OSM_DB_PATH_SMALL =
+            "library/data/proj2d_xml/berkeley-2019-small.osm.xml";
+    private static final int NUM_EVALUATIONS = 20_000_000;
+    private static final int NUM_SEARCHES = 2000;
+    private static final int ROUNDS = 3;
+
+    /** The graph it wraps, estimating distances with the haversine formula. */
+    private static class HaversineGraph implements IndexedAStarGraph<Long> {
+        private final AugmentedStreetMapGraph graph;
+        private final CSRGraph csr;
+
+        HaversineGraph(AugmentedStreetMapGraph graph) {
+            this.graph = graph;
+            this.csr = graph.csr();
+        }
+
+        @Override
+        public List<WeightedEdge<Long>> neighbors(Long v) {
+            return graph.neighbors(v);
+        }
+
+        @Override
+        public double estimatedDistanceToGoal(Long s, Long goal) {
+            return estimatedDistanceToGoal(indexOf(s), indexOf(goal));
+        }
+
+        @Override
+        public double estimatedDistanceToGoal(int s, int goal) {
+            return haversine(csr.lon(s), csr.lon(goal), csr.lat(s), csr.lat(goal));
+        }
+
+        @Override
+        public int numVertices() {
+            return graph.numVertices();
+        }
+
+        @Override
+        public int indexOf(Long v) {
+            return graph.indexOf(v);
+        }
+
+        @Override
+        public Long vertex(int i) {
+            return graph.vertex(i);
+        }
+
+        @Override
+        public int firstEdge(int v) {
+            return graph.firstEdge(v);
+        }
+
+        @Override
+        public int lastEdge(int v) {
+            return graph.lastEdge(v);
+        }
+
+        @Override
+        public int edgeTarget(int e) {
+            return graph.edgeTarget(e);
+        }
+
+        @Override
+        public double edgeWeight(int e) {
+            return graph.edgeWeight(e);
+        }
+
+        @Override
+        public int firstInEdge(int v) {
+            return graph.firstInEdge(v);
+        }
+
+        @Override
+        public int lastInEdge(int v) {
+            return graph.lastInEdge(v);
+        }
+
+        @Override
+        public int inEdgeSource(int e) {
+            return graph.inEdgeSource(e);
+        }
+
+        @Override
+        public double inEdgeWeight(int e) {
+            return graph.inEdgeWeight(e);
+        }
+    }
+
+    /* The haversine distance in miles between (LATV, LONV) and (LATW, LONW). */
+    private static double haversine(double lonV, double lonW, double latV, double latW) {
+        double phi1 = Math.toRadians(latV);
+        double phi2 = Math.toRadians(latW);
+        double dphi = Math.toRadians(latW - latV);
+        double dlambda = Math.toRadians(lonW - lonV);
+
+        double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
+        a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return CSRGraph.EARTH_RADIUS * c;
+    }
+
+    public static void main(String[] args) {
+        String path = args.length > 0 ? args[0] : OSM_DB_PATH_SMALL;
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(path);
+        HaversineGraph haversine = new HaversineGraph(graph);
+        int n = graph.numVertices();
+        System.out.println(path + ": " + n + " vertices");
+
+        for (int round = 0; round < ROUNDS; round++) {
+            Random random = new Random(0);
+            double sum = 0.0;
+            Stopwatch sw = new Stopwatch();
+            for (int i = 0; i < NUM_EVALUATIONS; i++) {
+                sum += haversine.estimatedDistanceToGoal(random.nextInt(n), random.nextInt(n));
+            }
+            double haversineTime = sw.elapsedTime();
+            random = new Random(0);
+            double boundSum = 0.0;
+            sw = new Stopwatch();
+            for (int i = 0; i < NUM_EVALUATIONS; i++) {
+                boundSum += graph.estimatedDistanceToGoal(random.nextInt(n), random.nextInt(n));
+            }
+            double boundTime = sw.elapsedTime();
+            System.out.printf("heuristic: haversine %.1f ns, lower bound %.1f ns (%.2fx), "
+                            + "mean gap %.2e miles%n",
+                    haversineTime * 1e9 / NUM_EVALUATIONS, boundTime * 1e9 / NUM_EVALUATIONS,
+                    haversineTime / boundTime, (sum - boundSum) / NUM_EVALUATIONS);
+
+            random = new Random(1);
+            long[][] pairs = new long[NUM_SEARCHES][];
+            for (int i = 0; i < NUM_SEARCHES; i++) {
+                pairs[i] = new long[]{graph.vertex(random.nextInt(n)),
+                    graph.vertex(random.nextInt(n))};
+            }
+            int explored = 0;
+            sw = new Stopwatch();
+            for (long[] pair : pairs) {
+                explored += new AStarSolver<>(haversine, pair[0], pair[1], 60)
+                        .numStatesExplored();
+            }
+            haversineTime = sw.elapsedTime();
+            int boundExplored = 0;
+            sw = new Stopwatch();
+            for (long[] pair : pairs) {
+                boundExplored += new AStarSolver<>(graph, pair[0], pair[1], 60)
+                        .numStatesExplored();
+            }
+            boundTime = sw.elapsedTime();
+            System.out.printf("A*: haversine %.1f us, lower bound %.1f us (%.2fx), "
+                            + "states %d vs %d%n",
+                    haversineTime * 1e6 / NUM_SEARCHES, boundTime * 1e6 / NUM_SEARCHES,
+                    haversineTime / boundTime, explored, boundExplored);
+        }
+    }
+}
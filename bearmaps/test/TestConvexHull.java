@@ -0,0 +1,49 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.ConvexHull;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests ConvexHull on a square and on random point sets. */
+public class TestConvexHull {
+
+    @Test
+    public void testSquare() {
+        /* The corners of a square, with its center and the middle of an edge. */
+        double[] xs = {1, 0, 0.5, 1, 0, 0.5};
+        double[] ys = {1, 0, 0.5, 0, 1, 0};
+        assertArrayEquals(new int[]{1, 3, 0, 4}, ConvexHull.of(xs, ys));
+    }
+
+    @Test
+    public void testRandom() {
+        Random r = new Random(14);
+        for (int trial = 0; trial < 50; trial++) {
+            int n = 1 + r.nextInt(200);
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                xs[i] = r.nextGaussian();
+                ys[i] = r.nextGaussian();
+            }
+            int[] hull = ConvexHull.of(xs, ys);
+            if (n < 3) {
+                continue;
+            }
+            /* Every point is on or to the left of every counterclockwise hull edge. */
+            for (int k = 0; k < hull.length; k++) {
+                int a = hull[k];
+                int b = hull[(k + 1) % hull.length];
+                for (int p = 0; p < n; p++) {
+                    double cross = (xs[b] - xs[a]) * (ys[p] - ys[a])
+                            - (ys[b] - ys[a]) * (xs[p] - xs[a]);
+                    assertTrue(cross >= -1e-12);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package bearmaps.test;
+
+import bearmaps.proj2d.AugmentedStreetMapGraph;
+import bearmaps.proj2d.GraphSnapshot;
+import bearmaps.proj2d.Router;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/** Round-trips the small Berkeley graph through a binary snapshot. */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH_SMALL = "library/data/proj2d_xml/berkeley-2019-small.osm.xml";
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(OSM_DB_PATH_SMALL);
+        File snapshot = File.createTempFile("bearmaps", ".bmap");
+        snapshot.deleteOnExit();
+        GraphSnapshot.write(graph, snapshot.getPath());
+        AugmentedStreetMapGraph loaded = GraphSnapshot.read(snapshot.getPath());
+
+        assertEquals(graph, loaded);
+        assertEquals(graph.numVertices(), loaded.numVertices());
+        for (int v = 0; v < graph.numVertices(); v++) {
+            long id = graph.vertex(v);
+            assertEquals(graph.lon(id), loaded.lon(id), 0.0);
+            assertEquals(graph.lat(id), loaded.lat(id), 0.0);
+            assertEquals(graph.name(id), loaded.name(id));
+        }
+        assertEquals(graph.getLocationsByPrefix("t"), loaded.getLocationsByPrefix("t"));
+        for (String name : graph.getLocationsByPrefix("")) {
+            assertEquals(graph.getLocations(name), loaded.getLocations(name));
+        }
+
+        double[][] queries = {{-122.2521, 37.8687, -122.2534, 37.8684},
+                              {-122.2540, 37.8680, -122.2515, 37.8690}};
+        for (double[] q : queries) {
+            assertEquals(graph.closest(q[0], q[1]), loaded.closest(q[0], q[1]));
+            List<Long> expected = Router.shortestPath(graph, q[0], q[1], q[2], q[3]);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, Router.shortestPath(loaded, q[0], q[1], q[2], q[3]));
+        }
+    }
+}
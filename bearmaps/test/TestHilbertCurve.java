@@ -0,0 +1,55 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.HilbertCurve;
+import bearmaps.proj2d.AugmentedStreetMapGraph;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Tests HilbertCurve on grids and the vertex numbering of a graph built with it. */
+public class TestHilbertCurve {
+    private static final String OSM_DB_PATH_SMALL =
+            "library/data/proj2d_xml/berkeley-2019-small.osm.xml";
+
+    @Test
+    public void testGrid() {
+        /* Consecutive cells of a full grid along the curve are always side by side. */
+        int side = 16;
+        double[] xs = new double[side * side];
+        double[] ys = new double[side * side];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i % side;
+            ys[i] = i / side;
+        }
+        int[] order = HilbertCurve.order(xs, ys);
+        int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(i, sorted[i]);
+        }
+        assertEquals(0, order[0]);
+        for (int k = 0; k + 1 < order.length; k++) {
+            int a = order[k];
+            int b = order[k + 1];
+            assertEquals(1, Math.abs(a % side - b % side) + Math.abs(a / side - b / side));
+        }
+    }
+
+    @Test
+    public void testSinglePoint() {
+        assertArrayEquals(new int[]{0}, HilbertCurve.order(new double[]{3}, new double[]{4}));
+        assertArrayEquals(new int[0], HilbertCurve.order(new double[0], new double[0]));
+    }
+
+    @Test
+    public void testGraphIds() {
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(OSM_DB_PATH_SMALL);
+        for (int v = 0; v < graph.numVertices(); v++) {
+            assertEquals(v, graph.indexOf(graph.vertex(v)));
+        }
+        assertEquals(-1, graph.indexOf(-1L));
+    }
+}
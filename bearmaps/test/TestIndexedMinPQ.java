@@ -0,0 +1,89 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.DAryHeapMinPQ;
+import bearmaps.proj2ab.ExtrinsicMinPQ;
+import bearmaps.proj2ab.IndexedMinPQ;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestIndexedMinPQ {
+    private static final int N = 2000;
+
+    @Test
+    public void testRandomAgainstSort() {
+        for (int arity : new int[]{2, 4, 8}) {
+            Random r = new Random(arity);
+            IndexedMinPQ pq = new IndexedMinPQ(N, arity);
+            double[] priorities = new double[N];
+            for (int i = 0; i < N; i++) {
+                priorities[i] = r.nextDouble();
+                pq.add(i, priorities[i]);
+            }
+            for (int i = 0; i < N; i += 3) {
+                priorities[i] = r.nextDouble();
+                pq.changePriority(i, priorities[i]);
+            }
+            assertEquals(N, pq.size());
+            double[] sorted = priorities.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < N; i++) {
+                assertEquals(sorted[i], pq.getSmallestPriority(), 0.0);
+                int item = pq.removeSmallest();
+                assertFalse(pq.contains(item));
+                assertEquals(sorted[i], priorities[item], 0.0);
+            }
+            assertEquals(0, pq.size());
+        }
+    }
+
+    @Test
+    public void testClearAndReuse() {
+        IndexedMinPQ pq = new IndexedMinPQ(4, 2);
+        pq.add(3, 1.0);
+        pq.add(1, 2.0);
+        pq.clear();
+        assertEquals(0, pq.size());
+        assertFalse(pq.contains(3));
+        pq.ensureCapacity(10);
+        pq.add(9, 0.5);
+        pq.add(3, 0.25);
+        assertEquals(3, pq.removeSmallest());
+        assertEquals(9, pq.removeSmallest());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddDuplicate() {
+        IndexedMinPQ pq = new IndexedMinPQ(4);
+        pq.add(2, 1.0);
+        pq.add(2, 3.0);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testRemoveEmpty() {
+        new IndexedMinPQ(4).removeSmallest();
+    }
+
+    @Test
+    public void testAdapter() {
+        ExtrinsicMinPQ<String> pq = new DAryHeapMinPQ<>();
+        pq.add("c", 3);
+        pq.add("a", 1);
+        pq.add("b", 2);
+        pq.changePriority("c", 0);
+        assertTrue(pq.contains("a"));
+        assertEquals("c", pq.removeSmallest());
+        assertFalse(pq.contains("c"));
+        pq.add("d", 1.5);
+        assertEquals(3, pq.size());
+        assertEquals("a", pq.removeSmallest());
+        assertEquals("d", pq.removeSmallest());
+        assertEquals(2.0, pq.getSmallestPriority(), 0.0);
+        assertEquals("b", pq.removeSmallest());
+        assertEquals(0, pq.size());
+    }
+}
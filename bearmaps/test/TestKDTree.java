@@ -0,0 +1,112 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.KDTree;
+import bearmaps.proj2ab.Point;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/** Compares KDTree queries against brute force on random points. */
+public class TestKDTree {
+    private static final int NUM_POINTS = 20000;
+    private static final int NUM_QUERIES = 200;
+
+    private static double dist2(Point p, double x, double y, double xScale) {
+        double dx = (p.getX() - x) * xScale;
+        double dy = p.getY() - y;
+        return dx * dx + dy * dy;
+    }
+
+    private static List<Point> randomPoints(Random r) {
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < NUM_POINTS; i++) {
+            /* Round to a coarse grid so that the tree also has to handle duplicate keys. */
+            points.add(new Point(Math.round(r.nextDouble() * 500) / 5.0,
+                    Math.round(r.nextDouble() * 500) / 5.0));
+        }
+        return points;
+    }
+
+    @Test
+    public void testNearestAndKNearest() {
+        for (double xScale : new double[]{1.0, 0.79}) {
+            Random r = new Random(61);
+            List<Point> points = randomPoints(r);
+            KDTree tree = new KDTree(points, xScale);
+            for (int q = 0; q < NUM_QUERIES; q++) {
+                double x = r.nextDouble() * 110 - 5;
+                double y = r.nextDouble() * 110 - 5;
+                double[] expected = new double[points.size()];
+                for (int i = 0; i < points.size(); i++) {
+                    expected[i] = dist2(points.get(i), x, y, xScale);
+                }
+                Arrays.sort(expected);
+                assertEquals(expected[0], dist2(tree.nearest(x, y), x, y, xScale), 0.0);
+                assertEquals(expected[0], dist2(points.get(tree.nearestPayload(x, y)), x, y, xScale), 0.0);
+
+                List<Point> nearest = tree.kNearest(x, y, 7);
+                assertEquals(7, nearest.size());
+                for (int i = 0; i < 7; i++) {
+                    assertEquals(expected[i], dist2(nearest.get(i), x, y, xScale), 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRangeQueries() {
+        Random r = new Random(62);
+        List<Point> points = randomPoints(r);
+        KDTree tree = new KDTree(points);
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            double x = r.nextDouble() * 100;
+            double y = r.nextDouble() * 100;
+            double radius = r.nextDouble() * 5;
+            Set<Integer> inRadius = new HashSet<>();
+            Set<Integer> inBox = new HashSet<>();
+            for (int i = 0; i < points.size(); i++) {
+                Point p = points.get(i);
+                if (dist2(p, x, y, 1.0) <= radius * radius) {
+                    inRadius.add(i);
+                }
+                if (p.getX() >= x - radius && p.getX() <= x + radius
+                        && p.getY() >= y && p.getY() <= y + radius) {
+                    inBox.add(i);
+                }
+            }
+            assertEquals(inRadius, toSet(tree.withinRadiusPayloads(x, y, radius)));
+            assertEquals(inRadius.size(), tree.withinRadius(x, y, radius).size());
+            assertEquals(inBox, toSet(tree.inBoxPayloads(x - radius, y, x + radius, y + radius)));
+        }
+    }
+
+    @Test
+    public void testEmptyAndSmall() {
+        KDTree empty = new KDTree(new ArrayList<>());
+        assertNull(empty.nearest(0, 0));
+        assertEquals(-1, empty.nearestPayload(0, 0));
+        assertEquals(0, empty.kNearest(0, 0, 3).size());
+
+        List<Point> points = new ArrayList<>();
+        points.add(new Point(2, 2));
+        points.add(new Point(-1, 5));
+        KDTree tree = new KDTree(points);
+        assertEquals(new Point(2, 2), tree.nearest(1, 1));
+        assertEquals(2, tree.kNearest(0, 0, 5).size());
+    }
+
+    private static Set<Integer> toSet(int[] a) {
+        Set<Integer> set = new HashSet<>();
+        for (int i : a) {
+            set.add(i);
+        }
+        return set;
+    }
+}
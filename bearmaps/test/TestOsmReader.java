@@ -0,0 +1,56 @@
+package bearmaps.test;
+
+import bearmaps.proj2c.streetmap.CSRGraph;
+import bearmaps.proj2c.streetmap.OsmReader;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Reads the small Berkeley graph with OsmReader and checks what it keeps. */
+public class TestOsmReader {
+    private static final String OSM_DB_PATH_SMALL =
+            "library/data/proj2d_xml/berkeley-2019-small.osm.xml";
+
+    @Test
+    public void testKeptNodesAndEdges() {
+        List<String> passes = new ArrayList<>();
+        CSRGraph csr = OsmReader.read(OSM_DB_PATH_SMALL,
+            (pass, bytes, elements, seconds, done) -> {
+                assertTrue(bytes > 0);
+                if (done) {
+                    passes.add(pass);
+                }
+            });
+        List<String> expected = new ArrayList<>();
+        expected.add("ways");
+        expected.add("nodes");
+        assertEquals(expected, passes);
+
+        assertTrue(csr.numVertices() > 0);
+        for (int v = 0; v < csr.numVertices(); v++) {
+            assertTrue(csr.lastEdge(v) > csr.firstEdge(v) || csr.name(v) != null);
+            assertEquals(v, csr.indexOf(csr.id(v)));
+            for (int e = csr.firstEdge(v); e < csr.lastEdge(v); e++) {
+                /* Every road can be taken both ways. */
+                int w = csr.edgeTarget(e);
+                boolean back = false;
+                for (int f = csr.firstEdge(w); f < csr.lastEdge(w); f++) {
+                    back |= csr.edgeTarget(f) == v && csr.wayName(f).equals(csr.wayName(e));
+                }
+                assertTrue(back);
+                if (e > csr.firstEdge(v)) {
+                    assertTrue(csr.id(csr.edgeTarget(e - 1)) <= csr.id(w));
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingFile() {
+        OsmReader.read("library/data/proj2d_xml/missing.osm.xml", OsmReader.Progress.NONE);
+    }
+}
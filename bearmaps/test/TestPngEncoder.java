@@ -0,0 +1,59 @@
+package bearmaps.test;
+
+import bearmaps.proj2d.utils.PngEncoder;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/** Checks that PngEncoder output decodes back to the pixels it was given. */
+public class TestPngEncoder {
+
+    private static BufferedImage randomImage(int width, int height, int type, Random r) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Graphics g = img.getGraphics();
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(r.nextInt(0x1000000)));
+            g.fillRect(r.nextInt(width), r.nextInt(height), r.nextInt(width / 2 + 1), r.nextInt(8) + 1);
+        }
+        for (int i = 0; i < 2000; i++) {
+            img.setRGB(r.nextInt(width), r.nextInt(height), r.nextInt(0x1000000));
+        }
+        return img;
+    }
+
+    private static void checkRoundTrip(BufferedImage img, PngEncoder encoder) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        encoder.write(img, os);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(img.getWidth(), decoded.getWidth());
+        assertEquals(img.getHeight(), decoded.getHeight());
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                assertEquals(img.getRGB(x, y) & 0xFFFFFF, decoded.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random r = new Random(5);
+        int[][] sizes = {{1, 1}, {37, 3}, {300, 517}, {1024, 768}};
+        for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            for (int level : new int[]{0, 1, 9}) {
+                PngEncoder encoder = new PngEncoder(level, filter);
+                for (int[] size : sizes) {
+                    checkRoundTrip(randomImage(size[0], size[1], BufferedImage.TYPE_INT_RGB, r), encoder);
+                }
+                checkRoundTrip(randomImage(300, 517, BufferedImage.TYPE_3BYTE_BGR, r), encoder);
+            }
+        }
+    }
+}
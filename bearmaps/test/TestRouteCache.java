@@ -0,0 +1,195 @@
+package bearmaps.test;
+
+import bearmaps.proj2c.Deadline;
+import bearmaps.proj2c.ShortestPathsSolver;
+import bearmaps.proj2c.SolverOutcome;
+import bearmaps.proj2d.RouteCache;
+import bearmaps.proj2d.Router;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/** Tests lookup, single-flight searches and eviction in RouteCache with a fake solver. */
+public class TestRouteCache {
+
+    /** A solver that has "found" the path from SRC to DEST through every node in between. */
+    private static ShortestPathsSolver<Long> solver(long src, long dest, SolverOutcome outcome) {
+        List<Long> path = new ArrayList<>();
+        for (long v = src; v <= dest; v++) {
+            path.add(v);
+        }
+        return new ShortestPathsSolver<Long>() {
+            public SolverOutcome outcome() {
+                return outcome;
+            }
+            public List<Long> solution() {
+                return path;
+            }
+            public double solutionWeight() {
+                return dest - src;
+            }
+            public int numStatesExplored() {
+                return 0;
+            }
+            public double explorationTime() {
+                return 0;
+            }
+        };
+    }
+
+    @Test
+    public void testCachesByPairAndAlgorithm() {
+        RouteCache cache = new RouteCache(100);
+        AtomicInteger searches = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            RouteCache.Route route = cache.get(1, 4, Router.Algorithm.ASTAR, () -> {
+                searches.incrementAndGet();
+                return solver(1, 4, SolverOutcome.SOLVED);
+            });
+            assertArrayEquals(new long[]{1, 2, 3, 4}, route.path());
+            assertEquals(3.0, route.weight(), 0.0);
+        }
+        assertEquals(1, searches.get());
+        cache.get(1, 4, Router.Algorithm.ALT, () -> {
+            searches.incrementAndGet();
+            return solver(1, 4, SolverOutcome.SOLVED);
+        });
+        assertEquals(2, searches.get());
+        assertEquals(2, cache.misses());
+        assertEquals(2, cache.hits());
+        assertEquals(8, cache.sizeNodes());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testTimeoutsAreNotKept() {
+        RouteCache cache = new RouteCache(100);
+        cache.get(1, 4, Router.Algorithm.ASTAR, () -> solver(1, 1, SolverOutcome.TIMEOUT));
+        assertEquals(0, cache.size());
+        RouteCache.Route route = cache.get(1, 4, Router.Algorithm.ASTAR,
+                () -> solver(1, 4, SolverOutcome.SOLVED));
+        assertEquals(SolverOutcome.SOLVED, route.outcome());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        RouteCache cache = new RouteCache(10);
+        cache.get(0, 3, Router.Algorithm.ASTAR, () -> solver(0, 3, SolverOutcome.SOLVED));
+        cache.get(10, 13, Router.Algorithm.ASTAR, () -> solver(10, 13, SolverOutcome.SOLVED));
+        cache.get(0, 3, Router.Algorithm.ASTAR, () -> solver(0, 3, SolverOutcome.SOLVED));
+        cache.get(20, 23, Router.Algorithm.ASTAR, () -> solver(20, 23, SolverOutcome.SOLVED));
+        assertEquals(1, cache.evictions());
+        assertEquals(8, cache.sizeNodes());
+        long misses = cache.misses();
+        cache.get(0, 3, Router.Algorithm.ASTAR, () -> solver(0, 3, SolverOutcome.SOLVED));
+        assertEquals(misses, cache.misses());
+        cache.get(10, 13, Router.Algorithm.ASTAR, () -> solver(10, 13, SolverOutcome.SOLVED));
+        assertEquals(misses + 1, cache.misses());
+    }
+
+    @Test
+    public void testWaiterSearchesAgainWhenSharedSearchIsCancelled() throws Exception {
+        RouteCache cache = new RouteCache(100);
+        AtomicInteger searches = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        Deadline cancelled = Deadline.never();
+        Thread first = new Thread(() -> cache.get(1, 4, Router.Algorithm.ASTAR, cancelled, () -> {
+            searches.incrementAndGet();
+            started.countDown();
+            while (!cancelled.expired()) {
+                Thread.yield();
+            }
+            return solver(1, 1, SolverOutcome.TIMEOUT);
+        }));
+        first.start();
+        started.await();
+        RouteCache.Route[] waited = new RouteCache.Route[1];
+        Thread second = new Thread(() -> waited[0] = cache.get(1, 4, Router.Algorithm.ASTAR,
+                Deadline.never(), () -> {
+                    searches.incrementAndGet();
+                    return solver(1, 4, SolverOutcome.SOLVED);
+                }));
+        second.start();
+        Thread.sleep(50);
+        cancelled.cancel();
+        first.join();
+        second.join();
+        assertEquals(2, searches.get());
+        assertEquals(SolverOutcome.SOLVED, waited[0].outcome());
+        assertArrayEquals(new long[]{1, 2, 3, 4}, waited[0].path());
+    }
+
+    @Test
+    public void testWaiterGivesUpAtItsOwnDeadline() throws Exception {
+        RouteCache cache = new RouteCache(100);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread(() -> cache.get(1, 4, Router.Algorithm.ASTAR, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return solver(1, 4, SolverOutcome.SOLVED);
+        }));
+        first.start();
+        started.await();
+        RouteCache.Route route = cache.get(1, 4, Router.Algorithm.ASTAR, Deadline.after(0.05),
+                () -> solver(1, 4, SolverOutcome.SOLVED));
+        assertEquals(SolverOutcome.TIMEOUT, route.outcome());
+        release.countDown();
+        first.join();
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneSearch() throws Exception {
+        RouteCache cache = new RouteCache(100);
+        AtomicInteger searches = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread(() -> cache.get(1, 4, Router.Algorithm.ASTAR, () -> {
+            searches.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return solver(1, 4, SolverOutcome.SOLVED);
+        }));
+        first.start();
+        started.await();
+        List<Thread> waiters = new ArrayList<>();
+        List<long[]> paths = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> {
+                long[] path = cache.get(1, 4, Router.Algorithm.ASTAR, () -> {
+                    searches.incrementAndGet();
+                    return solver(1, 4, SolverOutcome.SOLVED);
+                }).path();
+                synchronized (paths) {
+                    paths.add(path);
+                }
+            });
+            t.start();
+            waiters.add(t);
+        }
+        release.countDown();
+        first.join();
+        for (Thread t : waiters) {
+            t.join();
+        }
+        assertEquals(1, searches.get());
+        assertEquals(4, paths.size());
+        for (long[] path : paths) {
+            assertArrayEquals(new long[]{1, 2, 3, 4}, path);
+        }
+    }
+}
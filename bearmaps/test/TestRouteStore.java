@@ -0,0 +1,63 @@
+package bearmaps.test;
+
+import bearmaps.proj2d.utils.RouteStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/** Tests token lookup, expiry and eviction in RouteStore with a fake clock. */
+public class TestRouteStore {
+
+    @Test
+    public void testPutGetRemove() {
+        AtomicLong now = new AtomicLong(0);
+        RouteStore store = new RouteStore(10, 1000, now::get);
+        String a = store.put(new long[]{1, 2, 3});
+        String b = store.put(new long[]{4, 5});
+        assertNotEquals(a, b);
+        assertArrayEquals(new long[]{1, 2, 3}, store.get(a));
+        assertArrayEquals(new long[]{4, 5}, store.get(b));
+        assertNull(store.get("no such token"));
+        assertNull(store.get(null));
+        store.remove(a);
+        assertNull(store.get(a));
+        assertArrayEquals(new long[]{4, 5}, store.get(b));
+    }
+
+    @Test
+    public void testExpiry() {
+        AtomicLong now = new AtomicLong(0);
+        RouteStore store = new RouteStore(10, 1000, now::get);
+        String a = store.put(new long[]{1});
+        String b = store.put(new long[]{2});
+        now.set(900);
+        /* Reading a route keeps it alive for another time to live. */
+        assertNotNull(store.get(a));
+        now.set(1500);
+        assertNotNull(store.get(a));
+        assertNull(store.get(b));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyRead() {
+        AtomicLong now = new AtomicLong(0);
+        RouteStore store = new RouteStore(10, 1000000, now::get);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            now.incrementAndGet();
+            tokens.add(store.put(new long[]{i}));
+        }
+        now.incrementAndGet();
+        assertNotNull(store.get(tokens.get(0)));
+        now.incrementAndGet();
+        String newest = store.put(new long[]{10});
+        assertTrue(store.size() <= 10);
+        assertNotNull(store.get(tokens.get(0)));
+        assertNotNull(store.get(newest));
+        assertNull(store.get(tokens.get(1)));
+    }
+}
@@ -0,0 +1,504 @@
+package bearmaps.test;
+
+import bearmaps.proj2ab.Partition;
+import bearmaps.proj2c.ALTGraph;
+import bearmaps.proj2c.AStarSolver;
+import bearmaps.proj2c.AnytimeAStarSolver;
+import bearmaps.proj2c.ArcFlags;
+import bearmaps.proj2c.ArcFlagsGraph;
+import bearmaps.proj2c.BidirectionalAStarSolver;
+import bearmaps.proj2c.CHSolver;
+import bearmaps.proj2c.Components;
+import bearmaps.proj2c.ContractionHierarchy;
+import bearmaps.proj2c.CustomizableContractionHierarchy;
+import bearmaps.proj2c.Deadline;
+import bearmaps.proj2c.HubLabels;
+import bearmaps.proj2c.Landmarks;
+import bearmaps.proj2c.Reachability;
+import bearmaps.proj2c.ShortestPathsSolver;
+import bearmaps.proj2c.SolverOutcome;
+import bearmaps.proj2c.streetmap.CSRGraph;
+import bearmaps.proj2d.AugmentedStreetMapGraph;
+import bearmaps.proj2d.RouteCache;
+import bearmaps.proj2d.Router;
+import bearmaps.proj2d.WeightOverlay;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Checks that every solver agrees with AStarSolver on the small Berkeley graph. */
+public class TestShortestPathsSolvers {
+    private static final String OSM_DB_PATH_SMALL = "library/data/proj2d_xml/berkeley-2019-small.osm.xml";
+    private static final String OSM_DB_PATH_TINY = "library/data/proj2d_xml/tiny-clean.osm.xml";
+    private static final double DOUBLE_THRESHOLD = 0.000000001;
+    private static AugmentedStreetMapGraph graph;
+    private static AugmentedStreetMapGraph graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH_SMALL);
+        graphTiny = new AugmentedStreetMapGraph(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    /** Checks that ACTUAL found a path as short as EXPECTED, and that it is a real path. */
+    private void checkAgrees(ShortestPathsSolver<Long> expected, ShortestPathsSolver<Long> actual) {
+        assertEquals(expected.outcome(), actual.outcome());
+        if (expected.outcome() != SolverOutcome.SOLVED) {
+            return;
+        }
+        assertEquals(expected.solutionWeight(), actual.solutionWeight(), DOUBLE_THRESHOLD);
+        List<Long> path = actual.solution();
+        assertEquals(expected.solution().get(0), path.get(0));
+        assertEquals(expected.solution().get(expected.solution().size() - 1),
+                path.get(path.size() - 1));
+        double weight = 0.0;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            double step = Double.POSITIVE_INFINITY;
+            for (int e = graph.firstEdge(graph.indexOf(path.get(i)));
+                 e < graph.lastEdge(graph.indexOf(path.get(i))); e++) {
+                if (graph.edgeTarget(e) == graph.indexOf(path.get(i + 1))) {
+                    step = Math.min(step, graph.edgeWeight(e));
+                }
+            }
+            weight += step;
+        }
+        assertEquals(expected.solutionWeight(), weight, DOUBLE_THRESHOLD);
+    }
+
+    private List<long[]> pairs() {
+        List<long[]> pairs = new ArrayList<>();
+        for (int i = 0; i < graph.numVertices(); i += 3) {
+            for (int j = 1; j < graph.numVertices(); j += 7) {
+                pairs.add(new long[]{graph.vertex(i), graph.vertex(j)});
+            }
+        }
+        return pairs;
+    }
+
+    @Test
+    public void testHeuristicLowerBound() {
+        CSRGraph csr = graph.csr();
+        for (int v = 0; v < csr.numVertices(); v++) {
+            for (int w = 0; w < csr.numVertices(); w++) {
+                double distance = csr.distance(v, w);
+                double bound = graph.estimatedDistanceToGoal(v, w);
+                assertTrue(bound <= distance + DOUBLE_THRESHOLD);
+                assertEquals(distance, bound, distance * 1e-9);
+            }
+            for (int e = csr.firstEdge(v); e < csr.lastEdge(v); e++) {
+                assertEquals(csr.distance(v, csr.edgeTarget(e)), csr.edgeWeight(e), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testBidirectionalAStar() {
+        for (long[] pair : pairs()) {
+            checkAgrees(new AStarSolver<>(graph, pair[0], pair[1], 20),
+                    new BidirectionalAStarSolver<>(graph, pair[0], pair[1], 20));
+        }
+    }
+
+    @Test
+    public void testALT() {
+        ALTGraph<Long> alt = new ALTGraph<>(graph, Landmarks.of(graph, 4));
+        for (long[] pair : pairs()) {
+            checkAgrees(new AStarSolver<>(graph, pair[0], pair[1], 20),
+                    new AStarSolver<>(alt, pair[0], pair[1], 20));
+            checkAgrees(new AStarSolver<>(graph, pair[0], pair[1], 20),
+                    new BidirectionalAStarSolver<>(alt, pair[0], pair[1], 20));
+        }
+    }
+
+    @Test
+    public void testArcFlags() {
+        double[] xs = new double[graph.numVertices()];
+        double[] ys = new double[graph.numVertices()];
+        for (int v = 0; v < graph.numVertices(); v++) {
+            xs[v] = graph.lon(graph.vertex(v));
+            ys[v] = graph.lat(graph.vertex(v));
+        }
+        Partition partition = Partition.of(xs, ys, 2);
+        int[] sizes = new int[partition.numCells()];
+        for (int v = 0; v < graph.numVertices(); v++) {
+            sizes[partition.cell(v)] += 1;
+        }
+        for (int size : sizes) {
+            assertTrue(Math.abs(size - graph.numVertices() / 4.0) <= 1);
+        }
+        ArcFlagsGraph<Long> flagged = new ArcFlagsGraph<>(graph, ArcFlags.of(graph, partition));
+        for (long[] pair : pairs()) {
+            checkAgrees(new AStarSolver<>(graph, pair[0], pair[1], 20),
+                    new AStarSolver<>(flagged, pair[0], pair[1], 20));
+        }
+        for (long[] pair : pairs()) {
+            checkAgrees(new AStarSolver<>(graph, pair[0], pair[1], 20),
+                    new AStarSolver<>(new ArcFlagsGraph<>(graph, graph.arcFlags()),
+                            pair[0], pair[1], 20));
+        }
+    }
+
+    @Test
+    public void testContractionHierarchy() throws Exception {
+        ContractionHierarchy ch = graph.contractionHierarchy();
+        File file = File.createTempFile("bearmaps", ".ch");
+        file.deleteOnExit();
+        ch.write(file.getPath());
+        ContractionHierarchy loaded = ContractionHierarchy.read(file.getPath());
+        assertTrue(loaded.matches(graph));
+        assertEquals(ch.numEdges(), loaded.numEdges());
+        for (long[] pair : pairs()) {
+            ShortestPathsSolver<Long> expected = new AStarSolver<>(graph, pair[0], pair[1], 20);
+            checkAgrees(expected, new CHSolver<>(ch, graph, pair[0], pair[1]));
+            checkAgrees(expected, new CHSolver<>(loaded, graph, pair[0], pair[1]));
+        }
+    }
+
+    @Test
+    public void testHubLabels() throws Exception {
+        HubLabels labels = HubLabels.of(graph.contractionHierarchy());
+        File file = File.createTempFile("bearmaps", ".hl");
+        file.deleteOnExit();
+        labels.write(file.getPath());
+        HubLabels loaded = HubLabels.read(file.getPath());
+        assertTrue(loaded.matches(graph));
+        assertEquals(labels.numHubs(), loaded.numHubs());
+        for (long[] pair : pairs()) {
+            ShortestPathsSolver<Long> expected = new AStarSolver<>(graph, pair[0], pair[1], 20);
+            double weight = expected.outcome() == SolverOutcome.SOLVED
+                    ? expected.solutionWeight() : Double.POSITIVE_INFINITY;
+            int s = graph.indexOf(pair[0]);
+            int t = graph.indexOf(pair[1]);
+            assertEquals(weight, labels.distance(s, t), DOUBLE_THRESHOLD);
+            assertEquals(weight, loaded.distance(s, t), DOUBLE_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void testDistanceMatrix() {
+        long[] sources = new long[12];
+        long[] targets = new long[5];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = graph.vertex(i * graph.numVertices() / sources.length);
+        }
+        for (int j = 0; j < targets.length; j++) {
+            targets[j] = graph.vertex((2 * j + 1) * graph.numVertices() / (2 * targets.length));
+        }
+        targets[targets.length - 1] = sources[3];
+        /* Both ways round, so that the searches run forward once and backward once. */
+        double[][] matrix = Router.distanceMatrix(graph, sources, targets);
+        double[][] transposed = Router.distanceMatrix(graph, targets, sources);
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < targets.length; j++) {
+                ShortestPathsSolver<Long> expected = new AStarSolver<>(graph, sources[i], targets[j], 20);
+                double weight = expected.outcome() == SolverOutcome.SOLVED
+                        ? expected.solutionWeight() : Double.POSITIVE_INFINITY;
+                assertEquals(weight, matrix[i][j], DOUBLE_THRESHOLD);
+                ShortestPathsSolver<Long> back = new AStarSolver<>(graph, targets[j], sources[i], 20);
+                weight = back.outcome() == SolverOutcome.SOLVED
+                        ? back.solutionWeight() : Double.POSITIVE_INFINITY;
+                assertEquals(weight, transposed[j][i], DOUBLE_THRESHOLD);
+            }
+        }
+    }
+
+    @Test
+    public void testReachability() {
+        int source = graph.numVertices() / 2;
+        double budget = 0.5;
+        Reachability reached = Reachability.within(graph, source, budget);
+        double[] distances = new double[graph.numVertices()];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < reached.size(); i++) {
+            assertTrue(reached.distance(i) <= budget);
+            assertTrue(i == 0 || reached.distance(i - 1) <= reached.distance(i));
+            distances[reached.vertex(i)] = reached.distance(i);
+        }
+        assertEquals(source, reached.vertex(0));
+        for (int v = 0; v < graph.numVertices(); v += 5) {
+            ShortestPathsSolver<Long> expected = new AStarSolver<>(graph, graph.vertex(source),
+                    graph.vertex(v), 20);
+            if (expected.outcome() == SolverOutcome.SOLVED && expected.solutionWeight() <= budget) {
+                assertEquals(expected.solutionWeight(), distances[v], DOUBLE_THRESHOLD);
+            } else {
+                assertEquals(Double.POSITIVE_INFINITY, distances[v], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchShortestPaths() {
+        List<Router.Query> queries = new ArrayList<>();
+        List<long[]> pairs = pairs();
+        for (int i = 0; i < pairs.size(); i += 11) {
+            long[] pair = pairs.get(i);
+            queries.add(new Router.Query(graph.lon(pair[0]), graph.lat(pair[0]),
+                    graph.lon(pair[1]), graph.lat(pair[1])));
+        }
+        List<List<Long>> paths = Router.shortestPaths(graph, queries,
+                Router.Algorithm.CONTRACTION_HIERARCHY);
+        assertEquals(queries.size(), paths.size());
+        for (int i = 0; i < queries.size(); i++) {
+            /* Compare with the nodes the locations snap to, as the pair itself may not be. */
+            long src = graph.closest(graph.lon(pairs.get(11 * i)[0]), graph.lat(pairs.get(11 * i)[0]));
+            long dest = graph.closest(graph.lon(pairs.get(11 * i)[1]), graph.lat(pairs.get(11 * i)[1]));
+            ShortestPathsSolver<Long> expected = new AStarSolver<>(graph, src, dest, 20);
+            if (expected.outcome() == SolverOutcome.SOLVED) {
+                assertEquals(expected.solution().get(0), paths.get(i).get(0));
+                assertEquals(dest, (long) paths.get(i).get(paths.get(i).size() - 1));
+            } else {
+                assertTrue(paths.get(i).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testCancelledDeadline() {
+        ContractionHierarchy ch = graph.contractionHierarchy();
+        Deadline batch = Deadline.never();
+        Deadline deadline = batch.within(20);
+        assertFalse(deadline.expired());
+        batch.cancel();
+        assertTrue(deadline.isCancelled());
+        for (long[] pair : pairs()) {
+            if (pair[0] == pair[1]) {
+                continue;
+            }
+            AStarSolver<Long> astar = new AStarSolver<>(graph, pair[0], pair[1], deadline);
+            assertEquals(SolverOutcome.TIMEOUT, astar.outcome());
+            assertTrue(astar.solution().isEmpty());
+            assertEquals(pair[0], (long) astar.partialSolution().get(0));
+            assertEquals(SolverOutcome.TIMEOUT,
+                    new BidirectionalAStarSolver<>(graph, pair[0], pair[1], deadline).outcome());
+            assertEquals(SolverOutcome.TIMEOUT,
+                    new CHSolver<>(ch, graph, pair[0], pair[1], deadline).outcome());
+        }
+    }
+
+    @Test
+    public void testTimedOutRouteNotCached() {
+        long[] pair = pairs().get(5);
+        double stlon = graph.lon(pair[0]);
+        double stlat = graph.lat(pair[0]);
+        double destlon = graph.lon(pair[1]);
+        double destlat = graph.lat(pair[1]);
+        Deadline cancelled = Deadline.never();
+        cancelled.cancel();
+        RouteCache.Route route = Router.findRoute(graph, stlon, stlat, destlon, destlat,
+                Router.Algorithm.ASTAR, cancelled);
+        assertEquals(SolverOutcome.TIMEOUT, route.outcome());
+        assertEquals(graph.closest(stlon, stlat), route.path()[0]);
+        route = Router.findRoute(graph, stlon, stlat, destlon, destlat,
+                Router.Algorithm.ASTAR, Deadline.never());
+        assertEquals(SolverOutcome.SOLVED, route.outcome());
+    }
+
+    @Test
+    public void testTimedOutDistance() {
+        long[] pair = pairs().get(5);
+        Deadline cancelled = Deadline.never();
+        cancelled.cancel();
+        assertTrue(graph.currentHubLabels() == null);
+        RouteCache.Route found = Router.findDistance(graph, graph.lon(pair[0]),
+                graph.lat(pair[0]), graph.lon(pair[1]), graph.lat(pair[1]), cancelled);
+        assertEquals(SolverOutcome.TIMEOUT, found.outcome());
+    }
+
+    @Test
+    public void testComponents() {
+        Components components = graph.components();
+        int size = 0;
+        for (int c = 0; c < components.numComponents(); c++) {
+            size += components.size(c);
+            assertTrue(components.size(c) <= components.size(components.largest()));
+        }
+        assertEquals(graph.numVertices(), size);
+        for (long[] pair : pairs()) {
+            int s = graph.indexOf(pair[0]);
+            int t = graph.indexOf(pair[1]);
+            assertFalse(components.reachable(s, t) && components.unreachable(s, t));
+            SolverOutcome outcome = new AStarSolver<>(graph, pair[0], pair[1], 20).outcome();
+            if (components.reachable(s, t)) {
+                assertEquals(SolverOutcome.SOLVED, outcome);
+            }
+            if (components.unreachable(s, t)) {
+                assertEquals(SolverOutcome.UNSOLVABLE, outcome);
+            }
+        }
+        for (long[] pair : pairs()) {
+            long id = graph.closestInLargestComponent(graph.lon(pair[0]), graph.lat(pair[0]));
+            assertEquals(components.largest(), components.component(graph.indexOf(id)));
+        }
+    }
+
+    @Test
+    public void testBoundedSuboptimality() {
+        for (long[] pair : pairs()) {
+            AStarSolver<Long> exact = new AStarSolver<>(graph, pair[0], pair[1], 20);
+            AStarSolver<Long> weighted = new AStarSolver<>(graph, pair[0], pair[1], 1.5,
+                    Deadline.after(20));
+            assertEquals(exact.outcome(), weighted.outcome());
+            assertEquals(1.5, weighted.suboptimalityBound(), DOUBLE_THRESHOLD);
+            AnytimeAStarSolver<Long> anytime = new AnytimeAStarSolver<>(graph, pair[0], pair[1],
+                    2.0, Deadline.never());
+            assertEquals(exact.outcome(), anytime.outcome());
+            if (exact.outcome() != SolverOutcome.SOLVED) {
+                continue;
+            }
+            assertTrue(weighted.solutionWeight()
+                    <= 1.5 * exact.solutionWeight() + DOUBLE_THRESHOLD);
+            assertEquals(1.0, exact.suboptimalityBound(), DOUBLE_THRESHOLD);
+            /* Left to finish, refinement ends with an exact search. */
+            checkAgrees(exact, anytime);
+            assertEquals(1.0, anytime.suboptimalityBound(), DOUBLE_THRESHOLD);
+            /* Stopped after its first search, it is only as good as that one. */
+            AnytimeAStarSolver<Long> draft = new AnytimeAStarSolver<>(graph, pair[0], pair[1],
+                    2.0, Deadline.never(), 0.0);
+            assertEquals(1, draft.numSearches());
+            assertTrue(draft.suboptimalityBound() <= 2.0);
+            assertTrue(draft.solutionWeight()
+                    <= draft.suboptimalityBound() * exact.solutionWeight() + DOUBLE_THRESHOLD);
+        }
+    }
+
+    /* Returns the distance from vertex S to vertex T of G when edge e weighs WEIGHTS[e]. */
+    private static double dijkstra(AugmentedStreetMapGraph g, double[] weights, int s, int t) {
+        double[] dist = new double[g.numVertices()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        dist[s] = 0.0;
+        PriorityQueue<double[]> fringe =
+                new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        fringe.add(new double[]{0.0, s});
+        while (!fringe.isEmpty()) {
+            double[] top = fringe.remove();
+            int v = (int) top[1];
+            if (top[0] > dist[v]) {
+                continue;
+            }
+            for (int e = g.firstEdge(v); e < g.lastEdge(v); e++) {
+                int w = g.edgeTarget(e);
+                if (dist[v] + weights[e] < dist[w]) {
+                    dist[w] = dist[v] + weights[e];
+                    fringe.add(new double[]{dist[w], w});
+                }
+            }
+        }
+        return dist[t];
+    }
+
+    @Test
+    public void testCustomizableContractionHierarchy() throws Exception {
+        CustomizableContractionHierarchy cch = graph.customizableHierarchy();
+        assertTrue(cch.matches(graph));
+        ContractionHierarchy ch = cch.customize(graph);
+        for (long[] pair : pairs()) {
+            checkAgrees(new AStarSolver<>(graph, pair[0], pair[1], 20),
+                    new CHSolver<>(ch, graph, pair[0], pair[1]));
+        }
+
+        /* Triple some edges and close others, then check the distances against Dijkstra's. */
+        double[] weights = new double[graph.lastEdge(graph.numVertices() - 1)];
+        for (int e = 0; e < weights.length; e++) {
+            weights[e] = e % 5 == 0 ? 3 * graph.edgeWeight(e)
+                    : e % 11 == 0 ? Double.POSITIVE_INFINITY : graph.edgeWeight(e);
+        }
+        ContractionHierarchy custom = cch.customize(graph, weights);
+        for (long[] pair : pairs()) {
+            double expected = dijkstra(graph, weights, graph.indexOf(pair[0]),
+                    graph.indexOf(pair[1]));
+            CHSolver<Long> solver = new CHSolver<>(custom, graph, pair[0], pair[1]);
+            if (expected == Double.POSITIVE_INFINITY) {
+                assertEquals(SolverOutcome.UNSOLVABLE, solver.outcome());
+                continue;
+            }
+            assertEquals(SolverOutcome.SOLVED, solver.outcome());
+            assertEquals(expected, solver.solutionWeight(), DOUBLE_THRESHOLD);
+            List<Long> path = solver.solution();
+            double weight = 0.0;
+            for (int i = 0; i + 1 < path.size(); i++) {
+                double step = Double.POSITIVE_INFINITY;
+                int v = graph.indexOf(path.get(i));
+                for (int e = graph.firstEdge(v); e < graph.lastEdge(v); e++) {
+                    if (graph.edgeTarget(e) == graph.indexOf(path.get(i + 1))) {
+                        step = Math.min(step, weights[e]);
+                    }
+                }
+                weight += step;
+            }
+            assertEquals(expected, weight, DOUBLE_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void testWeightOverlay() throws Exception {
+        AugmentedStreetMapGraph g = new AugmentedStreetMapGraph(OSM_DB_PATH_TINY);
+        ContractionHierarchy lengths = g.contractionHierarchy();
+        HubLabels labels = g.hubLabels();
+        List<Long> before = Router.shortestPath(g, 0.4, 38.1, 0.4, 38.6,
+                Router.Algorithm.CONTRACTION_HIERARCHY);
+        File file = File.createTempFile("overlay", ".txt");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file)) {
+            out.println("# Close the middle of the shortest route.");
+            out.println(before.get(1) + " " + before.get(2) + " inf");
+        }
+        double[] weights = WeightOverlay.read(g, file.getPath());
+        WeightOverlay.apply(g, file.getPath());
+        assertTrue(g.hasWeightOverlay());
+        assertTrue(g.currentHubLabels() == null);
+        int src = g.indexOf(before.get(0));
+        int dest = g.indexOf(before.get(before.size() - 1));
+        double expected = dijkstra(g, weights, src, dest);
+        assertEquals(expected, Router.distance(g, 0.4, 38.1, 0.4, 38.6), DOUBLE_THRESHOLD);
+        List<Long> after = Router.shortestPath(g, 0.4, 38.1, 0.4, 38.6,
+                Router.Algorithm.CONTRACTION_HIERARCHY);
+        assertFalse(before.equals(after));
+        RouteCache.Route draft = Router.draftRoute(g, 0.4, 38.1, 0.4, 38.6, 0.5,
+                Deadline.never());
+        assertEquals(after, Arrays.stream(draft.path()).boxed().collect(Collectors.toList()));
+        try {
+            Router.reachable(g, 0.4, 38.1, 1.0);
+            fail("Expected the overlay to be refused.");
+        } catch (IllegalStateException e) {
+            assertEquals(Router.OVERLAY_UNSUPPORTED, e.getMessage());
+        }
+
+        assertTrue(file.delete());
+        WeightOverlay.apply(g, file.getPath());
+        assertFalse(g.hasWeightOverlay());
+        assertTrue(g.contractionHierarchy() == lengths);
+        assertTrue(g.currentHubLabels() == labels);
+        assertEquals(before, Router.shortestPath(g, 0.4, 38.1, 0.4, 38.6,
+                Router.Algorithm.CONTRACTION_HIERARCHY));
+    }
+
+    @Test
+    public void testRouterAlgorithmsTiny() {
+        for (Router.Algorithm algorithm : Router.Algorithm.values()) {
+            List<Long> expected = new ArrayList<>();
+            expected.add(41L);
+            expected.add(63L);
+            expected.add(66L);
+            expected.add(46L);
+            assertEquals(algorithm.toString(), expected,
+                    Router.shortestPath(graphTiny, 0.4, 38.1, 0.4, 38.6, algorithm));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package bearmaps.test;
+
+import bearmaps.proj2d.utils.Constants;
+import bearmaps.proj2d.utils.TileCache;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+/** Tests the hit, miss and eviction behavior of TileCache on real tiles. */
+public class TestTileCache {
+    private static String tile(int x, int y) {
+        return Constants.IMG_ROOT + String.format("d2_x%d_y%d.png", x, y);
+    }
+
+    /** Returns the number of bytes a decoded tile takes up in a cache. */
+    private static long tileBytes() {
+        TileCache cache = new TileCache(Long.MAX_VALUE);
+        cache.get(tile(0, 0));
+        return cache.sizeBytes();
+    }
+
+    @Test
+    public void testHitsAndEvictions() {
+        TileCache cache = new TileCache(3 * tileBytes());
+        BufferedImage first = cache.get(tile(0, 0));
+        assertNotNull(first);
+        assertEquals(Constants.TILE_SIZE, first.getWidth());
+        assertSame(first, cache.get(tile(0, 0)));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+
+        cache.get(tile(0, 1));
+        cache.get(tile(0, 2));
+        /* Touch the first tile, so the second one is now the least recently used. */
+        cache.get(tile(0, 0));
+        cache.get(tile(0, 3));
+        assertEquals(1, cache.evictions());
+        assertEquals(3, cache.size());
+        assertTrue(cache.sizeBytes() <= cache.budgetBytes());
+
+        assertSame(first, cache.get(tile(0, 0)));
+        long misses = cache.misses();
+        cache.get(tile(0, 1));
+        assertEquals(misses + 1, cache.misses());
+    }
+
+    @Test
+    public void testWarmUpAndMissingTiles() {
+        TileCache cache = new TileCache(64 * tileBytes());
+        cache.warmUp(Constants.IMG_ROOT, 2);
+        assertEquals(1 + 4 + 16, cache.size());
+        assertEquals(0, cache.misses());
+        cache.get(tile(3, 3));
+        assertEquals(1, cache.hits());
+
+        assertNull(cache.get(Constants.IMG_ROOT + "no_such_tile.png"));
+        /* The second lookup is answered by the remembered miss. */
+        assertNull(cache.get(Constants.IMG_ROOT + "no_such_tile.png"));
+        assertEquals(1 + 4 + 16, cache.size());
+    }
+}
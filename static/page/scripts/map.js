@@ -54,7 +54,7 @@ $(function() {
     } else {
         host = 'http://localhost:4567';
     }
-    const raster_server = host + '/raster';
+    const raster_image_server = host + '/raster.png';
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
     const search = host + '/search';
@@ -102,54 +102,56 @@ $(function() {
     }
 
     function updateImg(successCallback) {
-        /* Synchronous ajax call for image update.
-           Could be async for better experience but then user spam locks up the server.
-           Uses a small setTimeout since synchronous AJAX freezes UI updates, including
-           updates which are called before ajax() is called #sigh #why #justjavascriptthings */
+        /* Asynchronous fetch of the rastered PNG; the raster bounds come back as
+           X-Raster-* headers instead of in a JSON body, so no Base64 decoding is needed. */
         $loadingStatus.show();
         getInProgress = true;
-        $.get({
-            async: true,
-            url: raster_server,
-            data: params,
-            success: function(data) {
-                console.log(data);
-                if (data.query_success) {
-                    $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
-                    console.log('Updating map with image length: ' +
-                                data.b64_encoded_image_data.length);
-                    ullon_bound = data.raster_ul_lon;
-                    ullat_bound = data.raster_ul_lat;
-                    lrlon_bound = data.raster_lr_lon;
-                    lrlat_bound = data.raster_lr_lat;
-                    current_level = data.depth;
-                    img_w = data.raster_width;
-                    img_h = data.raster_height;
-                    wdpp = (lrlon_bound - ullon_bound) / img_w;
-                    hdpp = (ullat_bound - lrlat_bound) / img_h;
-                    // Compute initial transform
-                    tx = - (params.ullon - ullon_bound) * (1 / wdpp);
-                    ty = (params.ullat - ullat_bound) * (1 / hdpp);
-                    rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
-                    rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
-                    updateMarkers();
-                    getInProgress = false;
-                    if (successCallback) {
-                        successCallback();
-                    }
-                } else {
-                    $loadingstatus.hide();
+        fetch(raster_image_server + '?' + $.param(params)).then(function(response) {
+            if (!response.ok) {
+                throw new Error('Raster request failed with status ' + response.status);
+            }
+            if (response.status === 204) {
+                $loadingStatus.hide();
+                getInProgress = false;
+                return;
+            }
+            const header = function(name) {
+                return parseFloat(response.headers.get('X-Raster-' + name));
+            };
+            return response.blob().then(function(blob) {
+                $loadingStatus.hide();
+                if (map.src.startsWith('blob:')) {
+                    URL.revokeObjectURL(map.src);
                 }
-            },
-            error: function() {
+                map.src = URL.createObjectURL(blob);
+                console.log('Updating map with image size: ' + blob.size);
+                ullon_bound = header('Ul-Lon');
+                ullat_bound = header('Ul-Lat');
+                lrlon_bound = header('Lr-Lon');
+                lrlat_bound = header('Lr-Lat');
+                current_level = header('Depth');
+                img_w = header('Width');
+                img_h = header('Height');
+                wdpp = (lrlon_bound - ullon_bound) / img_w;
+                hdpp = (ullat_bound - lrlat_bound) / img_h;
+                // Compute initial transform
+                tx = - (params.ullon - ullon_bound) * (1 / wdpp);
+                ty = (params.ullat - ullat_bound) * (1 / hdpp);
+                rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
+                rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
+                updateMarkers();
                 getInProgress = false;
-                $errorStatus.show();
-                setTimeout(function() {
-                    $errorStatus.fadeOut();
-                }, 4000);
-            },
-            dataType: 'json'
+                if (successCallback) {
+                    successCallback();
+                }
+            });
+        }).catch(function() {
+            $loadingStatus.hide();
+            getInProgress = false;
+            $errorStatus.show();
+            setTimeout(function() {
+                $errorStatus.fadeOut();
+            }, 4000);
         });
     }
 
@@ -173,6 +175,7 @@ $(function() {
             data: route_params,
             success: function(data) {
                 data = JSON.parse(data);
+                params.route_token = data.route_token;
                 updateImg();
                 if (data.directions_success) {
                     $directionsText.html(data.directions);
@@ -407,7 +410,9 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: {route_token: params.route_token},
             success: function() {
+                delete params.route_token;
                 dest.style.visibility = 'hidden';
                 $directionsText.html('No routing directions to display.');
                 update();